@@ -77,7 +77,8 @@ abstract public class FeatureTransform< T extends FloatArray2DFeatureTransform<
 
 
 	/**
-	 * Identify corresponding features
+	 * Identify corresponding features.  The {@link PointMatch#getQuality()
+	 * quality} of each match is set to 1 - ratio of distances.
 	 *
 	 * @param fs1 feature collection from set 1
 	 * @param fs2 feature collection from set 2
@@ -99,7 +100,9 @@ abstract public class FeatureTransform< T extends FloatArray2DFeatureTransform<
 			if (best != null) {
 				final Point p1 = new Point(new double[]{f1.location[0], f1.location[1]});
 				final Point p2 = new Point(new double[]{best.location[0], best.location[1]});
-				matches.add(new PointMatch(p1, p2));
+				final PointMatch match = new PointMatch(p1, p2);
+				match.setQuality(accumulator.getQuality());
+				matches.add(match);
 			}
 		}
 
@@ -150,7 +153,9 @@ abstract public class FeatureTransform< T extends FloatArray2DFeatureTransform<
 			if (best != null) {
 				final Point p1 = new Point(new double[]{f1.location[0], f1.location[1]});
 				final Point p2 = new Point(new double[]{best.location[0], best.location[1]});
-				matches.add(new PointMatch(p1, p2));
+				final PointMatch match = new PointMatch(p1, p2);
+				match.setQuality(accumulator.getQuality());
+				matches.add(match);
 			}
 		}
 
@@ -215,6 +220,13 @@ abstract public class FeatureTransform< T extends FloatArray2DFeatureTransform<
 			}
 		}
 
+		/**
+		 * @return 1 - ratio of distances (closest/next closest match), larger is better
+		 */
+		public double getQuality() {
+			return 1.0 - bestDistance / secondBestDistance;
+		}
+
 		public Feature getClosestChecked(double maxRatioOfDistances) {
 			if (secondBestDistance < Double.MAX_VALUE && bestDistance / secondBestDistance < maxRatioOfDistances) {
 				return currentClosest;
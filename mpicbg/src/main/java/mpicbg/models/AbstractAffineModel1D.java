@@ -49,6 +49,27 @@ public abstract class AbstractAffineModel1D< M extends AbstractAffineModel1D< M
 
 	public abstract double[] getMatrix( final double[] m );
 
+	@Override
+	public void applyInPlace( final double[][] locations, final int offset, final int length )
+	{
+		final double[] m = new double[ 2 ];
+		toArray( m );
+		final double m00 = m[ 0 ], m01 = m[ 1 ];
+		final double[] x = locations[ 0 ];
+		for ( int i = offset, end = offset + length; i < end; ++i )
+			x[ i ] = x[ i ] * m00 + m01;
+	}
+
+	@Override
+	public void applyInPlace( final double[] locations, final int numDimensions, final int offset, final int length )
+	{
+		final double[] m = new double[ 2 ];
+		toArray( m );
+		final double m00 = m[ 0 ], m01 = m[ 1 ];
+		for ( int i = offset * numDimensions, end = ( offset + length ) * numDimensions; i < end; i += numDimensions )
+			locations[ i ] = locations[ i ] * m00 + m01;
+	}
+
 	@Override
 	public void estimateBounds( final double[] min, final double[] max )
 	{
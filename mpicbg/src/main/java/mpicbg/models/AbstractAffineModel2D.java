@@ -67,6 +67,42 @@ public abstract class AbstractAffineModel2D< M extends AbstractAffineModel2D< M
 	@Override
 	abstract public AffineTransform createInverseAffine();
 
+	@Override
+	public void applyInPlace( final double[][] locations, final int offset, final int length )
+	{
+		assert locations.length >= 2 : "2d affine transformations can be applied to 2d points only.";
+
+		final double[] m = new double[ 6 ];
+		toArray( m );
+		final double m00 = m[ 0 ], m10 = m[ 1 ], m01 = m[ 2 ], m11 = m[ 3 ], m02 = m[ 4 ], m12 = m[ 5 ];
+		final double[] x = locations[ 0 ];
+		final double[] y = locations[ 1 ];
+		for ( int i = offset, end = offset + length; i < end; ++i )
+		{
+			final double l0 = x[ i ];
+			final double l1 = y[ i ];
+			x[ i ] = l0 * m00 + l1 * m01 + m02;
+			y[ i ] = l0 * m10 + l1 * m11 + m12;
+		}
+	}
+
+	@Override
+	public void applyInPlace( final double[] locations, final int numDimensions, final int offset, final int length )
+	{
+		assert numDimensions >= 2 : "2d affine transformations can be applied to 2d points only.";
+
+		final double[] m = new double[ 6 ];
+		toArray( m );
+		final double m00 = m[ 0 ], m10 = m[ 1 ], m01 = m[ 2 ], m11 = m[ 3 ], m02 = m[ 4 ], m12 = m[ 5 ];
+		for ( int i = offset * numDimensions, end = ( offset + length ) * numDimensions; i < end; i += numDimensions )
+		{
+			final double l0 = locations[ i ];
+			final double l1 = locations[ i + 1 ];
+			locations[ i ] = l0 * m00 + l1 * m01 + m02;
+			locations[ i + 1 ] = l0 * m10 + l1 * m11 + m12;
+		}
+	}
+
 	@Override
 	public void estimateBounds( final double[] min, final double[] max )
 	{
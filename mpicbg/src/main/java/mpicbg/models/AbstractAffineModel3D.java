@@ -51,6 +51,55 @@ public abstract class AbstractAffineModel3D < M extends AbstractAffineModel3D< M
 
 	public abstract double[] getMatrix( final double[] m );
 
+	@Override
+	public void applyInPlace( final double[][] locations, final int offset, final int length )
+	{
+		assert locations.length >= 3 : "3d affine transformations can be applied to 3d points only.";
+
+		final double[] m = new double[ 12 ];
+		toArray( m );
+		final double
+				m00 = m[ 0 ], m10 = m[ 1 ], m20 = m[ 2 ],
+				m01 = m[ 3 ], m11 = m[ 4 ], m21 = m[ 5 ],
+				m02 = m[ 6 ], m12 = m[ 7 ], m22 = m[ 8 ],
+				m03 = m[ 9 ], m13 = m[ 10 ], m23 = m[ 11 ];
+		final double[] x = locations[ 0 ];
+		final double[] y = locations[ 1 ];
+		final double[] z = locations[ 2 ];
+		for ( int i = offset, end = offset + length; i < end; ++i )
+		{
+			final double l0 = x[ i ];
+			final double l1 = y[ i ];
+			final double l2 = z[ i ];
+			x[ i ] = l0 * m00 + l1 * m01 + l2 * m02 + m03;
+			y[ i ] = l0 * m10 + l1 * m11 + l2 * m12 + m13;
+			z[ i ] = l0 * m20 + l1 * m21 + l2 * m22 + m23;
+		}
+	}
+
+	@Override
+	public void applyInPlace( final double[] locations, final int numDimensions, final int offset, final int length )
+	{
+		assert numDimensions >= 3 : "3d affine transformations can be applied to 3d points only.";
+
+		final double[] m = new double[ 12 ];
+		toArray( m );
+		final double
+				m00 = m[ 0 ], m10 = m[ 1 ], m20 = m[ 2 ],
+				m01 = m[ 3 ], m11 = m[ 4 ], m21 = m[ 5 ],
+				m02 = m[ 6 ], m12 = m[ 7 ], m22 = m[ 8 ],
+				m03 = m[ 9 ], m13 = m[ 10 ], m23 = m[ 11 ];
+		for ( int i = offset * numDimensions, end = ( offset + length ) * numDimensions; i < end; i += numDimensions )
+		{
+			final double l0 = locations[ i ];
+			final double l1 = locations[ i + 1 ];
+			final double l2 = locations[ i + 2 ];
+			locations[ i ] = l0 * m00 + l1 * m01 + l2 * m02 + m03;
+			locations[ i + 1 ] = l0 * m10 + l1 * m11 + l2 * m12 + m13;
+			locations[ i + 2 ] = l0 * m20 + l1 * m21 + l2 * m22 + m23;
+		}
+	}
+
 	@Override
 	public void estimateBounds( final double[] min, final double[] max )
 	{
@@ -39,10 +39,19 @@ package mpicbg.models;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import mpicbg.util.KDTree;
 
 /**
  * Abstract class for arbitrary transformation models to be applied
@@ -83,6 +92,47 @@ import java.util.Random;
  *   year      = {1994},
  *   pages     = {119--152},
  * }
+ * &#64;article{ChumM08,
+ *   author    = {Ond\v{r}ej Chum and Ji\v{r}\'{\i} Matas},
+ *   title     = {Optimal Randomized {RANSAC}},
+ *   journal   = {IEEE Transactions on Pattern Analysis and Machine Intelligence},
+ *   volume    = {30},
+ *   number    = {8},
+ *   year      = {2008},
+ *   pages     = {1472--1482},
+ * }
+ * &#64;inproceedings{ChumM05,
+ *   author    = {Ond\v{r}ej Chum and Ji\v{r}\'{\i} Matas},
+ *   title     = {Matching with {PROSAC} - Progressive Sample Consensus},
+ *   booktitle = {IEEE Computer Society Conference on Computer Vision and Pattern Recognition},
+ *   volume    = {1},
+ *   year      = {2005},
+ *   pages     = {220--226},
+ * }
+ * &#64;inproceedings{ChumMK03,
+ *   author    = {Ond\v{r}ej Chum and Ji\v{r}\'{\i} Matas and Josef Kittler},
+ *   title     = {Locally Optimized {RANSAC}},
+ *   booktitle = {Pattern Recognition, 25th DAGM Symposium},
+ *   series    = {Lecture Notes in Computer Science},
+ *   volume    = {2781},
+ *   year      = {2003},
+ *   pages     = {236--243},
+ * }
+ * &#64;inproceedings{ChetverikovSSK02,
+ *   author    = {Dmitry Chetverikov and Dmitry Svirko and Dmitry Stepanov and Pavel Krsek},
+ *   title     = {The Trimmed Iterative Closest Point Algorithm},
+ *   booktitle = {Proceedings of the 16th International Conference on Pattern Recognition},
+ *   volume    = {3},
+ *   year      = {2002},
+ *   pages     = {545--548},
+ * }
+ * &#64;inproceedings{LebedaMC12,
+ *   author    = {Karel Lebeda and Ji\v{r}\'{\i} Matas and Ond\v{r}ej Chum},
+ *   title     = {Fixing the Locally Optimized {RANSAC}},
+ *   booktitle = {Proceedings of the British Machine Vision Conference},
+ *   year      = {2012},
+ *   pages     = {95.1--95.11},
+ * }
  * </pre>
  *
  * @author Stephan Saalfeld &lt;saalfelds@janelia.hhmi.org&gt;
@@ -97,6 +147,153 @@ public abstract class AbstractModel< M extends AbstractModel< M > > implements M
 	/* repeatable results */
 	final static protected Random rnd = new Random( 69997 );
 
+	/**
+	 * Optional strategies for
+	 * {@link AbstractModel#ransac(List, Collection, int, double, double, int, RansacParam) RANSAC}.
+	 * The defaults reproduce plain RANSAC as in
+	 * {@link AbstractModel#ransac(List, Collection, int, double, double, int)}.
+	 */
+	static public class RansacParam implements Serializable
+	{
+		private static final long serialVersionUID = 6206373451413372312L;
+
+		/**
+		 * Probability (0.0 - 1.0) of having drawn at least one outlier-free
+		 * sample when stopping early.  1.0 disables the adaptive number of
+		 * iterations.
+		 */
+		public double confidence = 1.0;
+
+		/**
+		 * Verify hypotheses by Wald's sequential probability ratio test
+		 * \cite{ChumM08} before testing them on all candidates.
+		 */
+		public boolean sprt = false;
+
+		/**
+		 * Time to estimate one hypothesis in units of testing one candidate,
+		 * used to find the optimal decision threshold of the
+		 * {@link #sprt SPRT}.
+		 */
+		public double sprtModelCost = 200;
+
+		/**
+		 * Initial estimate for the probability that a candidate is consistent
+		 * with a bad hypothesis, refined while running.  Also used for the
+		 * non-randomness criterion of {@link #prosac PROSAC}.
+		 */
+		public double sprtDelta = 0.05;
+
+		/**
+		 * Draw samples progressively from the candidates with the highest
+		 * {@link PointMatch#getQuality() quality} first (PROSAC)
+		 * \cite{ChumM05}.
+		 */
+		public boolean prosac = false;
+
+		/**
+		 * Number of samples after which {@link #prosac PROSAC} draws from all
+		 * candidates like plain RANSAC.
+		 */
+		public int prosacMaxSamples = 200000;
+
+		/**
+		 * Refit only hypotheses that are the best so far, by local
+		 * optimization (LO-RANSAC) \cite{ChumMK03,LebedaMC12}, instead of
+		 * iteratively refitting the consensus set of every acceptable
+		 * hypothesis.  Requires that
+		 * {@link AbstractModel#fit(double[][], double[][], double[])} respects
+		 * weights of 0.
+		 */
+		public boolean localOptimization = false;
+
+		/**
+		 * Number of subsets of the consensus set that are drawn per
+		 * {@link #localOptimization local optimization}.
+		 */
+		public int loInnerIterations = 10;
+
+		/**
+		 * Size of the subsets drawn for {@link #localOptimization local
+		 * optimization} as a multiple of {@link AbstractModel#getMinNumMatches()}.
+		 */
+		public int loSampleFactor = 7;
+
+		/**
+		 * Number of iteratively reweighted least squares fits per subset,
+		 * with the inlier threshold shrinking from
+		 * {@link #loThresholdMultiplier} &times; epsilon to epsilon.
+		 */
+		public int loIterations = 4;
+
+		/**
+		 * Inlier threshold of the first reweighted fit in multiples of
+		 * epsilon.
+		 */
+		public double loThresholdMultiplier = 2.0;
+
+		@Override
+		public RansacParam clone()
+		{
+			final RansacParam p = new RansacParam();
+			p.confidence = confidence;
+			p.sprt = sprt;
+			p.sprtModelCost = sprtModelCost;
+			p.sprtDelta = sprtDelta;
+			p.prosac = prosac;
+			p.prosacMaxSamples = prosacMaxSamples;
+			p.localOptimization = localOptimization;
+			p.loInnerIterations = loInnerIterations;
+			p.loSampleFactor = loSampleFactor;
+			p.loIterations = loIterations;
+			p.loThresholdMultiplier = loThresholdMultiplier;
+			return p;
+		}
+	}
+
+	/**
+	 * Parameters for
+	 * {@link AbstractModel#icp(List, List, IcpParam, ExecutorService, int) ICP}.
+	 * The defaults pair all points.
+	 */
+	static public class IcpParam implements Serializable
+	{
+		private static final long serialVersionUID = -1744254361733390541L;
+
+		/**
+		 * Maximal number of iterations.
+		 */
+		public int maxIterations = 100;
+
+		/**
+		 * Stop when the root mean square distance of the pairs decreases
+		 * relatively by less than this.
+		 */
+		public double minRmsChange = 1.0e-6;
+
+		/**
+		 * Fraction (0.0 - 1.0) of the closest pairs that is used for
+		 * fitting, 1.0 uses all pairs.
+		 */
+		public double trimFraction = 1.0;
+
+		/**
+		 * Pairs with a larger distance are not used for fitting.
+		 */
+		public double maxDistance = Double.MAX_VALUE;
+
+		@Override
+		public IcpParam clone()
+		{
+			final IcpParam p = new IcpParam();
+			p.maxIterations = maxIterations;
+			p.minRmsChange = minRmsChange;
+			p.trimFraction = trimFraction;
+			p.maxDistance = maxDistance;
+			return p;
+		}
+	}
+
 	/**
 	 * The cost depends on what kind of algorithm is running.  It is always
 	 * true that a smaller cost is better than large cost
@@ -172,6 +369,66 @@ public abstract class AbstractModel< M extends AbstractModel< M > > implements M
 		return test( candidates, inliers, epsilon, minInlierRatio, getMinNumMatches() );
 	}
 
+	/**
+	 * Test the {@link AbstractModel} for a set of {@link PointMatch} candidates
+	 * like {@link #test(Collection, Collection, double, double, int)} but
+	 * without modifying the world coordinates of the candidates.  Local
+	 * coordinates are transferred into location instead, such that multiple
+	 * models can be tested concurrently on the same candidates.
+	 *
+	 * @param candidates set of point correspondence candidates
+	 * @param inliers set of point correspondences that fit the model
+	 * @param epsilon maximal allowed transfer error
+	 * @param minInlierRatio minimal ratio {@code |inliers| / |candidates| (0.0 => 0%, 1.0 => 100%)}
+	 * @param minNumInliers minimally required absolute number of inliers
+	 * @param location temporary storage with the dimensionality of the
+	 *   candidates
+	 */
+	final public < P extends PointMatch >boolean test(
+			final Collection< P > candidates,
+			final Collection< P > inliers,
+			final double epsilon,
+			final double minInlierRatio,
+			final int minNumInliers,
+			final double[] location )
+	{
+		inliers.clear();
+
+		for ( final P m : candidates )
+		{
+			if ( transferDistance( m, location ) < epsilon ) inliers.add( m );
+		}
+
+		final double ir = ( double )inliers.size() / ( double )candidates.size();
+		setCost( Math.max( 0.0, Math.min( 1.0, 1.0 - ir ) ) );
+
+		return ( inliers.size() >= minNumInliers && ir > minInlierRatio );
+	}
+
+	/**
+	 * Euclidean distance of the transferred local coordinates of
+	 * {@link PointMatch#getP1() p1} and the world coordinates of
+	 * {@link PointMatch#getP2() p2} without modifying either of them.
+	 *
+	 * @param match
+	 * @param location temporary storage with the dimensionality of match
+	 * @return transfer error
+	 */
+	final protected double transferDistance( final PointMatch match, final double[] location )
+	{
+		final double[] l = match.getP1().getL();
+		final double[] w = match.getP2().getW();
+		System.arraycopy( l, 0, location, 0, location.length );
+		applyInPlace( location );
+		double sum = 0.0;
+		for ( int d = 0; d < location.length; ++d )
+		{
+			final double dd = location[ d ] - w[ d ];
+			sum += dd * dd;
+		}
+		return Math.sqrt( sum );
+	}
+
 	/**
 	 * Estimate the {@link AbstractModel} and filter potential outliers by robust
 	 * iterative regression.
@@ -206,6 +463,10 @@ public abstract class AbstractModel< M extends AbstractModel< M > > implements M
 
 		final M copy = copy();
 
+		/* models that can be fitted to moments remove outliers from the
+		 * moments instead of rescanning all inliers */
+		final PointMatchMoments moments = copy instanceof MomentsFittable ? new PointMatchMoments( candidates ) : null;
+
 		inliers.clear();
 		inliers.addAll( candidates );
 		final ArrayList< P > temp = new ArrayList< P >();
@@ -217,7 +478,10 @@ public abstract class AbstractModel< M extends AbstractModel< M > > implements M
 			numInliers = inliers.size();
 			try
 			{
-				copy.fit( inliers );
+				if ( moments == null )
+					copy.fit( inliers );
+				else
+					( ( MomentsFittable )copy ).fit( moments );
 			}
 			catch ( final NotEnoughDataPointsException e )
 			{
@@ -239,6 +503,8 @@ public abstract class AbstractModel< M extends AbstractModel< M > > implements M
 			{
 				if ( m.getDistance() <= t )
 					inliers.add( m );
+				else if ( moments != null )
+					moments.remove( m );
 			}
 
 			copy.cost = observer.mean;
@@ -306,249 +572,1329 @@ public abstract class AbstractModel< M extends AbstractModel< M > > implements M
 			final int minNumInliers )
 		throws NotEnoughDataPointsException
 	{
-		if ( candidates.size() < getMinNumMatches() )
-			throw new NotEnoughDataPointsException( candidates.size() + " data points are not enough to solve the Model, at least " + getMinNumMatches() + " data points required." );
-
-		cost = Double.MAX_VALUE;
-
-		final M copy = copy();
-		final M m = copy();
-
-		inliers.clear();
-
-		int i = 0;
-		final HashSet< P > minMatches = new HashSet< P >();
-
-A:		while ( i < iterations )
-		{
-			// choose model.MIN_SET_SIZE disjunctive matches randomly
-			minMatches.clear();
-			for ( int j = 0; j < getMinNumMatches(); ++j )
-			{
-				P p;
-				do
-				{
-					p = candidates.get( ( int )( rnd.nextDouble() * candidates.size() ) );
-				}
-				while ( minMatches.contains( p ) );
-				minMatches.add( p );
-			}
-			try { m.fit( minMatches ); }
-			catch ( final IllDefinedDataPointsException e )
-			{
-				++i;
-				continue;
-			}
-
-			final ArrayList< P > tempInliers = new ArrayList< P >();
-
-			int numInliers = 0;
-			boolean isGood = m.test( candidates, tempInliers, epsilon, minInlierRatio );
-			while ( isGood && numInliers < tempInliers.size() )
-			{
-				numInliers = tempInliers.size();
-				try { m.fit( tempInliers ); }
-				catch ( final IllDefinedDataPointsException e )
-				{
-					++i;
-					continue A;
-				}
-				isGood = m.test( candidates, tempInliers, epsilon, minInlierRatio, minNumInliers );
-			}
-			if (
-					isGood &&
-					m.betterThan( copy ) &&
-					tempInliers.size() >= minNumInliers )
-			{
-				copy.set( m );
-				inliers.clear();
-				inliers.addAll( tempInliers );
-			}
-			++i;
-		}
-		if ( inliers.size() == 0 )
-			return false;
-
-		set( copy );
-		return true;
+		return ransac( candidates, inliers, iterations, epsilon, minInlierRatio, minNumInliers, 1.0 );
 	}
 
 	/**
-	 * Call {@link #ransac(List, Collection, int, double, double, int)} with
-	 * minNumInliers = {@link #getMinNumMatches()}.
+	 * Find the {@link AbstractModel} of a set of {@link PointMatch} candidates
+	 * containing a high number of outliers using
+	 * {@link #ransac(List, Collection, int, double, double, int) RANSAC}
+	 * \citet[{FischlerB81} with an adaptive number of iterations.
+	 * <p>
+	 * Each time a better hypothesis is found, the number of iterations is
+	 * reduced to the number that is required to draw at least one
+	 * outlier-free sample of {@link #getMinNumMatches()} candidates with the
+	 * given confidence, assuming that the inlier ratio of the best hypothesis
+	 * is the true inlier ratio (see
+	 * {@link #ransacIterations(double, int, double, int)}).  A confidence of
+	 * 1.0 disables the adaptation and always performs maxIterations.
+	 * </p>
+	 *
+	 * @param candidates candidate data points inluding (many) outliers
+	 * @param inliers remaining candidates after RANSAC
+	 * @param maxIterations maximal number of iterations
+	 * @param epsilon maximal allowed transfer error
+	 * @param minInlierRatio minimal number of inliers to number of
+	 *   candidates
+	 * @param minNumInliers minimally required absolute number of inliers
+	 * @param confidence probability (0.0 - 1.0) of having drawn at least one
+	 *   outlier-free sample when stopping early, e.g. 0.99
+	 *
+	 * @return true if {@link AbstractModel} could be estimated and inliers is not
+	 *   empty, false otherwise.  If false, {@link AbstractModel} remains unchanged.
 	 */
-	@Override
 	final public < P extends PointMatch >boolean ransac(
 			final List< P > candidates,
 			final Collection< P > inliers,
-			final int iterations,
+			final int maxIterations,
 			final double epsilon,
-			final double minInlierRatio )
+			final double minInlierRatio,
+			final int minNumInliers,
+			final double confidence )
 		throws NotEnoughDataPointsException
 	{
-		return ransac( candidates, inliers, iterations, epsilon, minInlierRatio, getMinNumMatches() );
+		final RansacParam param = new RansacParam();
+		param.confidence = confidence;
+		return ransac( candidates, inliers, maxIterations, epsilon, minInlierRatio, minNumInliers, param );
 	}
 
 	/**
-	 * Estimate a {@link AbstractModel} from a set with many outliers by first
-	 * filtering the worst outliers with {@link #ransac RANSAC}
-	 * \citet[{FischlerB81} and filter potential outliers by robust iterative
-	 * regression.
+	 * Find the {@link AbstractModel} of a set of {@link PointMatch} candidates
+	 * containing a high number of outliers using
+	 * {@link #ransac(List, Collection, int, double, double, int) RANSAC}
+	 * \citet[{FischlerB81} with the optional strategies configured in param.
 	 *
 	 * @param candidates candidate data points inluding (many) outliers
 	 * @param inliers remaining candidates after RANSAC
-	 * @param iterations number of iterations
-	 * @param maxEpsilon maximal allowed transfer error
+	 * @param maxIterations maximal number of iterations
+	 * @param epsilon maximal allowed transfer error
 	 * @param minInlierRatio minimal number of inliers to number of
 	 *   candidates
 	 * @param minNumInliers minimally required absolute number of inliers
-	 * @param maxTrust reject candidates with a cost larger than
-	 *   maxTrust * median cost
+	 * @param param optional strategies
 	 *
 	 * @return true if {@link AbstractModel} could be estimated and inliers is not
 	 *   empty, false otherwise.  If false, {@link AbstractModel} remains unchanged.
 	 */
-	@Override
-	final public < P extends PointMatch >boolean filterRansac(
+	final public < P extends PointMatch >boolean ransac(
 			final List< P > candidates,
 			final Collection< P > inliers,
-			final int iterations,
-			final double maxEpsilon,
+			final int maxIterations,
+			final double epsilon,
 			final double minInlierRatio,
 			final int minNumInliers,
-			final double maxTrust )
+			final RansacParam param )
 		throws NotEnoughDataPointsException
 	{
-		final ArrayList< P > temp = new ArrayList< P >();
-		if (
-				ransac(
-						candidates,
-						temp,
-						iterations,
-						maxEpsilon,
-						minInlierRatio,
-						minNumInliers ) &&
-				filter( temp, inliers, maxTrust, minNumInliers ) )
-			return true;
-		return false;
+		if ( candidates.size() < getMinNumMatches() )
+			throw new NotEnoughDataPointsException( candidates.size() + " data points are not enough to solve the Model, at least " + getMinNumMatches() + " data points required." );
+
+		cost = Double.MAX_VALUE;
+
+		final M copy = ransacHypotheses( candidates, inliers, maxIterations, epsilon, minInlierRatio, minNumInliers, param, 1, rnd );
+
+		if ( inliers.size() == 0 )
+			return false;
+
+		set( copy );
+		return true;
 	}
 
 	/**
-	 * Call {@link #filterRansac(List, Collection, int, double, double, int, double)}
-	 * with maxTrust = 4.
+	 * Find the {@link AbstractModel} of a set of {@link PointMatch} candidates
+	 * containing a high number of outliers using
+	 * {@link #ransac(List, Collection, int, double, double, int) RANSAC}
+	 * \citet[{FischlerB81} with the hypotheses being distributed over
+	 * numTasks independent tasks that are executed by executor.
+	 * <p>
+	 * Each task draws its samples from its own {@link Random} stream seeded
+	 * from seed, the best hypothesis is selected by the number of inliers and
+	 * then by cost.  Results are therefore reproducible for a given seed and
+	 * number of tasks, independent of the number of threads used by executor
+	 * and the order in which the tasks are executed.
+	 * </p>
+	 * <p>
+	 * The world coordinates of the candidates are not modified while testing
+	 * hypotheses, so candidates must not be modified concurrently either.
+	 * </p>
+	 *
+	 * @param candidates candidate data points inluding (many) outliers
+	 * @param inliers remaining candidates after RANSAC
+	 * @param iterations number of iterations, distributed over all tasks
+	 * @param epsilon maximal allowed transfer error
+	 * @param minInlierRatio minimal number of inliers to number of
+	 *   candidates
+	 * @param minNumInliers minimally required absolute number of inliers
+	 * @param executor executes the tasks
+	 * @param numTasks number of tasks
+	 * @param seed seed for the random streams of all tasks
+	 *
+	 * @return true if {@link AbstractModel} could be estimated and inliers is not
+	 *   empty, false otherwise.  If false, {@link AbstractModel} remains unchanged.
 	 */
-	@Override
-	final public < P extends PointMatch >boolean filterRansac(
+	final public < P extends PointMatch >boolean ransac(
 			final List< P > candidates,
 			final Collection< P > inliers,
 			final int iterations,
-			final double maxEpsilon,
+			final double epsilon,
 			final double minInlierRatio,
-			final int minNumInliers )
+			final int minNumInliers,
+			final ExecutorService executor,
+			final int numTasks,
+			final long seed )
 		throws NotEnoughDataPointsException
 	{
-		return filterRansac( candidates, inliers, iterations, maxEpsilon, minInlierRatio, minNumInliers, 4f );
+		return ransac( candidates, inliers, iterations, epsilon, minInlierRatio, minNumInliers, 1.0, executor, numTasks, seed );
 	}
 
-
 	/**
-	 * Call {@link #filterRansac(List, Collection, int, double, double, int, double)}
-	 * with minNumInliers = {@link #getMinNumMatches()}.
+	 * Multi-threaded
+	 * {@link #ransac(List, Collection, int, double, double, int, double) RANSAC}
+	 * with an adaptive number of iterations as in
+	 * {@link #ransac(List, Collection, int, double, double, int, ExecutorService, int, long)}.
+	 * Each task adapts its share of the required iterations to its own best
+	 * hypothesis such that results remain reproducible for a given seed and
+	 * number of tasks.
+	 *
+	 * @param candidates candidate data points inluding (many) outliers
+	 * @param inliers remaining candidates after RANSAC
+	 * @param maxIterations maximal number of iterations, distributed over all
+	 *   tasks
+	 * @param epsilon maximal allowed transfer error
+	 * @param minInlierRatio minimal number of inliers to number of
+	 *   candidates
+	 * @param minNumInliers minimally required absolute number of inliers
+	 * @param confidence probability (0.0 - 1.0) of having drawn at least one
+	 *   outlier-free sample when stopping early, 1.0 disables the adaptation
+	 * @param executor executes the tasks
+	 * @param numTasks number of tasks
+	 * @param seed seed for the random streams of all tasks
+	 *
+	 * @return true if {@link AbstractModel} could be estimated and inliers is not
+	 *   empty, false otherwise.  If false, {@link AbstractModel} remains unchanged.
 	 */
-	@Override
-	final public < P extends PointMatch >boolean filterRansac(
+	final public < P extends PointMatch >boolean ransac(
 			final List< P > candidates,
 			final Collection< P > inliers,
-			final int iterations,
-			final double maxEpsilon,
+			final int maxIterations,
+			final double epsilon,
 			final double minInlierRatio,
-			final double maxTrust )
+			final int minNumInliers,
+			final double confidence,
+			final ExecutorService executor,
+			final int numTasks,
+			final long seed )
 		throws NotEnoughDataPointsException
 	{
-		return filterRansac( candidates, inliers, iterations, maxEpsilon, minInlierRatio, getMinNumMatches(), maxTrust );
+		final RansacParam param = new RansacParam();
+		param.confidence = confidence;
+		return ransac( candidates, inliers, maxIterations, epsilon, minInlierRatio, minNumInliers, param, executor, numTasks, seed );
 	}
 
-
 	/**
-	 * Call {@link #filterRansac(List, Collection, int, double, double, double)}
-	 * with maxTrust = 4.
+	 * Multi-threaded
+	 * {@link #ransac(List, Collection, int, double, double, int, RansacParam) RANSAC}
+	 * with the optional strategies configured in param as in
+	 * {@link #ransac(List, Collection, int, double, double, int, ExecutorService, int, long)}.
+	 * Each task keeps its own state for adaptive strategies such that results
+	 * remain reproducible for a given seed and number of tasks.
+	 *
+	 * @param candidates candidate data points inluding (many) outliers
+	 * @param inliers remaining candidates after RANSAC
+	 * @param maxIterations maximal number of iterations, distributed over all
+	 *   tasks
+	 * @param epsilon maximal allowed transfer error
+	 * @param minInlierRatio minimal number of inliers to number of
+	 *   candidates
+	 * @param minNumInliers minimally required absolute number of inliers
+	 * @param param optional strategies
+	 * @param executor executes the tasks
+	 * @param numTasks number of tasks
+	 * @param seed seed for the random streams of all tasks
+	 *
+	 * @return true if {@link AbstractModel} could be estimated and inliers is not
+	 *   empty, false otherwise.  If false, {@link AbstractModel} remains unchanged.
 	 */
-	@Override
-	final public < P extends PointMatch >boolean filterRansac(
+	final public < P extends PointMatch >boolean ransac(
 			final List< P > candidates,
 			final Collection< P > inliers,
-			final int iterations,
-			final double maxEpsilon,
-			final double minInlierRatio )
+			final int maxIterations,
+			final double epsilon,
+			final double minInlierRatio,
+			final int minNumInliers,
+			final RansacParam param,
+			final ExecutorService executor,
+			final int numTasks,
+			final long seed )
 		throws NotEnoughDataPointsException
 	{
-		return filterRansac( candidates, inliers, iterations, maxEpsilon, minInlierRatio, 4f );
-	}
+		if ( candidates.size() < getMinNumMatches() )
+			throw new NotEnoughDataPointsException( candidates.size() + " data points are not enough to solve the Model, at least " + getMinNumMatches() + " data points required." );
 
+		assert numTasks > 0 : "At least one task is required.";
 
-	/**
-	 * Estimate the best model in terms of the Iterative Closest Point
-	 * Algorithm \cite{Zhang94} for matching two point clouds into each other.
+		cost = Double.MAX_VALUE;
+
+		/* seed all streams upfront such that they do not depend on scheduling */
+		final Random seeds = new Random( seed );
+		final ArrayList< ArrayList< P > > taskInliers = new ArrayList< ArrayList< P > >( numTasks );
+		final ArrayList< Future< M > > tasks = new ArrayList< Future< M > >( numTasks );
+		for ( int t = 0; t < numTasks; ++t )
+		{
+			final Random random = new Random( seeds.nextLong() );
+			final int taskIterations = maxIterations / numTasks + ( t < maxIterations % numTasks ? 1 : 0 );
+			final ArrayList< P > tempInliers = new ArrayList< P >();
+			taskInliers.add( tempInliers );
+			tasks.add( executor.submit( new Callable< M >()
+			{
+				@Override
+				public M call() throws NotEnoughDataPointsException
+				{
+					return ransacHypotheses( candidates, tempInliers, taskIterations, epsilon, minInlierRatio, minNumInliers, param, numTasks, random );
+				}
+			} ) );
+		}
+
+		/* reduce in task order, so ties are resolved deterministically */
+		M best = null;
+		ArrayList< P > bestInliers = null;
+		for ( int t = 0; t < numTasks; ++t )
+		{
+			final M m;
+			try
+			{
+				m = tasks.get( t ).get();
+			}
+			catch ( final InterruptedException e )
+			{
+				for ( final Future< M > task : tasks )
+					task.cancel( true );
+				throw new RuntimeException( e );
+			}
+			catch ( final ExecutionException e )
+			{
+				for ( final Future< M > task : tasks )
+					task.cancel( true );
+				if ( e.getCause() instanceof NotEnoughDataPointsException )
+					throw ( NotEnoughDataPointsException )e.getCause();
+				throw new RuntimeException( e.getCause() );
+			}
+			final ArrayList< P > mInliers = taskInliers.get( t );
+			if ( mInliers.size() == 0 )
+				continue;
+			if (
+					bestInliers == null ||
+					mInliers.size() > bestInliers.size() ||
+					( mInliers.size() == bestInliers.size() && m.betterThan( best ) ) )
+			{
+				best = m;
+				bestInliers = mInliers;
+			}
+		}
+
+		inliers.clear();
+		if ( best == null )
+			return false;
+
+		inliers.addAll( bestInliers );
+		set( best );
+		return true;
+	}
+
+	/**
+	 * Estimate the number of RANSAC iterations that are required to draw at
+	 * least one sample of sampleSize inliers with a given confidence:
+	 * {@code log( 1 - confidence ) / log( 1 - inlierRatio^sampleSize )}.
+	 *
+	 * @param inlierRatio ratio of inliers in the candidate set
+	 * @param sampleSize number of candidates drawn per iteration, usually
+	 *   {@link #getMinNumMatches()}
+	 * @param confidence probability (0.0 - 1.0) of having drawn at least one
+	 *   outlier-free sample
+	 * @param maxIterations upper bound for the result
+	 *
+	 * @return required number of iterations in [1, maxIterations]
+	 */
+	static public int ransacIterations(
+			final double inlierRatio,
+			final int sampleSize,
+			final double confidence,
+			final int maxIterations )
+	{
+		return ransacIterations( inlierRatio, sampleSize, confidence, maxIterations, 1.0 );
+	}
+
+	/**
+	 * Estimate the number of RANSAC iterations like
+	 * {@link #ransacIterations(double, int, double, int)} for a verification
+	 * that accepts a good hypothesis only with probability pAccept.
+	 */
+	static private int ransacIterations(
+			final double inlierRatio,
+			final int sampleSize,
+			final double confidence,
+			final int maxIterations,
+			final double pAccept )
+	{
+		if ( inlierRatio <= 0 || confidence >= 1.0 )
+			return maxIterations;
+
+		final double pGoodSample = Math.pow( Math.min( 1.0, inlierRatio ), sampleSize ) * pAccept;
+		if ( pGoodSample >= 1.0 )
+			return Math.min( 1, maxIterations );
+
+		/* comparison is false for NaN and infinity */
+		final double n = Math.log( 1.0 - confidence ) / Math.log1p( -pGoodSample );
+		if ( !( n < maxIterations ) )
+			return maxIterations;
+
+		return Math.max( 1, ( int )Math.ceil( n ) );
+	}
+
+	/**
+	 * Evaluate a number of random hypotheses and return the best one.
+	 * Clears inliers and fills it with the inliers of the best hypothesis,
+	 * inliers remains empty if no acceptable hypothesis was found.  The
+	 * world coordinates of the candidates are not modified.
+	 *
+	 * @param param optional strategies
+	 * @param numTasks number of tasks that share the required iterations
+	 *
+	 * @return a copy of this model, set to the best hypothesis if inliers is
+	 *   not empty
+	 */
+	final private < P extends PointMatch > M ransacHypotheses(
+			final List< P > candidates,
+			final Collection< P > inliers,
+			final int maxIterations,
+			final double epsilon,
+			final double minInlierRatio,
+			final int minNumInliers,
+			final RansacParam param,
+			final int numTasks,
+			final Random random )
+		throws NotEnoughDataPointsException
+	{
+		final M copy = copy();
+		final M m = copy();
+
+		inliers.clear();
+
+		final double[] location = new double[ candidates.get( 0 ).getP1().getL().length ];
+
+		final SequentialProbabilityRatioTest sprt;
+		final int[] order;
+		if ( param.sprt )
+		{
+			sprt = new SequentialProbabilityRatioTest( param.sprtModelCost, param.sprtDelta );
+			/* test candidates in random order, starting at random offsets */
+			order = new int[ candidates.size() ];
+			for ( int k = 0; k < order.length; ++k )
+				order[ k ] = k;
+			for ( int k = order.length - 1; k > 0; --k )
+			{
+				final int l = random.nextInt( k + 1 );
+				final int t = order[ k ];
+				order[ k ] = order[ l ];
+				order[ l ] = t;
+			}
+		}
+		else
+		{
+			sprt = null;
+			order = null;
+		}
+
+		final List< P > ranked;
+		final ProgressiveSampler prosac;
+		if ( param.prosac )
+		{
+			ranked = new ArrayList< P >( candidates );
+			Collections.sort( ranked, new Comparator< P >()
+			{
+				@Override
+				public int compare( final P a, final P b )
+				{
+					return Double.compare( b.getQuality(), a.getQuality() );
+				}
+			} );
+			prosac = new ProgressiveSampler( getMinNumMatches(), ranked.size(), param.prosacMaxSamples );
+		}
+		else
+		{
+			ranked = null;
+			prosac = null;
+		}
+
+		final LocalOptimization lo;
+		if ( param.localOptimization )
+			lo = new LocalOptimization( candidates, param, getMinNumMatches(), random );
+		else
+			lo = null;
+
+		int iterations = maxIterations;
+		int i = 0;
+		final HashSet< P > minMatches = new HashSet< P >();
+		final ArrayList< P > tempInliers = new ArrayList< P >();
+
+A:		while ( i < iterations )
+		{
+			// choose model.MIN_SET_SIZE disjunctive matches randomly
+			minMatches.clear();
+			if ( prosac != null )
+				prosac.sample( ranked, minMatches, random );
+			else
+			{
+				for ( int j = 0; j < getMinNumMatches(); ++j )
+				{
+					P p;
+					do
+					{
+						p = candidates.get( ( int )( random.nextDouble() * candidates.size() ) );
+					}
+					while ( minMatches.contains( p ) );
+					minMatches.add( p );
+				}
+			}
+			try { m.fit( minMatches ); }
+			catch ( final IllDefinedDataPointsException e )
+			{
+				++i;
+				continue;
+			}
+
+			if (
+					sprt != null &&
+					sprt.isActive() &&
+					!sprt.verify( m, candidates, order, random.nextInt( order.length ), epsilon, location ) )
+			{
+				++i;
+				continue;
+			}
+
+			int numInliers = 0;
+			boolean isGood = m.test( candidates, tempInliers, epsilon, minInlierRatio, getMinNumMatches(), location );
+			if ( lo != null )
+			{
+				/* optimize only the best so far */
+				if ( isGood && tempInliers.size() > inliers.size() )
+				{
+					numInliers = lo.optimize( m, epsilon );
+					PackedPointMatches.select( candidates, lo.isInlier(), tempInliers );
+					isGood =
+							numInliers >= minNumInliers &&
+							( double )numInliers / candidates.size() > minInlierRatio;
+				}
+				else
+					isGood = false;
+			}
+			else
+			{
+				while ( isGood && numInliers < tempInliers.size() )
+				{
+					numInliers = tempInliers.size();
+					try { m.fit( tempInliers ); }
+					catch ( final IllDefinedDataPointsException e )
+					{
+						++i;
+						continue A;
+					}
+					isGood = m.test( candidates, tempInliers, epsilon, minInlierRatio, minNumInliers, location );
+				}
+			}
+			if (
+					isGood &&
+					m.betterThan( copy ) &&
+					tempInliers.size() >= minNumInliers )
+			{
+				copy.set( m );
+				inliers.clear();
+				inliers.addAll( tempInliers );
+
+				final double ir = ( double )inliers.size() / ( double )candidates.size();
+
+				if ( sprt != null )
+					sprt.setEpsilon( ir );
+
+				if ( param.confidence < 1.0 )
+				{
+					final double pAccept = sprt != null && sprt.isActive() ? sprt.getAcceptanceProbability() : 1.0;
+					final int n;
+					if ( prosac != null )
+					{
+						final boolean[] isInlier = new boolean[ ranked.size() ];
+						for ( int k = 0; k < isInlier.length; ++k )
+							isInlier[ k ] = copy.transferDistance( ranked.get( k ), location ) < epsilon;
+						n = prosac.requiredSamples( isInlier, param.confidence, param.sprtDelta, pAccept, maxIterations * numTasks );
+					}
+					else
+						n = ransacIterations( ir, getMinNumMatches(), param.confidence, maxIterations * numTasks, pAccept );
+					iterations = Math.min( maxIterations, ( n + numTasks - 1 ) / numTasks );
+				}
+			}
+			++i;
+		}
+		return copy;
+	}
+
+	/**
+	 * Local optimization of the best hypotheses so far \cite{LebedaMC12}.
+	 * Subsets of the consensus set are refitted by iteratively reweighted
+	 * least squares with a shrinking inlier threshold.  The candidates are
+	 * packed once such that all fits and tests run on the same arrays with
+	 * the weights of excluded candidates set to 0.
+	 */
+	final static private class LocalOptimization
+	{
+		final private PackedPointMatches matches;
+		final private double[] weights;
+		final private int[] subset;
+		final private boolean[] tempIsInlier;
+		final private boolean[] isInlier;
+		final private double[] location;
+
+		final private int innerIterations;
+		final private int sampleSize;
+		final private int iterations;
+		final private double thresholdMultiplier;
+		final private int minNumMatches;
+		final private Random random;
+
+		LocalOptimization(
+				final List< ? extends PointMatch > candidates,
+				final RansacParam param,
+				final int minNumMatches,
+				final Random random )
+		{
+			matches = new PackedPointMatches( candidates );
+			weights = new double[ matches.size() ];
+			subset = new int[ matches.size() ];
+			tempIsInlier = new boolean[ matches.size() ];
+			isInlier = new boolean[ matches.size() ];
+			location = new double[ matches.numDimensions() ];
+
+			innerIterations = param.loInnerIterations;
+			sampleSize = param.loSampleFactor * minNumMatches;
+			iterations = param.loIterations;
+			thresholdMultiplier = param.loThresholdMultiplier;
+			this.minNumMatches = minNumMatches;
+			this.random = random;
+		}
+
+		/**
+		 * Inliers of the last optimized model in the order of the candidates.
+		 */
+		boolean[] isInlier(){ return isInlier; }
+
+		/**
+		 * Optimize model, set it to the best local solution found.
+		 *
+		 * @return number of inliers
+		 */
+		< M extends AbstractModel< M > > int optimize( final M model, final double epsilon )
+		{
+			final double[][] p = matches.getP();
+			final double[][] q = matches.getQ();
+			final double[] w = matches.getW();
+
+			final M tmp = model.copy();
+
+			int numInliers = model.test( matches, isInlier, epsilon, location );
+
+			for ( int r = 0; r < innerIterations; ++r )
+			{
+				/* draw a subset of the consensus set */
+				int numSubset = 0;
+				for ( int i = 0; i < isInlier.length; ++i )
+					if ( isInlier[ i ] )
+						subset[ numSubset++ ] = i;
+
+				final int s = Math.min( sampleSize, numSubset );
+				for ( int j = 0; j < s; ++j )
+				{
+					final int k = j + random.nextInt( numSubset - j );
+					final int t = subset[ k ];
+					subset[ k ] = subset[ j ];
+					subset[ j ] = t;
+				}
+				for ( int i = 0; i < weights.length; ++i )
+					weights[ i ] = 0;
+				for ( int j = 0; j < s; ++j )
+					weights[ subset[ j ] ] = w[ subset[ j ] ];
+
+				try { tmp.fit( p, q, weights ); }
+				catch ( final NotEnoughDataPointsException e ) { continue; }
+				catch ( final IllDefinedDataPointsException e ) { continue; }
+
+				/* iteratively reweighted least squares */
+				for ( int k = 0; k < iterations; ++k )
+				{
+					final double threshold = epsilon * ( thresholdMultiplier - ( thresholdMultiplier - 1.0 ) * k / Math.max( 1, iterations - 1 ) );
+					int n = 0;
+					for ( int i = 0; i < weights.length; ++i )
+					{
+						final double d = matches.distance( tmp, i, location ) / threshold;
+						if ( d < 1.0 )
+						{
+							final double dd = 1.0 - d * d;
+							weights[ i ] = w[ i ] * dd * dd;
+							++n;
+						}
+						else
+							weights[ i ] = 0;
+					}
+					if ( n < minNumMatches )
+						break;
+					try { tmp.fit( p, q, weights ); }
+					catch ( final NotEnoughDataPointsException e ) { break; }
+					catch ( final IllDefinedDataPointsException e ) { break; }
+				}
+
+				final int n = tmp.test( matches, tempIsInlier, epsilon, location );
+				if ( n > numInliers )
+				{
+					numInliers = n;
+					model.set( tmp );
+					System.arraycopy( tempIsInlier, 0, isInlier, 0, isInlier.length );
+				}
+				else if ( s == numSubset )
+					/* the whole unchanged consensus set was used, drawing again is pointless */
+					break;
+			}
+			return numInliers;
+		}
+	}
+
+	/**
+	 * Progressive sampling from candidates that are sorted by decreasing
+	 * quality as described by \citet{ChumM05}.  The t-th sample is drawn
+	 * from the n top ranked candidates, where n grows such that the samples
+	 * are distributed like in plain RANSAC after maxSamples samples.
+	 */
+	final static private class ProgressiveSampler
+	{
+		final private int m;
+		final private int numCandidates;
+
+		/* number of samples after which the pool grows beyond n */
+		final private int[] schedule;
+
+		/* size of the current pool of top ranked candidates */
+		private int n;
+
+		/* number of samples drawn so far */
+		private int t = 0;
+
+		ProgressiveSampler( final int m, final int numCandidates, final int maxSamples )
+		{
+			this.m = m;
+			this.numCandidates = numCandidates;
+			n = m;
+
+			/* expected number of samples drawn from the first n candidates in
+			 * plain RANSAC and its integer growth schedule */
+			double tn = maxSamples;
+			for ( int i = 0; i < m; ++i )
+				tn *= ( double )( m - i ) / ( numCandidates - i );
+			schedule = new int[ numCandidates + 1 ];
+			schedule[ m ] = 1;
+			for ( int k = m; k < numCandidates; ++k )
+			{
+				final double tn1 = tn * ( k + 1 ) / ( k + 1 - m );
+				schedule[ k + 1 ] = ( int )Math.min( Integer.MAX_VALUE, schedule[ k ] + Math.ceil( tn1 - tn ) );
+				tn = tn1;
+			}
+		}
+
+		< P extends PointMatch > void sample( final List< P > ranked, final Collection< P > sample, final Random random )
+		{
+			++t;
+			if ( t == schedule[ n ] && n < numCandidates )
+				++n;
+
+			/* m - 1 from the first n - 1 and the n-th as long as the pool has
+			 * not outgrown its schedule, m uniformly from the first n after */
+			final int poolSize;
+			if ( t <= schedule[ n ] )
+			{
+				poolSize = n - 1;
+				sample.add( ranked.get( n - 1 ) );
+			}
+			else
+				poolSize = n;
+
+			while ( sample.size() < m )
+			{
+				final P p = ranked.get( ( int )( random.nextDouble() * poolSize ) );
+				if ( !sample.contains( p ) )
+					sample.add( p );
+			}
+		}
+
+		/**
+		 * Number of samples after which a hypothesis with the given inliers
+		 * among the ranked candidates would not have been missed with the
+		 * given confidence in any of the progressively sampled pools
+		 * (maximality), considering only pools in which the hypothesis has
+		 * more inliers than a random hypothesis would have (non-randomness).
+		 *
+		 * @param isInlier inlier flags of the ranked candidates
+		 * @param confidence
+		 * @param beta probability that a candidate is consistent with a
+		 *   random hypothesis
+		 * @param pAccept probability that the verification accepts a good
+		 *   hypothesis
+		 * @param maxSamples upper bound for the result
+		 */
+		int requiredSamples(
+				final boolean[] isInlier,
+				final double confidence,
+				final double beta,
+				final double pAccept,
+				final int maxSamples )
+		{
+			int required = maxSamples;
+			int numInliers = 0;
+			for ( int k = 0; k < numCandidates; ++k )
+			{
+				if ( isInlier[ k ] )
+					++numInliers;
+
+				final int size = k + 1;
+				if ( size < m )
+					continue;
+
+				/* one-sided 95% normal approximation of the binomial */
+				final double mu = ( size - m ) * beta;
+				if ( numInliers - m < mu + 1.645 * Math.sqrt( mu * ( 1.0 - beta ) ) )
+					continue;
+
+				/* samples drawn exclusively from the first size candidates */
+				final int kn = ransacIterations( ( double )numInliers / size, m, confidence, required, pAccept );
+				if ( size == numCandidates || kn <= schedule[ size ] )
+					required = Math.min( required, kn );
+			}
+			return required;
+		}
+	}
+
+	/**
+	 * Wald's sequential probability ratio test for the randomized
+	 * verification of RANSAC hypotheses as described by \citet{ChumM08}.
+	 * A hypothesis is rejected as soon as the likelihood ratio of being bad
+	 * versus being at least as good as the current best hypothesis exceeds the
+	 * decision threshold.  The probability that a candidate is consistent
+	 * with a bad hypothesis is estimated from the rejected hypotheses.
+	 */
+	final static private class SequentialProbabilityRatioTest
+	{
+		final private double modelCost;
+
+		/* probability of a candidate being consistent with a good hypothesis */
+		private double epsilon = 0;
+
+		/* probability of a candidate being consistent with a bad hypothesis */
+		private double delta;
+
+		/* decision threshold */
+		private double a = Double.MAX_VALUE;
+
+		private int numRejected = 0;
+		private double sumDelta = 0;
+
+		SequentialProbabilityRatioTest( final double modelCost, final double delta )
+		{
+			this.modelCost = modelCost;
+			this.delta = Math.max( 0.001, Math.min( 0.999, delta ) );
+		}
+
+		/**
+		 * The test is active only if a good hypothesis is more likely to
+		 * produce consistent candidates than a bad one.
+		 */
+		boolean isActive()
+		{
+			return delta < epsilon;
+		}
+
+		/**
+		 * Probability that a good hypothesis passes the test.
+		 */
+		double getAcceptanceProbability()
+		{
+			return 1.0 - 1.0 / a;
+		}
+
+		void setEpsilon( final double epsilon )
+		{
+			this.epsilon = Math.min( 0.999, epsilon );
+			updateThreshold();
+		}
+
+		private void updateThreshold()
+		{
+			if ( !isActive() )
+				return;
+
+			/* optimal threshold A is the fixed point of A = K + log( A ) */
+			final double c =
+					( 1.0 - delta ) * Math.log( ( 1.0 - delta ) / ( 1.0 - epsilon ) ) +
+					delta * Math.log( delta / epsilon );
+			final double k = modelCost * c + 1.0;
+			double an = k;
+			for ( int i = 0; i < 10; ++i )
+			{
+				final double an1 = k + Math.log( an );
+				if ( Math.abs( an1 - an ) < 1.0e-6 )
+				{
+					an = an1;
+					break;
+				}
+				an = an1;
+			}
+			a = an;
+		}
+
+		/**
+		 * Test a hypothesis on candidates in the order given by order,
+		 * starting at offset, until the hypothesis is rejected or all
+		 * candidates were tested.
+		 *
+		 * @return true if the hypothesis was accepted
+		 */
+		< P extends PointMatch > boolean verify(
+				final AbstractModel< ? > m,
+				final List< P > candidates,
+				final int[] order,
+				final int offset,
+				final double maxEpsilon,
+				final double[] location )
+		{
+			final double consistentRatio = delta / epsilon;
+			final double inconsistentRatio = ( 1.0 - delta ) / ( 1.0 - epsilon );
+			final int n = order.length;
+
+			double lambda = 1.0;
+			int numConsistent = 0;
+			for ( int k = 0, j = offset; k < n; ++k, j = j + 1 == n ? 0 : j + 1 )
+			{
+				if ( m.transferDistance( candidates.get( order[ j ] ), location ) < maxEpsilon )
+				{
+					++numConsistent;
+					lambda *= consistentRatio;
+				}
+				else
+					lambda *= inconsistentRatio;
+
+				if ( lambda > a )
+				{
+					updateDelta( ( double )numConsistent / ( k + 1 ) );
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private void updateDelta( final double d )
+		{
+			sumDelta += d;
+			++numRejected;
+			final double newDelta = Math.max( 0.001, sumDelta / numRejected );
+
+			/* re-estimate the threshold only for significant changes */
+			if ( Math.abs( newDelta - delta ) > 0.1 * delta )
+			{
+				delta = newDelta;
+				updateThreshold();
+			}
+		}
+	}
+
+	/**
+	 * Call {@link #ransac(List, Collection, int, double, double, int)} with
+	 * minNumInliers = {@link #getMinNumMatches()}.
+	 */
+	@Override
+	final public < P extends PointMatch >boolean ransac(
+			final List< P > candidates,
+			final Collection< P > inliers,
+			final int iterations,
+			final double epsilon,
+			final double minInlierRatio )
+		throws NotEnoughDataPointsException
+	{
+		return ransac( candidates, inliers, iterations, epsilon, minInlierRatio, getMinNumMatches() );
+	}
+
+	/**
+	 * Estimate a {@link AbstractModel} from a set with many outliers by first
+	 * filtering the worst outliers with {@link #ransac RANSAC}
+	 * \citet[{FischlerB81} and filter potential outliers by robust iterative
+	 * regression.
+	 *
+	 * @param candidates candidate data points inluding (many) outliers
+	 * @param inliers remaining candidates after RANSAC
+	 * @param iterations number of iterations
+	 * @param maxEpsilon maximal allowed transfer error
+	 * @param minInlierRatio minimal number of inliers to number of
+	 *   candidates
+	 * @param minNumInliers minimally required absolute number of inliers
+	 * @param maxTrust reject candidates with a cost larger than
+	 *   maxTrust * median cost
+	 *
+	 * @return true if {@link AbstractModel} could be estimated and inliers is not
+	 *   empty, false otherwise.  If false, {@link AbstractModel} remains unchanged.
+	 */
+	@Override
+	final public < P extends PointMatch >boolean filterRansac(
+			final List< P > candidates,
+			final Collection< P > inliers,
+			final int iterations,
+			final double maxEpsilon,
+			final double minInlierRatio,
+			final int minNumInliers,
+			final double maxTrust )
+		throws NotEnoughDataPointsException
+	{
+		final ArrayList< P > temp = new ArrayList< P >();
+		if (
+				ransac(
+						candidates,
+						temp,
+						iterations,
+						maxEpsilon,
+						minInlierRatio,
+						minNumInliers ) &&
+				filter( temp, inliers, maxTrust, minNumInliers ) )
+			return true;
+		return false;
+	}
+
+	/**
+	 * Estimate a {@link AbstractModel} from a set with many outliers by first
+	 * filtering the worst outliers with
+	 * {@link #ransac(List, Collection, int, double, double, int, double) RANSAC with an adaptive number of iterations}
+	 * and filter potential outliers by robust iterative regression.
+	 *
+	 * @param candidates candidate data points inluding (many) outliers
+	 * @param inliers remaining candidates after RANSAC
+	 * @param maxIterations maximal number of iterations
+	 * @param maxEpsilon maximal allowed transfer error
+	 * @param minInlierRatio minimal number of inliers to number of
+	 *   candidates
+	 * @param minNumInliers minimally required absolute number of inliers
+	 * @param maxTrust reject candidates with a cost larger than
+	 *   maxTrust * median cost
+	 * @param confidence probability (0.0 - 1.0) of having drawn at least one
+	 *   outlier-free sample when stopping early, 1.0 disables the adaptation
+	 *
+	 * @return true if {@link AbstractModel} could be estimated and inliers is not
+	 *   empty, false otherwise.  If false, {@link AbstractModel} remains unchanged.
+	 */
+	final public < P extends PointMatch >boolean filterRansac(
+			final List< P > candidates,
+			final Collection< P > inliers,
+			final int maxIterations,
+			final double maxEpsilon,
+			final double minInlierRatio,
+			final int minNumInliers,
+			final double maxTrust,
+			final double confidence )
+		throws NotEnoughDataPointsException
+	{
+		final RansacParam param = new RansacParam();
+		param.confidence = confidence;
+		return filterRansac( candidates, inliers, maxIterations, maxEpsilon, minInlierRatio, minNumInliers, maxTrust, param );
+	}
+
+	/**
+	 * Estimate a {@link AbstractModel} from a set with many outliers by first
+	 * filtering the worst outliers with
+	 * {@link #ransac(List, Collection, int, double, double, int, RansacParam) RANSAC}
+	 * with the optional strategies configured in param and filter potential
+	 * outliers by robust iterative regression.
+	 *
+	 * @param candidates candidate data points inluding (many) outliers
+	 * @param inliers remaining candidates after RANSAC
+	 * @param maxIterations maximal number of iterations
+	 * @param maxEpsilon maximal allowed transfer error
+	 * @param minInlierRatio minimal number of inliers to number of
+	 *   candidates
+	 * @param minNumInliers minimally required absolute number of inliers
+	 * @param maxTrust reject candidates with a cost larger than
+	 *   maxTrust * median cost
+	 * @param param optional strategies
+	 *
+	 * @return true if {@link AbstractModel} could be estimated and inliers is not
+	 *   empty, false otherwise.  If false, {@link AbstractModel} remains unchanged.
+	 */
+	final public < P extends PointMatch >boolean filterRansac(
+			final List< P > candidates,
+			final Collection< P > inliers,
+			final int maxIterations,
+			final double maxEpsilon,
+			final double minInlierRatio,
+			final int minNumInliers,
+			final double maxTrust,
+			final RansacParam param )
+		throws NotEnoughDataPointsException
+	{
+		final ArrayList< P > temp = new ArrayList< P >();
+		if (
+				ransac(
+						candidates,
+						temp,
+						maxIterations,
+						maxEpsilon,
+						minInlierRatio,
+						minNumInliers,
+						param ) &&
+				filter( temp, inliers, maxTrust, minNumInliers ) )
+			return true;
+		return false;
+	}
+
+	/**
+	 * Call {@link #filterRansac(List, Collection, int, double, double, int, double)}
+	 * with maxTrust = 4.
+	 */
+	@Override
+	final public < P extends PointMatch >boolean filterRansac(
+			final List< P > candidates,
+			final Collection< P > inliers,
+			final int iterations,
+			final double maxEpsilon,
+			final double minInlierRatio,
+			final int minNumInliers )
+		throws NotEnoughDataPointsException
+	{
+		return filterRansac( candidates, inliers, iterations, maxEpsilon, minInlierRatio, minNumInliers, 4f );
+	}
+
+
+	/**
+	 * Call {@link #filterRansac(List, Collection, int, double, double, int, double)}
+	 * with minNumInliers = {@link #getMinNumMatches()}.
+	 */
+	@Override
+	final public < P extends PointMatch >boolean filterRansac(
+			final List< P > candidates,
+			final Collection< P > inliers,
+			final int iterations,
+			final double maxEpsilon,
+			final double minInlierRatio,
+			final double maxTrust )
+		throws NotEnoughDataPointsException
+	{
+		return filterRansac( candidates, inliers, iterations, maxEpsilon, minInlierRatio, getMinNumMatches(), maxTrust );
+	}
+
+
+	/**
+	 * Call {@link #filterRansac(List, Collection, int, double, double, double)}
+	 * with maxTrust = 4.
+	 */
+	@Override
+	final public < P extends PointMatch >boolean filterRansac(
+			final List< P > candidates,
+			final Collection< P > inliers,
+			final int iterations,
+			final double maxEpsilon,
+			final double minInlierRatio )
+		throws NotEnoughDataPointsException
+	{
+		return filterRansac( candidates, inliers, iterations, maxEpsilon, minInlierRatio, 4f );
+	}
+
+
+	/**
+	 * Estimate the best model in terms of the Iterative Closest Point
+	 * Algorithm \cite{Zhang94} for matching two point clouds into each other.
+	 * {@code
+	 * p -> q
+	 * }
+	 * Calls {@link #icp(List, List, IcpParam, ExecutorService, int)} with
+	 * default {@link IcpParam parameters} in the calling thread.
+	 *
+	 * @param p source
+	 * @param q target
+	 *
+	 * @return the list of matches, null if the model could not be estimated
+	 */
+	@Override
+	final public Collection< PointMatch > icp(
+			final List< Point > p,
+			final List< Point > q )
+	{
+		return icp( p, q, new IcpParam(), null, 1 );
+	}
+
+	/**
+	 * Estimate the best model in terms of the Iterative Closest Point
+	 * Algorithm \cite{Zhang94} for matching two point clouds into each other.
 	 * {@code
 	 * p -> q
 	 * }
+	 * Starting from this {@link AbstractModel}, the local coordinates of p
+	 * are transferred and paired with their closest world coordinates in q,
+	 * found in a {@link KDTree} that is built once.  Optionally, only the
+	 * closest pairs are used for the next fit (trimmed ICP
+	 * \cite{ChetverikovSSK02}).  Iteration stops when the root mean square
+	 * distance of the pairs changes relatively by less than
+	 * {@link IcpParam#minRmsChange} or after {@link IcpParam#maxIterations}.
 	 *
 	 * @param p source
 	 * @param q target
+	 * @param param
+	 * @param executor for the closest point queries, null to run them in the
+	 *   calling thread
+	 * @param numTasks number of tasks to split the closest point queries into
 	 *
-	 * @return the list of matches
-	 *
-	 * TODO Test---at least once!
+	 * @return the matches used for the last fit, null if the model could not
+	 *   be estimated.  If null, {@link AbstractModel} remains unchanged.
 	 */
-	@Override
 	final public Collection< PointMatch > icp(
 			final List< Point > p,
-			final List< Point > q )
+			final List< Point > q,
+			final IcpParam param,
+			final ExecutorService executor,
+			final int numTasks )
 	{
-		final M m = copy();
-		final List< PointMatch > currentMatches = new ArrayList< PointMatch >();
-		final List< PointMatch > previousMatches = new ArrayList< PointMatch >();
-		do
+		assert numTasks > 0 : "At least one task is required.";
+
+		if ( p.isEmpty() || q.isEmpty() )
+			return null;
+
+		final int numDimensions = p.get( 0 ).getL().length;
+		final int n = p.size();
+
+		final double[][] qs = new double[ numDimensions ][ q.size() ];
+		for ( int i = 0; i < q.size(); ++i )
 		{
-			previousMatches.clear();
-			previousMatches.addAll( currentMatches );
-			currentMatches.clear();
+			final double[] w = q.get( i ).getW();
+			for ( int d = 0; d < numDimensions; ++d )
+				qs[ d ][ i ] = w[ d ];
+		}
+		final KDTree tree = new KDTree( qs );
+
+		final double[][] ps = new double[ numDimensions ][ n ];
+		for ( int i = 0; i < n; ++i )
+		{
+			final double[] l = p.get( i ).getL();
+			for ( int d = 0; d < numDimensions; ++d )
+				ps[ d ][ i ] = l[ d ];
+		}
 
-			/* Match by Euclidean distance in space */
-			for ( final Point pi : p )
+		final M m = copy();
+		final int[] closest = new int[ n ];
+		final double[] squareDistances = new double[ n ];
+		final double[] sorted = new double[ n ];
+		final double[][] matched = new double[ numDimensions ][ n ];
+		final double[] weights = new double[ n ];
+		final double maxSquareDistance = param.maxDistance * param.maxDistance;
+		final int numTrimmed = Math.max( getMinNumMatches(), ( int )Math.ceil( param.trimFraction * n ) );
+
+		double previousRms = Double.MAX_VALUE;
+		for ( int iteration = 0; iteration < param.maxIterations; ++iteration )
+		{
+			/* match by Euclidean distance in space */
+			if ( executor == null || numTasks == 1 )
+				findClosest( m, ps, tree, qs, closest, squareDistances, 0, n );
+			else
 			{
-				double minimalDistance = Double.MAX_VALUE;
-				Point closestPoint = null;
-				for ( final Point qi : q )
+				final ArrayList< Future< Void > > tasks = new ArrayList< Future< Void > >( numTasks );
+				for ( int t = 0; t < numTasks; ++t )
+				{
+					final int min = ( int )( ( long )n * t / numTasks );
+					final int max = ( int )( ( long )n * ( t + 1 ) / numTasks );
+					tasks.add( executor.submit( new Callable< Void >()
+					{
+						@Override
+						public Void call()
+						{
+							findClosest( m, ps, tree, qs, closest, squareDistances, min, max );
+							return null;
+						}
+					} ) );
+				}
+				for ( final Future< Void > task : tasks )
 				{
-					final double d = Point.distance( pi, qi );
-					if ( d < minimalDistance )
+					try
+					{
+						task.get();
+					}
+					catch ( final InterruptedException e )
+					{
+						for ( final Future< Void > f : tasks )
+							f.cancel( true );
+						throw new RuntimeException( e );
+					}
+					catch ( final ExecutionException e )
 					{
-						minimalDistance = d;
-						closestPoint = qi;
+						for ( final Future< Void > f : tasks )
+							f.cancel( true );
+						throw new RuntimeException( e.getCause() );
 					}
 				}
-				currentMatches.add( new PointMatch( pi, closestPoint ) );
 			}
+
+			/* trim */
+			double threshold = maxSquareDistance;
+			if ( numTrimmed < n )
+			{
+				System.arraycopy( squareDistances, 0, sorted, 0, n );
+				Arrays.sort( sorted );
+				threshold = Math.min( threshold, sorted[ numTrimmed - 1 ] );
+			}
+
+			int numPairs = 0;
+			double sum = 0;
+			for ( int i = 0; i < n; ++i )
+			{
+				final double sd = squareDistances[ i ];
+				if ( sd <= threshold )
+				{
+					weights[ i ] = 1;
+					sum += sd;
+					++numPairs;
+				}
+				else
+					weights[ i ] = 0;
+				for ( int d = 0; d < numDimensions; ++d )
+					matched[ d ][ i ] = qs[ d ][ closest[ i ] ];
+			}
+
 			try
 			{
-				m.fit( currentMatches );
+				if ( numPairs < getMinNumMatches() )
+					return null;
+				m.fit( ps, matched, weights );
+			}
+			catch ( final NotEnoughDataPointsException e )
+			{
+				return null;
 			}
-			catch ( final Exception e )
+			catch ( final IllDefinedDataPointsException e )
 			{
-				e.printStackTrace();
 				return null;
 			}
+
+			final double rms = Math.sqrt( sum / numPairs );
+			m.cost = rms;
+			if ( previousRms - rms <= param.minRmsChange * previousRms )
+				break;
+			previousRms = rms;
+		}
+
+		set( m );
+
+		final ArrayList< PointMatch > matches = new ArrayList< PointMatch >();
+		for ( int i = 0; i < n; ++i )
+			if ( weights[ i ] != 0 )
+				matches.add( new PointMatch( p.get( i ), q.get( closest[ i ] ) ) );
+
+		return matches;
+	}
+
+	/**
+	 * Find the closest point in q for the transferred local coordinates of
+	 * the points min..max-1 in p.
+	 */
+	static private void findClosest(
+			final AbstractModel< ? > m,
+			final double[][] p,
+			final KDTree tree,
+			final double[][] q,
+			final int[] closest,
+			final double[] squareDistances,
+			final int min,
+			final int max )
+	{
+		final double[] location = new double[ p.length ];
+		for ( int i = min; i < max; ++i )
+		{
+			for ( int d = 0; d < location.length; ++d )
+				location[ d ] = p[ d ][ i ];
+			m.applyInPlace( location );
+			final int j = tree.nearestNeighbor( location );
+			closest[ i ] = j;
+			double sd = 0;
+			for ( int d = 0; d < location.length; ++d )
+			{
+				final double dd = location[ d ] - q[ d ][ j ];
+				sd += dd * dd;
+			}
+			squareDistances[ i ] = sd;
 		}
-		while ( currentMatches.equals( previousMatches ) );
-		this.set( m );
-		return currentMatches;
 	}
 
 	/**
 	 * Default fit implementation using {@link #fit(Collection)}.  This foils
 	 * the intention that {@link #fit(float[][], float[][], float[])} would be
 	 * potentially more efficient.  You should better implement it directly.
+	 * Matches with weight 0 are skipped such that implementations of
+	 * {@link #fit(Collection)} that ignore weights can be used with masked
+	 * weights as well.
 	 */
 	@Override
 	public void fit(
@@ -573,6 +1919,9 @@ A:		while ( i < iterations )
 		final ArrayList< PointMatch > matches = new ArrayList< PointMatch >( l );
 		for ( int i = 0; i < l; ++i )
 		{
+			if ( w[ i ] == 0 )
+				continue;
+
 			final double[] pi = new double[ n ];
 			final double[] qi = new double[ n ];
 			for ( int d = 0; d < n; ++d )
@@ -595,6 +1944,9 @@ A:		while ( i < iterations )
 	 * Default fit implementation using {@link #fit(Collection)}.  This foils
 	 * the intention that {@link #fit(double[][], double[][], double[])} would be
 	 * potentially more efficient.  You should better implement it directly.
+	 * Matches with weight 0 are skipped such that implementations of
+	 * {@link #fit(Collection)} that ignore weights can be used with masked
+	 * weights as well.
 	 */
 	@Override
 	public void fit(
@@ -619,6 +1971,9 @@ A:		while ( i < iterations )
 		final ArrayList< PointMatch > matches = new ArrayList< PointMatch >( l );
 		for ( int i = 0; i < l; ++i )
 		{
+			if ( w[ i ] == 0 )
+				continue;
+
 			final double[] pi = new double[ n ];
 			final double[] qi = new double[ n ];
 			for ( int d = 0; d < n; ++d )
@@ -637,6 +1992,204 @@ A:		while ( i < iterations )
 		fit( matches );
 	}
 
+	/**
+	 * Fit the {@link AbstractModel} to a set of {@link PackedPointMatches}
+	 * using {@link #fit(double[][], double[][], double[])}.
+	 *
+	 * @param matches
+	 */
+	final public void fit( final PackedPointMatches matches )
+		throws NotEnoughDataPointsException, IllDefinedDataPointsException
+	{
+		fit( matches.getP(), matches.getQ(), matches.getW() );
+	}
+
+	/**
+	 * Test the {@link AbstractModel} for a set of {@link PackedPointMatches}.
+	 * Candidates with a transfer error smaller than epsilon are flagged in
+	 * isInlier.  Neither the candidates nor isInlier are reallocated such
+	 * that this can be called in a tight loop.  The cost is set to
+	 * {@code 1 - |inliers| / |candidates|}.
+	 *
+	 * @param candidates
+	 * @param isInlier flags for inliers, at least {@link PackedPointMatches#size()}
+	 * @param epsilon maximal allowed transfer error
+	 * @param location temporary storage with
+	 *   {@link PackedPointMatches#numDimensions()}
+	 *
+	 * @return number of inliers
+	 */
+	final public int test(
+			final PackedPointMatches candidates,
+			final boolean[] isInlier,
+			final double epsilon,
+			final double[] location )
+	{
+		final int numCandidates = candidates.size();
+		int numInliers = 0;
+		for ( int i = 0; i < numCandidates; ++i )
+		{
+			final boolean b = candidates.distance( this, i, location ) < epsilon;
+			isInlier[ i ] = b;
+			if ( b ) ++numInliers;
+		}
+
+		final double ir = ( double )numInliers / ( double )numCandidates;
+		setCost( Math.max( 0.0, Math.min( 1.0, 1.0 - ir ) ) );
+
+		return numInliers;
+	}
+
+	/**
+	 * Call {@link #test(PackedPointMatches, boolean[], double, double[])}
+	 * with a temporary location.
+	 */
+	final public int test(
+			final PackedPointMatches candidates,
+			final boolean[] isInlier,
+			final double epsilon )
+	{
+		return test( candidates, isInlier, epsilon, new double[ candidates.numDimensions() ] );
+	}
+
+	/**
+	 * Find the {@link AbstractModel} of a set of {@link PackedPointMatches}
+	 * containing a high number of outliers using RANSAC like
+	 * {@link #ransac(List, Collection, int, double, double, int, double)}.
+	 * All temporary storage is allocated once before the first iteration.
+	 * Minimal samples are fitted from a {@link PackedPointMatches} of size
+	 * {@link #getMinNumMatches()}, consensus sets are refitted to all
+	 * candidates with the weights of outliers set to 0.  This requires that
+	 * {@link #fit(double[][], double[][], double[])} is implemented as a
+	 * weighted least squares fit.
+	 *
+	 * @param candidates
+	 * @param isInlier flags for the inliers of the best model, at least
+	 *   {@link PackedPointMatches#size()}
+	 * @param iterations maximal number of iterations
+	 * @param epsilon maximal allowed transfer error
+	 * @param minInlierRatio minimal ratio of inliers (0.0 =&gt; 0%, 1.0 =&gt; 100%)
+	 * @param minNumInliers minimally required absolute number of inliers
+	 * @param confidence probability of having drawn an outlier-free sample,
+	 *   1.0 runs all iterations
+	 *
+	 * @return true if {@link AbstractModel} could be estimated and inliers is not
+	 *   empty, false otherwise.  If false, {@link AbstractModel} remains unchanged.
+	 */
+	final public boolean ransac(
+			final PackedPointMatches candidates,
+			final boolean[] isInlier,
+			final int iterations,
+			final double epsilon,
+			final double minInlierRatio,
+			final int minNumInliers,
+			final double confidence )
+		throws NotEnoughDataPointsException
+	{
+		final int numCandidates = candidates.size();
+		final int minNumMatches = getMinNumMatches();
+
+		for ( int i = 0; i < numCandidates; ++i )
+			isInlier[ i ] = false;
+
+		if ( numCandidates < minNumMatches )
+			throw new NotEnoughDataPointsException( numCandidates + " data points are not enough to solve the Model, at least " + minNumMatches + " data points required." );
+
+		cost = Double.MAX_VALUE;
+
+		final M copy = copy();
+		final M m = copy();
+
+		final double[][] p = candidates.getP();
+		final double[][] q = candidates.getQ();
+		final PackedPointMatches minMatches = new PackedPointMatches( candidates.numDimensions(), minNumMatches );
+		final int[] sample = new int[ minNumMatches ];
+		final boolean[] tempIsInlier = new boolean[ numCandidates ];
+		final double[] maskedWeights = new double[ numCandidates ];
+		final double[] location = new double[ candidates.numDimensions() ];
+
+		int numInliers = 0;
+		int maxIterations = iterations;
+		int i = 0;
+
+A:		while ( i < maxIterations )
+		{
+			// choose model.MIN_SET_SIZE disjunctive matches randomly
+			for ( int j = 0; j < minNumMatches; ++j )
+			{
+				int k;
+				boolean isDrawn;
+				do
+				{
+					k = ( int )( rnd.nextDouble() * numCandidates );
+					isDrawn = false;
+					for ( int l = 0; l < j && !isDrawn; ++l )
+						isDrawn = sample[ l ] == k;
+				}
+				while ( isDrawn );
+				sample[ j ] = k;
+				minMatches.set( j, candidates, k );
+			}
+			try { m.fit( minMatches.getP(), minMatches.getQ(), minMatches.getW() ); }
+			catch ( final IllDefinedDataPointsException e )
+			{
+				++i;
+				continue;
+			}
+
+			int numTempInliers = 0;
+			int n = m.test( candidates, tempIsInlier, epsilon, location );
+			boolean isGood = n >= minNumMatches && ( double )n / numCandidates > minInlierRatio;
+			while ( isGood && numTempInliers < n )
+			{
+				numTempInliers = n;
+				candidates.mask( tempIsInlier, maskedWeights );
+				try { m.fit( p, q, maskedWeights ); }
+				catch ( final IllDefinedDataPointsException e )
+				{
+					++i;
+					continue A;
+				}
+				n = m.test( candidates, tempIsInlier, epsilon, location );
+				isGood = n >= minNumInliers && ( double )n / numCandidates > minInlierRatio;
+			}
+			if (
+					isGood &&
+					m.betterThan( copy ) &&
+					n >= minNumInliers )
+			{
+				copy.set( m );
+				System.arraycopy( tempIsInlier, 0, isInlier, 0, numCandidates );
+				numInliers = n;
+
+				if ( confidence < 1.0 )
+					maxIterations = ransacIterations( ( double )n / numCandidates, minNumMatches, confidence, iterations );
+			}
+			++i;
+		}
+		if ( numInliers == 0 )
+			return false;
+
+		set( copy );
+		return true;
+	}
+
+	/**
+	 * Call {@link #ransac(PackedPointMatches, boolean[], int, double, double, int, double)}
+	 * with confidence = 1.0, that is, run all iterations.
+	 */
+	final public boolean ransac(
+			final PackedPointMatches candidates,
+			final boolean[] isInlier,
+			final int iterations,
+			final double epsilon,
+			final double minInlierRatio,
+			final int minNumInliers )
+		throws NotEnoughDataPointsException
+	{
+		return ransac( candidates, isInlier, iterations, epsilon, minInlierRatio, minNumInliers, 1.0 );
+	}
+
 
 	/**
 	 * <p>Default implementation of
@@ -757,4 +2310,265 @@ A:		while ( i < iterations )
 
 		return inliers.size() >= getMinNumMatches();
 	}
+
+	/**
+	 * Filter candidates by the smoothness of their support for this
+	 * {@link AbstractModel} like
+	 * {@link #localSmoothnessFilter(Collection, Collection, double, double, double)}
+	 * but scaling to large numbers of candidates:
+	 * <ul>
+	 * <li>The locally weighted fit for a candidate includes only the inliers
+	 * within 3&times;sigma of the candidate, found in a {@link KDTree} of
+	 * the local coordinates of {@link PointMatch#getP1() p1}.  The robust
+	 * filter and the local mean transfer error are evaluated in this
+	 * neighborhood.</li>
+	 * <li>Candidates are evaluated in numTasks tasks.</li>
+	 * <li>A candidate is evaluated again in the next pass only if a
+	 * neighbor was removed in the previous pass, otherwise its result would
+	 * not change.</li>
+	 * </ul>
+	 * Candidates with less than {@link #getMinNumMatches()} neighbors cannot
+	 * be verified and are removed.  Neither the candidates nor this
+	 * {@link AbstractModel} are modified.
+	 *
+	 * @param candidates
+	 * @param inliers
+	 * @param sigma
+	 * @param maxEpsilon
+	 * @param maxTrust
+	 * @param executor
+	 * @param numTasks number of tasks to split each pass into
+	 *
+	 * @return true if at least {@link #getMinNumMatches()} inliers remain
+	 */
+	public < P extends PointMatch > boolean localSmoothnessFilter(
+			final Collection< P > candidates,
+			final Collection< P > inliers,
+			final double sigma,
+			final double maxEpsilon,
+			final double maxTrust,
+			final ExecutorService executor,
+			final int numTasks )
+	{
+		assert numTasks > 0 : "At least one task is required.";
+
+		final ArrayList< P > list = new ArrayList< P >( candidates );
+		final int n = list.size();
+
+		inliers.clear();
+		if ( n == 0 )
+			return false;
+
+		final PackedPointMatches matches = new PackedPointMatches( list );
+		final KDTree tree = new KDTree( matches.getP() );
+		final double radius = 3 * sigma;
+
+		final boolean[] isInlier = new boolean[ n ];
+		final boolean[] isDirty = new boolean[ n ];
+		final boolean[] isRejected = new boolean[ n ];
+		for ( int i = 0; i < n; ++i )
+		{
+			isInlier[ i ] = true;
+			isDirty[ i ] = true;
+		}
+
+		final int[] dirty = new int[ n ];
+		final int[] neighbors = new int[ n ];
+		final double[] location = new double[ matches.numDimensions() ];
+		boolean hasChanged;
+		do
+		{
+			int numDirty = 0;
+			for ( int i = 0; i < n; ++i )
+				if ( isDirty[ i ] && isInlier[ i ] )
+					dirty[ numDirty++ ] = i;
+
+			final ArrayList< Future< Void > > tasks = new ArrayList< Future< Void > >( numTasks );
+			for ( int t = 0; t < numTasks; ++t )
+			{
+				final int min = ( int )( ( long )numDirty * t / numTasks );
+				final int max = ( int )( ( long )numDirty * ( t + 1 ) / numTasks );
+				tasks.add( executor.submit( new Callable< Void >()
+				{
+					@Override
+					public Void call()
+					{
+						final M model = copy();
+						final int[] taskNeighbors = new int[ n ];
+						final double[] location = new double[ matches.numDimensions() ];
+						for ( int k = min; k < max; ++k )
+						{
+							final int i = dirty[ k ];
+							isRejected[ i ] = !isLocallySmooth( model, matches, isInlier, tree, i, sigma, radius, maxEpsilon, maxTrust, taskNeighbors, location );
+						}
+						return null;
+					}
+				} ) );
+			}
+
+			for ( final Future< Void > task : tasks )
+			{
+				try
+				{
+					task.get();
+				}
+				catch ( final InterruptedException e )
+				{
+					for ( final Future< Void > f : tasks )
+						f.cancel( true );
+					throw new RuntimeException( e );
+				}
+				catch ( final ExecutionException e )
+				{
+					for ( final Future< Void > f : tasks )
+						f.cancel( true );
+					throw new RuntimeException( e.getCause() );
+				}
+			}
+
+			/* remove all rejected candidates at once and invalidate their neighbors */
+			hasChanged = false;
+			for ( int k = 0; k < numDirty; ++k )
+				isDirty[ dirty[ k ] ] = false;
+			for ( int k = 0; k < numDirty; ++k )
+			{
+				final int i = dirty[ k ];
+				if ( isRejected[ i ] )
+				{
+					hasChanged = true;
+					isInlier[ i ] = false;
+					for ( int d = 0; d < location.length; ++d )
+						location[ d ] = matches.getP()[ d ][ i ];
+					final int numNeighbors = tree.radiusSearch( location, radius, neighbors );
+					for ( int j = 0; j < numNeighbors; ++j )
+						isDirty[ neighbors[ j ] ] = true;
+				}
+			}
+		}
+		while ( hasChanged );
+
+		for ( int i = 0; i < n; ++i )
+			if ( isInlier[ i ] )
+				inliers.add( list.get( i ) );
+
+		return inliers.size() >= getMinNumMatches();
+	}
+
+	/**
+	 * Fit model robustly to the Gaussian weighted inlier neighbors of the
+	 * i-th match, excluding the match itself, and test whether the transfer
+	 * error of the i-th match is at most maxEpsilon and at most maxTrust
+	 * times the weighted mean transfer error of the neighbors.
+	 */
+	final private boolean isLocallySmooth(
+			final AbstractModel< ? > model,
+			final PackedPointMatches matches,
+			final boolean[] isInlier,
+			final KDTree tree,
+			final int i,
+			final double sigma,
+			final double radius,
+			final double maxEpsilon,
+			final double maxTrust,
+			final int[] neighbors,
+			final double[] location )
+	{
+		final double[][] p = matches.getP();
+		final double var2 = 2 * sigma * sigma;
+
+		for ( int d = 0; d < location.length; ++d )
+			location[ d ] = p[ d ][ i ];
+		final int numCandidates = tree.radiusSearch( location, radius, neighbors );
+
+		int numNeighbors = 0;
+		for ( int k = 0; k < numCandidates; ++k )
+		{
+			final int j = neighbors[ k ];
+			if ( j != i && isInlier[ j ] )
+				neighbors[ numNeighbors++ ] = j;
+		}
+		if ( numNeighbors < model.getMinNumMatches() )
+			return false;
+
+		/* calculate weights by square distance to reference in local space */
+		final PackedPointMatches local = new PackedPointMatches( location.length, numNeighbors );
+		final double[] w = local.getW();
+		for ( int k = 0; k < numNeighbors; ++k )
+		{
+			final int j = neighbors[ k ];
+			local.set( k, matches, j );
+			double sd = 0;
+			for ( int d = 0; d < location.length; ++d )
+			{
+				final double dd = p[ d ][ j ] - location[ d ];
+				sd += dd * dd;
+			}
+			w[ k ] *= Math.exp( -sd / var2 );
+		}
+
+		/* robust iterative regression as in filter */
+		final double[] maskedWeights = w.clone();
+		final double[] distances = new double[ numNeighbors ];
+		final double[] sorted = new double[ numNeighbors ];
+		int numActive = numNeighbors;
+		int numPreviouslyActive;
+		do
+		{
+			numPreviouslyActive = numActive;
+			try
+			{
+				model.fit( local.getP(), local.getQ(), maskedWeights );
+			}
+			catch ( final NotEnoughDataPointsException e )
+			{
+				return false;
+			}
+			catch ( final IllDefinedDataPointsException e )
+			{
+				return false;
+			}
+
+			int m = 0;
+			for ( int k = 0; k < numNeighbors; ++k )
+			{
+				distances[ k ] = local.distance( model, k, location );
+				if ( maskedWeights[ k ] != 0 )
+					sorted[ m++ ] = distances[ k ];
+			}
+			/* all weights vanished, e.g. underflow of the Gaussian for a radius of many sigma */
+			if ( m == 0 )
+				return false;
+			Arrays.sort( sorted, 0, m );
+			final double median = m % 2 == 0 ? ( sorted[ m / 2 - 1 ] + sorted[ m / 2 ] ) / 2.0 : sorted[ m / 2 ];
+			final double t = median * maxTrust;
+
+			numActive = 0;
+			for ( int k = 0; k < numNeighbors; ++k )
+			{
+				if ( maskedWeights[ k ] != 0 )
+				{
+					if ( distances[ k ] <= t )
+						++numActive;
+					else
+						maskedWeights[ k ] = 0;
+				}
+			}
+		}
+		while ( numActive < numPreviouslyActive );
+
+		final double candidateDistance = matches.distance( model, i, location );
+		if ( candidateDistance > maxEpsilon )
+			return false;
+
+		/* weighed mean Euclidean distances */
+		double meanDistance = 0, ws = 0;
+		for ( int k = 0; k < numNeighbors; ++k )
+		{
+			ws += w[ k ];
+			meanDistance += distances[ k ] * w[ k ];
+		}
+		meanDistance /= ws;
+
+		return candidateDistance <= maxTrust * meanDistance;
+	}
 };
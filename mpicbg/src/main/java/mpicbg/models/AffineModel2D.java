@@ -63,7 +63,7 @@ import java.util.Collection;
  *
  * @author Stephan Saalfeld &lt;saalfelds@janelia.hhmi.org&gt;
  */
-public class AffineModel2D extends AbstractAffineModel2D< AffineModel2D >
+public class AffineModel2D extends AbstractAffineModel2D< AffineModel2D > implements MomentsFittable
 {
 	private static final long serialVersionUID = 2323673888015396528L;
 
@@ -308,6 +308,45 @@ public class AffineModel2D extends AbstractAffineModel2D< AffineModel2D >
 		invert();
 	}
 
+	/**
+	 * Fit to the {@link PointMatchMoments} of a set of matches.  The result
+	 * is that of {@link #fit(Collection)} for the same matches.
+	 */
+	@Override
+	final public void fit( final PointMatchMoments moments )
+		throws NotEnoughDataPointsException, IllDefinedDataPointsException
+	{
+		if ( moments.size() < MIN_NUM_MATCHES )
+			throw new NotEnoughDataPointsException( moments.size() + " data points are not enough to estimate a 2d affine model, at least " + MIN_NUM_MATCHES + " data points required." );
+
+		final int n = moments.numDimensions();
+		final double[] pc = new double[ n ];
+		final double[] qc = new double[ n ];
+		moments.getCenters( pc, qc );
+		final double[] pp = new double[ n * n ];
+		final double[] pq = new double[ n * n ];
+		final double[] qq = new double[ n * n ];
+		moments.getCenteredMoments( pp, pq, qq );
+
+		final double a00 = pp[ 0 ], a01 = pp[ 1 ], a11 = pp[ n + 1 ];
+		final double b00 = pq[ 0 ], b01 = pq[ 1 ], b10 = pq[ n ], b11 = pq[ n + 1 ];
+
+		final double det = a00 * a11 - a01 * a01;
+
+		if ( det == 0 )
+			throw new IllDefinedDataPointsException();
+
+		m00 = ( a11 * b00 - a01 * b10 ) / det;
+		m01 = ( a00 * b10 - a01 * b00 ) / det;
+		m10 = ( a11 * b01 - a01 * b11 ) / det;
+		m11 = ( a00 * b11 - a01 * b01 ) / det;
+
+		m02 = qc[ 0 ] - m00 * pc[ 0 ] - m01 * pc[ 1 ];
+		m12 = qc[ 1 ] - m10 * pc[ 0 ] - m11 * pc[ 1 ];
+
+		invert();
+	}
+
 	/**
 	 * Closed form weighted least squares solution as described by
 	 * \citet{SchaeferAl06}.
@@ -65,7 +65,7 @@ import mpicbg.util.Matrix3x3;
  * @author Stephan Saalfeld &lt;saalfelds@janelia.hhmi.org&gt; and Johannes Schindelin
  *
  */
-public class AffineModel3D extends AbstractAffineModel3D< AffineModel3D > implements InvertibleBoundable
+public class AffineModel3D extends AbstractAffineModel3D< AffineModel3D > implements InvertibleBoundable, MomentsFittable
 {
 	private static final long serialVersionUID = 4591403097787254013L;
 
@@ -433,6 +433,74 @@ public class AffineModel3D extends AbstractAffineModel3D< AffineModel3D > implem
 		invert();
 	}
 
+	/**
+	 * Fit to the {@link PointMatchMoments} of a set of matches.  The result
+	 * is that of {@link #fit(Collection)} for the same matches.
+	 */
+	@Override
+	final public void fit( final PointMatchMoments moments )
+		throws NotEnoughDataPointsException, IllDefinedDataPointsException
+	{
+		if ( moments.size() < MIN_NUM_MATCHES )
+			throw new NotEnoughDataPointsException( moments.size() + " data points are not enough to estimate a 3d affine model, at least " + MIN_NUM_MATCHES + " data points required." );
+
+		final int n = moments.numDimensions();
+		final double[] pc = new double[ n ];
+		final double[] qc = new double[ n ];
+		moments.getCenters( pc, qc );
+		final double[] pp = new double[ n * n ];
+		final double[] pq = new double[ n * n ];
+		final double[] qq = new double[ n * n ];
+		moments.getCenteredMoments( pp, pq, qq );
+
+		final double
+			a00 = pp[ 0 ], a01 = pp[ 1 ], a02 = pp[ 2 ],
+			               a11 = pp[ n + 1 ], a12 = pp[ n + 2 ],
+			                                  a22 = pp[ 2 * n + 2 ];
+		final double
+			b00 = pq[ 0 ], b01 = pq[ 1 ], b02 = pq[ 2 ],
+			b10 = pq[ n ], b11 = pq[ n + 1 ], b12 = pq[ n + 2 ],
+			b20 = pq[ 2 * n ], b21 = pq[ 2 * n + 1 ], b22 = pq[ 2 * n + 2 ];
+
+		final double det =
+			a00 * a11 * a22 +
+			a01 * a12 * a02 +
+			a02 * a01 * a12 -
+			a02 * a11 * a02 -
+			a12 * a12 * a00 -
+			a22 * a01 * a01;
+
+		if ( det == 0 )
+			throw new IllDefinedDataPointsException();
+
+		final double idet = 1.0 / det;
+
+		final double ai00 = ( a11 * a22 - a12 * a12 ) * idet;
+		final double ai01 = ( a02 * a12 - a01 * a22 ) * idet;
+		final double ai02 = ( a01 * a12 - a02 * a11 ) * idet;
+		final double ai11 = ( a00 * a22 - a02 * a02 ) * idet;
+		final double ai12 = ( a02 * a01 - a00 * a12 ) * idet;
+		final double ai22 = ( a00 * a11 - a01 * a01 ) * idet;
+
+		m00 = ai00 * b00 + ai01 * b10 + ai02 * b20;
+		m01 = ai01 * b00 + ai11 * b10 + ai12 * b20;
+		m02 = ai02 * b00 + ai12 * b10 + ai22 * b20;
+
+		m10 = ai00 * b01 + ai01 * b11 + ai02 * b21;
+		m11 = ai01 * b01 + ai11 * b11 + ai12 * b21;
+		m12 = ai02 * b01 + ai12 * b11 + ai22 * b21;
+
+		m20 = ai00 * b02 + ai01 * b12 + ai02 * b22;
+		m21 = ai01 * b02 + ai11 * b12 + ai12 * b22;
+		m22 = ai02 * b02 + ai12 * b12 + ai22 * b22;
+
+		m03 = qc[ 0 ] - m00 * pc[ 0 ] - m01 * pc[ 1 ] - m02 * pc[ 2 ];
+		m13 = qc[ 1 ] - m10 * pc[ 0 ] - m11 * pc[ 1 ] - m12 * pc[ 2 ];
+		m23 = qc[ 2 ] - m20 * pc[ 0 ] - m21 * pc[ 1 ] - m22 * pc[ 2 ];
+
+		invert();
+	}
+
 	/**
 	 * Closed form weighted least squares solution as described by
 	 * \citet{SchaeferAl06}.
@@ -60,4 +60,73 @@ public interface CoordinateTransform extends Serializable
 	 * @param location
 	 */
 	public void applyInPlace( double[] location );
+
+
+	/**
+	 * Apply the {@link CoordinateTransform} to a block of locations stored
+	 * as one coordinate array per dimension, i.e.
+	 * <code>locations[ d ][ i ]</code> is the d-th coordinate of the i-th
+	 * location.  Only locations <code>offset</code> to
+	 * <code>offset + length - 1</code> are transformed.
+	 *
+	 * The default implementation copies each location into a temporary
+	 * vector and calls {@link #applyInPlace(double[])}.  Implementations
+	 * are encouraged to override it with a tighter loop.
+	 *
+	 * @param locations [dimension][location]
+	 * @param offset index of the first location
+	 * @param length number of locations
+	 */
+	default public void applyInPlace( final double[][] locations, final int offset, final int length )
+	{
+		final int n = locations.length;
+		final double[] location = new double[ n ];
+		for ( int i = offset, end = offset + length; i < end; ++i )
+		{
+			for ( int d = 0; d < n; ++d )
+				location[ d ] = locations[ d ][ i ];
+			applyInPlace( location );
+			for ( int d = 0; d < n; ++d )
+				locations[ d ][ i ] = location[ d ];
+		}
+	}
+
+
+	/**
+	 * Apply the {@link CoordinateTransform} to all locations stored as one
+	 * coordinate array per dimension.
+	 *
+	 * @param locations [dimension][location]
+	 */
+	default public void applyInPlace( final double[][] locations )
+	{
+		applyInPlace( locations, 0, locations[ 0 ].length );
+	}
+
+
+	/**
+	 * Apply the {@link CoordinateTransform} to a block of locations stored
+	 * interleaved, i.e. <code>locations[ i * numDimensions + d ]</code> is
+	 * the d-th coordinate of the i-th location.  Only locations
+	 * <code>offset</code> to <code>offset + length - 1</code> are
+	 * transformed.
+	 *
+	 * The default implementation copies each location into a temporary
+	 * vector and calls {@link #applyInPlace(double[])}.
+	 *
+	 * @param locations interleaved coordinates
+	 * @param numDimensions number of coordinates per location
+	 * @param offset index of the first location (not of the first coordinate)
+	 * @param length number of locations
+	 */
+	default public void applyInPlace( final double[] locations, final int numDimensions, final int offset, final int length )
+	{
+		final double[] location = new double[ numDimensions ];
+		for ( int i = offset * numDimensions, end = ( offset + length ) * numDimensions; i < end; i += numDimensions )
+		{
+			System.arraycopy( locations, i, location, 0, numDimensions );
+			applyInPlace( location );
+			System.arraycopy( location, 0, locations, i, numDimensions );
+		}
+	}
 }
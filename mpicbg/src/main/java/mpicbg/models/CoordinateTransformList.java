@@ -88,6 +88,20 @@ public class CoordinateTransformList< E extends CoordinateTransform > implements
 			t.applyInPlace( location );
 	}
 
+	@Override
+	final public void applyInPlace( final double[][] locations, final int offset, final int length )
+	{
+		for ( final E t : transforms )
+			t.applyInPlace( locations, offset, length );
+	}
+
+	@Override
+	final public void applyInPlace( final double[] locations, final int numDimensions, final int offset, final int length )
+	{
+		for ( final E t : transforms )
+			t.applyInPlace( locations, numDimensions, offset, length );
+	}
+
 	/**
 	 * {@inheritDoc}
 	 *
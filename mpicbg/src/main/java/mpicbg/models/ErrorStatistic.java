@@ -21,6 +21,9 @@
  */
 package mpicbg.models;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Collections;
 import java.lang.IndexOutOfBoundsException;
 
@@ -34,8 +37,11 @@ public class ErrorStatistic
 	final public RingBuffer< Double > slope;
 	final public RingBuffer< Double > sortedValues;
 	
+	final protected int capacity;
+
 	public ErrorStatistic( final int capacity )
 	{
+		this.capacity = capacity;
 		values = new RingBuffer< Double >( capacity );
 		slope = new RingBuffer< Double >( capacity );
 		sortedValues = new RingBuffer< Double >( capacity );
@@ -119,4 +125,66 @@ public class ErrorStatistic
 		median = 0;
 		
 	}
+
+	/**
+	 * Write the complete state including the retained values.
+	 *
+	 * @param out
+	 * @throws IOException
+	 */
+	public void write( final DataOutput out ) throws IOException
+	{
+		final int first = values.nextIndex() - values.size();
+		out.writeInt( capacity );
+		out.writeInt( values.nextIndex() );
+		out.writeInt( values.size() );
+		for ( int i = first; i < values.nextIndex(); ++i )
+		{
+			out.writeDouble( values.get( i ) );
+			out.writeDouble( slope.get( i ) );
+		}
+		out.writeDouble( var0 );
+		out.writeDouble( var );
+		out.writeDouble( std0 );
+		out.writeDouble( std );
+		out.writeDouble( mean );
+		out.writeDouble( min );
+		out.writeDouble( max );
+		out.writeDouble( squareDifferences );
+		out.writeDouble( squares );
+	}
+
+	/**
+	 * Read an {@link ErrorStatistic} written by {@link #write(DataOutput)}.
+	 *
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	static public ErrorStatistic read( final DataInput in ) throws IOException
+	{
+		final ErrorStatistic e = new ErrorStatistic( in.readInt() );
+		final int n = in.readInt();
+		final int size = in.readInt();
+		e.values.clear( n - size );
+		e.slope.clear( n - size );
+		e.sortedValues.clear( n - size );
+		for ( int i = 0; i < size; ++i )
+		{
+			final double value = in.readDouble();
+			e.values.add( value );
+			e.sortedValues.add( value );
+			e.slope.add( in.readDouble() );
+		}
+		e.var0 = in.readDouble();
+		e.var = in.readDouble();
+		e.std0 = in.readDouble();
+		e.std = in.readDouble();
+		e.mean = in.readDouble();
+		e.min = in.readDouble();
+		e.max = in.readDouble();
+		e.squareDifferences = in.readDouble();
+		e.squares = in.readDouble();
+		return e;
+	}
 }
@@ -40,8 +40,6 @@ package mpicbg.models;
 import java.util.Collection;
 
 import mpicbg.util.Matrix3x3;
-import Jama.Matrix;
-import Jama.SingularValueDecomposition;
 
 /**
  * 2d-homography {@link AbstractModel} to be applied to points in 2d-space.
@@ -70,6 +68,22 @@ import Jama.SingularValueDecomposition;
  * Homogeneous Linear Least Squares
  * Problems, Two View Geometry
  *
+ * For more than four matches, the homography is estimated by the normalized
+ * direct linear transformation \cite{Hartley97} as the eigenvector of the
+ * 9&times;9 normal matrix with the smallest eigenvalue.
+ *
+ * <pre>
+ * &#64;article{Hartley97,
+ *   author    = {Richard I. Hartley},
+ *   title     = {In Defense of the Eight-Point Algorithm},
+ *   journal   = {IEEE Transactions on Pattern Analysis and Machine Intelligence},
+ *   volume    = {19},
+ *   number    = {6},
+ *   year      = {1997},
+ *   pages     = {580--593},
+ * }
+ * </pre>
+ *
  * @author Stephan Saalfeld &lt;saalfelds@janelia.hhmi.org&gt;
  */
 public class HomographyModel2D extends AbstractModel< HomographyModel2D > implements InvertibleBoundable
@@ -111,6 +125,17 @@ public class HomographyModel2D extends AbstractModel< HomographyModel2D > implem
 			i10 = 0, i11 = 1, i12 = 0,
 			i20 = 0, i21 = 0, i22 = 1;
 
+	/**
+	 * Minimal sine of the angle between two sides of a triangle of three
+	 * points in a minimal sample, below which the sample is considered
+	 * collinear.
+	 */
+	static final protected double MIN_SINE = 1.0e-6;
+
+	/* workspace for the normalized DLT, allocated on first use */
+	transient private double[] ata;
+	transient private double[] eigenvectors;
+
 	final private void invert()
 	{
 		final double det = Matrix3x3.det(
@@ -195,6 +220,38 @@ public class HomographyModel2D extends AbstractModel< HomographyModel2D > implem
 		point[ 1 ] = t1 / s;
 	}
 
+	@Override
+	final public void applyInPlace( final double[][] locations, final int offset, final int length )
+	{
+		assert locations.length >= 2 : "2d homographies can be applied to 2d points only.";
+
+		final double[] x = locations[ 0 ];
+		final double[] y = locations[ 1 ];
+		for ( int i = offset, end = offset + length; i < end; ++i )
+		{
+			final double l0 = x[ i ];
+			final double l1 = y[ i ];
+			final double s = m20 * l0 + m21 * l1 + m22;
+			x[ i ] = ( m00 * l0 + m01 * l1 + m02 ) / s;
+			y[ i ] = ( m10 * l0 + m11 * l1 + m12 ) / s;
+		}
+	}
+
+	@Override
+	final public void applyInPlace( final double[] locations, final int numDimensions, final int offset, final int length )
+	{
+		assert numDimensions >= 2 : "2d homographies can be applied to 2d points only.";
+
+		for ( int i = offset * numDimensions, end = ( offset + length ) * numDimensions; i < end; i += numDimensions )
+		{
+			final double l0 = locations[ i ];
+			final double l1 = locations[ i + 1 ];
+			final double s = m20 * l0 + m21 * l1 + m22;
+			locations[ i ] = ( m00 * l0 + m01 * l1 + m02 ) / s;
+			locations[ i + 1 ] = ( m10 * l0 + m11 * l1 + m12 ) / s;
+		}
+	}
+
 	//@Override
 	@Override
 	final public double[] applyInverse( final double[] point ) throws NoninvertibleModelException
@@ -286,6 +343,293 @@ public class HomographyModel2D extends AbstractModel< HomographyModel2D > implem
 		return m;
 	}
 
+	/**
+	 * Test if any three of four points are collinear.
+	 */
+	final static private boolean isDegenerate(
+			final double[] p1,
+			final double[] p2,
+			final double[] p3,
+			final double[] p4 )
+	{
+		return
+				isCollinear( p1, p2, p3 ) ||
+				isCollinear( p1, p2, p4 ) ||
+				isCollinear( p1, p3, p4 ) ||
+				isCollinear( p2, p3, p4 );
+	}
+
+	final static private boolean isCollinear(
+			final double[] a,
+			final double[] b,
+			final double[] c )
+	{
+		final double bx = b[ 0 ] - a[ 0 ];
+		final double by = b[ 1 ] - a[ 1 ];
+		final double cx = c[ 0 ] - a[ 0 ];
+		final double cy = c[ 1 ] - a[ 1 ];
+		final double cross = bx * cy - by * cx;
+		return Math.abs( cross ) <= MIN_SINE * Math.sqrt( ( bx * bx + by * by ) * ( cx * cx + cy * cy ) );
+	}
+
+	/**
+	 * Estimate the homography exactly from four matches.
+	 */
+	final private void fit(
+			final double[] p1, final double[] p2, final double[] p3, final double[] p4,
+			final double[] q1, final double[] q2, final double[] q3, final double[] q4 )
+		throws IllDefinedDataPointsException
+	{
+		if ( isDegenerate( p1, p2, p3, p4 ) || isDegenerate( q1, q2, q3, q4 ) )
+			throw new IllDefinedDataPointsException();
+
+		final double[] h1 = fitToUnitSquare( p1, p2, p3, p4 );
+		final double[] h2 = fitToUnitSquare( q1, q2, q3, q4 );
+
+		try
+		{
+			Matrix3x3.invert( h1 );
+
+			m00 = h2[ 0 ] * h1[ 0 ] + h2[ 1 ] * h1[ 3 ] + h2[ 2 ] * h1[ 6 ];
+			m01 = h2[ 0 ] * h1[ 1 ] + h2[ 1 ] * h1[ 4 ] + h2[ 2 ] * h1[ 7 ];
+			m02 = h2[ 0 ] * h1[ 2 ] + h2[ 1 ] * h1[ 5 ] + h2[ 2 ] * h1[ 8 ];
+
+			m10 = h2[ 3 ] * h1[ 0 ] + h2[ 4 ] * h1[ 3 ] + h2[ 5 ] * h1[ 6 ];
+			m11 = h2[ 3 ] * h1[ 1 ] + h2[ 4 ] * h1[ 4 ] + h2[ 5 ] * h1[ 7 ];
+			m12 = h2[ 3 ] * h1[ 2 ] + h2[ 4 ] * h1[ 5 ] + h2[ 5 ] * h1[ 8 ];
+
+			m20 = h2[ 6 ] * h1[ 0 ] + h2[ 7 ] * h1[ 3 ] + h2[ 8 ] * h1[ 6 ];
+			m21 = h2[ 6 ] * h1[ 1 ] + h2[ 7 ] * h1[ 4 ] + h2[ 8 ] * h1[ 7 ];
+			m22 = h2[ 6 ] * h1[ 2 ] + h2[ 7 ] * h1[ 5 ] + h2[ 8 ] * h1[ 8 ];
+
+			invert();
+		}
+		catch ( final NoninvertibleModelException e )
+		{
+			throw new IllDefinedDataPointsException();
+		}
+	}
+
+	/**
+	 * Replace NaN or infinite coordinates by 1 such that they cannot spoil
+	 * the normal system.
+	 */
+	final static private double finite( final double x )
+	{
+		return Double.isInfinite( x ) || Double.isNaN( x ) ? 1 : x;
+	}
+
+	final static private double distance( final double dx, final double dy )
+	{
+		return Math.sqrt( dx * dx + dy * dy );
+	}
+
+	/**
+	 * Add the two rows of the DLT system of one match in normalized
+	 * coordinates to the upper triangle of the 9&times;9 normal matrix
+	 * {@code A<sup>T</sup>A}.
+	 */
+	final static private void accumulate(
+			final double[] ata,
+			final double x,
+			final double y,
+			final double u,
+			final double v,
+			final double w )
+	{
+		/* row 1: -x, -y, -1, 0, 0, 0, ux, uy, u
+		 * row 2: 0, 0, 0, -x, -y, -1, vx, vy, v */
+		final double xx = x * x, xy = x * y, yy = y * y;
+		final double uu = u * u, vv = v * v;
+		final double uuvv = uu + vv;
+
+		ata[ 0 ] += w * xx;
+		ata[ 1 ] += w * xy;
+		ata[ 2 ] += w * x;
+		ata[ 6 ] -= w * u * xx;
+		ata[ 7 ] -= w * u * xy;
+		ata[ 8 ] -= w * u * x;
+
+		ata[ 10 ] += w * yy;
+		ata[ 11 ] += w * y;
+		ata[ 15 ] -= w * u * xy;
+		ata[ 16 ] -= w * u * yy;
+		ata[ 17 ] -= w * u * y;
+
+		ata[ 20 ] += w;
+		ata[ 24 ] -= w * u * x;
+		ata[ 25 ] -= w * u * y;
+		ata[ 26 ] -= w * u;
+
+		ata[ 30 ] += w * xx;
+		ata[ 31 ] += w * xy;
+		ata[ 32 ] += w * x;
+		ata[ 33 ] -= w * v * xx;
+		ata[ 34 ] -= w * v * xy;
+		ata[ 35 ] -= w * v * x;
+
+		ata[ 40 ] += w * yy;
+		ata[ 41 ] += w * y;
+		ata[ 42 ] -= w * v * xy;
+		ata[ 43 ] -= w * v * yy;
+		ata[ 44 ] -= w * v * y;
+
+		ata[ 50 ] += w;
+		ata[ 51 ] -= w * v * x;
+		ata[ 52 ] -= w * v * y;
+		ata[ 53 ] -= w * v;
+
+		ata[ 60 ] += w * uuvv * xx;
+		ata[ 61 ] += w * uuvv * xy;
+		ata[ 62 ] += w * uuvv * x;
+
+		ata[ 70 ] += w * uuvv * yy;
+		ata[ 71 ] += w * uuvv * y;
+
+		ata[ 80 ] += w * uuvv;
+	}
+
+	/**
+	 * Find the eigenvector of the symmetric 9&times;9 matrix a with the
+	 * smallest eigenvalue by cyclic Jacobi rotations.  a is overwritten.
+	 *
+	 * @param a row major, only the upper triangle is read
+	 * @param v workspace for the eigenvectors
+	 * @param h the eigenvector
+	 *
+	 * @return the smallest eigenvalue
+	 */
+	final static private double smallestEigenvector( final double[] a, final double[] v, final double[] h )
+	{
+		for ( int i = 0; i < 9; ++i )
+			for ( int j = 0; j < i; ++j )
+				a[ i * 9 + j ] = a[ j * 9 + i ];
+
+		for ( int i = 0; i < 81; ++i )
+			v[ i ] = 0;
+		for ( int i = 0; i < 9; ++i )
+			v[ i * 9 + i ] = 1;
+
+		for ( int sweep = 0; sweep < 50; ++sweep )
+		{
+			double off = 0, diagonal = 0;
+			for ( int i = 0; i < 9; ++i )
+			{
+				diagonal += a[ i * 9 + i ] * a[ i * 9 + i ];
+				for ( int j = i + 1; j < 9; ++j )
+					off += a[ i * 9 + j ] * a[ i * 9 + j ];
+			}
+			if ( off <= 1.0e-30 * diagonal )
+				break;
+
+			for ( int p = 0; p < 8; ++p )
+			{
+				for ( int q = p + 1; q < 9; ++q )
+				{
+					final double apq = a[ p * 9 + q ];
+					if ( apq == 0 )
+						continue;
+
+					final double app = a[ p * 9 + p ];
+					final double aqq = a[ q * 9 + q ];
+					final double theta = ( aqq - app ) / ( 2 * apq );
+					final double t = theta == 0 ? 1 : Math.signum( theta ) / ( Math.abs( theta ) + Math.sqrt( theta * theta + 1 ) );
+					final double c = 1.0 / Math.sqrt( t * t + 1 );
+					final double s = t * c;
+
+					for ( int k = 0; k < 9; ++k )
+					{
+						final double akp = a[ k * 9 + p ];
+						final double akq = a[ k * 9 + q ];
+						a[ k * 9 + p ] = c * akp - s * akq;
+						a[ k * 9 + q ] = s * akp + c * akq;
+					}
+					for ( int k = 0; k < 9; ++k )
+					{
+						final double apk = a[ p * 9 + k ];
+						final double aqk = a[ q * 9 + k ];
+						a[ p * 9 + k ] = c * apk - s * aqk;
+						a[ q * 9 + k ] = s * apk + c * aqk;
+					}
+					for ( int k = 0; k < 9; ++k )
+					{
+						final double vkp = v[ k * 9 + p ];
+						final double vkq = v[ k * 9 + q ];
+						v[ k * 9 + p ] = c * vkp - s * vkq;
+						v[ k * 9 + q ] = s * vkp + c * vkq;
+					}
+				}
+			}
+		}
+
+		int min = 0;
+		for ( int i = 1; i < 9; ++i )
+			if ( a[ i * 9 + i ] < a[ min * 9 + min ] )
+				min = i;
+
+		for ( int k = 0; k < 9; ++k )
+			h[ k ] = v[ k * 9 + min ];
+
+		return a[ min * 9 + min ];
+	}
+
+	/**
+	 * Solve the normal system in normalized coordinates and set the
+	 * homography with the normalization undone.
+	 *
+	 * @param ata normal matrix, overwritten
+	 * @param sp scale of the normalized local coordinates
+	 * @param pcx
+	 * @param pcy center of the local coordinates
+	 * @param sq scale of the normalized world coordinates
+	 * @param qcx
+	 * @param qcy center of the world coordinates
+	 */
+	final private void solve(
+			final double[] ata,
+			final double sp,
+			final double pcx,
+			final double pcy,
+			final double sq,
+			final double qcx,
+			final double qcy )
+	{
+		final double[] h = new double[ 9 ];
+		final double lambda = smallestEigenvector( ata, eigenvectors, h );
+
+		cost = Math.sqrt( Math.max( 0, lambda ) );
+
+		/* H = Tq^-1 * Hn * Tp with Tp = [sp 0 -sp*pcx; 0 sp -sp*pcy; 0 0 1] */
+		final double n00 = h[ 0 ] * sp, n01 = h[ 1 ] * sp, n02 = h[ 2 ] - h[ 0 ] * sp * pcx - h[ 1 ] * sp * pcy;
+		final double n10 = h[ 3 ] * sp, n11 = h[ 4 ] * sp, n12 = h[ 5 ] - h[ 3 ] * sp * pcx - h[ 4 ] * sp * pcy;
+		final double n20 = h[ 6 ] * sp, n21 = h[ 7 ] * sp, n22 = h[ 8 ] - h[ 6 ] * sp * pcx - h[ 7 ] * sp * pcy;
+
+		final double isq = 1.0 / sq;
+		m00 = n00 * isq + qcx * n20;
+		m01 = n01 * isq + qcx * n21;
+		m02 = n02 * isq + qcx * n22;
+		m10 = n10 * isq + qcy * n20;
+		m11 = n11 * isq + qcy * n21;
+		m12 = n12 * isq + qcy * n22;
+		m20 = n20;
+		m21 = n21;
+		m22 = n22;
+
+		invert();
+	}
+
+	final private void allocateWorkspace()
+	{
+		if ( ata == null )
+		{
+			ata = new double[ 81 ];
+			eigenvectors = new double[ 81 ];
+		}
+		else
+			for ( int i = 0; i < 81; ++i )
+				ata[ i ] = 0;
+	}
+
 	@Override
 	final public < P extends PointMatch >void fit( final Collection< P > matches ) throws NotEnoughDataPointsException, IllDefinedDataPointsException
 	{
@@ -298,103 +642,159 @@ public class HomographyModel2D extends AbstractModel< HomographyModel2D > implem
 			final PointMatch[] p = new PointMatch[ MIN_NUM_MATCHES ];
 			matches.toArray( p );
 
-			final double[] h1 = fitToUnitSquare(
+			fit(
 					p[ 0 ].getP1().getL(),
 					p[ 1 ].getP1().getL(),
 					p[ 2 ].getP1().getL(),
-					p[ 3 ].getP1().getL() );
-			final double[] h2 = fitToUnitSquare(
+					p[ 3 ].getP1().getL(),
 					p[ 0 ].getP2().getW(),
 					p[ 1 ].getP2().getW(),
 					p[ 2 ].getP2().getW(),
 					p[ 3 ].getP2().getW() );
+		}
+		else
+		{
+			/* normalization: centers of mass and mean distances to them */
+			double pcx = 0, pcy = 0, qcx = 0, qcy = 0, ws = 0;
+			for ( final P pm : matches )
+			{
+				final double[] p = pm.getP1().getL();
+				final double[] q = pm.getP2().getW();
+				final double w = pm.getWeight();
+				pcx += w * finite( p[ 0 ] );
+				pcy += w * finite( p[ 1 ] );
+				qcx += w * finite( q[ 0 ] );
+				qcy += w * finite( q[ 1 ] );
+				ws += w;
+			}
+			pcx /= ws;
+			pcy /= ws;
+			qcx /= ws;
+			qcy /= ws;
 
-			try
+			double dp = 0, dq = 0;
+			for ( final P pm : matches )
 			{
-				Matrix3x3.invert( h1 );
+				final double[] p = pm.getP1().getL();
+				final double[] q = pm.getP2().getW();
+				final double w = pm.getWeight();
+				dp += w * distance( finite( p[ 0 ] ) - pcx, finite( p[ 1 ] ) - pcy );
+				dq += w * distance( finite( q[ 0 ] ) - qcx, finite( q[ 1 ] ) - qcy );
+			}
+			if ( dp == 0 || dq == 0 )
+				throw new IllDefinedDataPointsException();
 
-				m00 = h2[ 0 ] * h1[ 0 ] + h2[ 1 ] * h1[ 3 ] + h2[ 2 ] * h1[ 6 ];
-				m01 = h2[ 0 ] * h1[ 1 ] + h2[ 1 ] * h1[ 4 ] + h2[ 2 ] * h1[ 7 ];
-				m02 = h2[ 0 ] * h1[ 2 ] + h2[ 1 ] * h1[ 5 ] + h2[ 2 ] * h1[ 8 ];
+			final double sp = Math.sqrt( 2 ) * ws / dp;
+			final double sq = Math.sqrt( 2 ) * ws / dq;
 
-				m10 = h2[ 3 ] * h1[ 0 ] + h2[ 4 ] * h1[ 3 ] + h2[ 5 ] * h1[ 6 ];
-				m11 = h2[ 3 ] * h1[ 1 ] + h2[ 4 ] * h1[ 4 ] + h2[ 5 ] * h1[ 7 ];
-				m12 = h2[ 3 ] * h1[ 2 ] + h2[ 4 ] * h1[ 5 ] + h2[ 5 ] * h1[ 8 ];
+			allocateWorkspace();
+			for ( final P pm : matches )
+			{
+				final double[] p = pm.getP1().getL();
+				final double[] q = pm.getP2().getW();
+				accumulate(
+						ata,
+						( finite( p[ 0 ] ) - pcx ) * sp,
+						( finite( p[ 1 ] ) - pcy ) * sp,
+						( finite( q[ 0 ] ) - qcx ) * sq,
+						( finite( q[ 1 ] ) - qcy ) * sq,
+						pm.getWeight() );
+			}
 
-				m20 = h2[ 6 ] * h1[ 0 ] + h2[ 7 ] * h1[ 3 ] + h2[ 8 ] * h1[ 6 ];
-				m21 = h2[ 6 ] * h1[ 1 ] + h2[ 7 ] * h1[ 4 ] + h2[ 8 ] * h1[ 7 ];
-				m22 = h2[ 6 ] * h1[ 2 ] + h2[ 7 ] * h1[ 5 ] + h2[ 8 ] * h1[ 8 ];
+			solve( ata, sp, pcx, pcy, sq, qcx, qcy );
+		}
+	}
 
-				invert();
-			}
-			catch ( final NoninvertibleModelException e )
+	@Override
+	final public void fit(
+			final double[][] p,
+			final double[][] q,
+			final double[] w )
+		throws NotEnoughDataPointsException, IllDefinedDataPointsException
+	{
+		assert
+			p.length >= 2 &&
+			q.length >= 2 : "2d homographies can be applied to 2d points only.";
+
+		assert
+			p[ 0 ].length == p[ 1 ].length &&
+			p[ 0 ].length == q[ 0 ].length &&
+			p[ 0 ].length == q[ 1 ].length &&
+			p[ 0 ].length == w.length : "Array lengths do not match.";
+
+		final double[] pX = p[ 0 ];
+		final double[] pY = p[ 1 ];
+		final double[] qX = q[ 0 ];
+		final double[] qY = q[ 1 ];
+
+		/* matches with weight 0 do not contribute */
+		final int l = pX.length;
+		int numMatches = 0;
+		for ( int i = 0; i < l; ++i )
+			if ( w[ i ] != 0 )
+				++numMatches;
+
+		if ( numMatches < MIN_NUM_MATCHES ) throw new NotEnoughDataPointsException( numMatches + " data points are not enough to estimate a 2d homography model, at least " + MIN_NUM_MATCHES + " data points required." );
+
+		if ( numMatches == MIN_NUM_MATCHES )
+		{
+			final double[][] ps = new double[ MIN_NUM_MATCHES ][];
+			final double[][] qs = new double[ MIN_NUM_MATCHES ][];
+			for ( int i = 0, j = 0; i < l; ++i )
 			{
-				throw new IllDefinedDataPointsException();
+				if ( w[ i ] != 0 )
+				{
+					ps[ j ] = new double[]{ pX[ i ], pY[ i ] };
+					qs[ j++ ] = new double[]{ qX[ i ], qY[ i ] };
+				}
 			}
+			fit( ps[ 0 ], ps[ 1 ], ps[ 2 ], ps[ 3 ], qs[ 0 ], qs[ 1 ], qs[ 2 ], qs[ 3 ] );
 		}
 		else
 		{
-			final int n = matches.size() * 2;
-			final double[][] a = new double[ n ][ 9 ];
-			int i = 0;
-
-			for ( final P pm : matches )
+			double pcx = 0, pcy = 0, qcx = 0, qcy = 0, ws = 0;
+			for ( int i = 0; i < l; ++i )
 			{
-				final double[] p = pm.getP1().getL();
-				final double[] q = pm.getP2().getW();
-
-				double px = p[ 0 ];
-				double py = p[ 1 ];
-				double qx = q[ 0 ];
-				double qy = q[ 1 ];
-
-				// without testing that, it will send the SingularValueDecomposition
-				// into an infinite loop if one of them is NaN or Infinite
-				if ( Double.isInfinite( px ) || Double.isNaN( px ) )
-					px = 1;
-
-				if ( Double.isInfinite( py ) || Double.isNaN( py ))
-					py = 1;
-
-				if ( Double.isInfinite( qx ) || Double.isNaN( qx ))
-					qx = 1;
-
-				if ( Double.isInfinite( qy ) || Double.isNaN( qy ))
-					qy = 1;
-
-				a[ i ][ 0 ] = -px;
-				a[ i ][ 1 ] = -py;
-				a[ i ][ 2 ] = -1;
-				a[ i ][ 6 ] = qx * px;
-				a[ i ][ 7 ] = qx * py;
-				a[ i++ ][ 8 ] = qx;
-
-				a[ i ][ 3 ] = -px;
-				a[ i ][ 4 ] = -py;
-				a[ i ][ 5 ] = -1;
-				a[ i ][ 6 ] = qy * px;
-				a[ i ][ 7 ] = qy * py;
-				a[ i++ ][ 8 ] = qy;
+				final double ww = w[ i ];
+				pcx += ww * finite( pX[ i ] );
+				pcy += ww * finite( pY[ i ] );
+				qcx += ww * finite( qX[ i ] );
+				qcy += ww * finite( qY[ i ] );
+				ws += ww;
 			}
+			pcx /= ws;
+			pcy /= ws;
+			qcx /= ws;
+			qcy /= ws;
 
-			final Matrix mA = new Matrix( a );
-			final SingularValueDecomposition svd = new SingularValueDecomposition( mA );
-			final Matrix s = svd.getS();
-			final Matrix v = svd.getV();
+			double dp = 0, dq = 0;
+			for ( int i = 0; i < l; ++i )
+			{
+				final double ww = w[ i ];
+				dp += ww * distance( finite( pX[ i ] ) - pcx, finite( pY[ i ] ) - pcy );
+				dq += ww * distance( finite( qX[ i ] ) - qcx, finite( qY[ i ] ) - qcy );
+			}
+			if ( dp == 0 || dq == 0 )
+				throw new IllDefinedDataPointsException();
 
-			cost = s.get( 8, 8 );
+			final double sp = Math.sqrt( 2 ) * ws / dp;
+			final double sq = Math.sqrt( 2 ) * ws / dq;
 
-			m00 = v.get( 0, 8 );
-			m01 = v.get( 1, 8 );
-			m02 = v.get( 2, 8 );
-			m10 = v.get( 3, 8 );
-			m11 = v.get( 4, 8 );
-			m12 = v.get( 5, 8 );
-			m20 = v.get( 6, 8 );
-			m21 = v.get( 7, 8 );
-			m22 = v.get( 8, 8 );
+			allocateWorkspace();
+			for ( int i = 0; i < l; ++i )
+			{
+				final double ww = w[ i ];
+				if ( ww != 0 )
+					accumulate(
+							ata,
+							( finite( pX[ i ] ) - pcx ) * sp,
+							( finite( pY[ i ] ) - pcy ) * sp,
+							( finite( qX[ i ] ) - qcx ) * sq,
+							( finite( qY[ i ] ) - qcy ) * sq,
+							ww );
+			}
 
-			invert();
+			solve( ata, sp, pcx, pcy, sq, qcx, qcy );
 		}
 	}
 
@@ -113,6 +113,18 @@ final public class InterpolatedAffineModel2D<
 		affine.applyInPlace( location );
 	}
 
+	@Override
+	public void applyInPlace( final double[][] locations, final int offset, final int length )
+	{
+		affine.applyInPlace( locations, offset, length );
+	}
+
+	@Override
+	public void applyInPlace( final double[] locations, final int numDimensions, final int offset, final int length )
+	{
+		affine.applyInPlace( locations, numDimensions, offset, length );
+	}
+
 	@Override
 	public void applyInverseInPlace( final double[] point ) throws NoninvertibleModelException
 	{
@@ -86,6 +86,20 @@ public class InvertibleCoordinateTransformList< E extends InvertibleCoordinateTr
 			t.applyInPlace( location );
 	}
 
+	@Override
+	final public void applyInPlace( final double[][] locations, final int offset, final int length )
+	{
+		for ( final E t : transforms )
+			t.applyInPlace( locations, offset, length );
+	}
+
+	@Override
+	final public void applyInPlace( final double[] locations, final int numDimensions, final int offset, final int length )
+	{
+		for ( final E t : transforms )
+			t.applyInPlace( locations, numDimensions, offset, length );
+	}
+
 	@Override
 	final public double[] applyInverse( final double[] location ) throws NoninvertibleModelException
 	{
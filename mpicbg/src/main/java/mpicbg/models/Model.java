@@ -408,9 +408,7 @@ public interface Model< M extends Model< M > > extends CoordinateTransform
 	 * @param p source
 	 * @param q target
 	 *
-	 * @return the list of matches
-	 *
-	 * TODO Test---at least once!
+	 * @return the list of matches, null if the model could not be estimated
 	 */
 	public Collection< PointMatch > icp(
 			final List< Point > p,
@@ -0,0 +1,46 @@
+/*-
+ * #%L
+ * MPICBG Core Library.
+ * %%
+ * Copyright (C) 2008 - 2025 Stephan Saalfeld et. al.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package mpicbg.models;
+
+/**
+ * A {@link Model} that can be fitted to the {@link PointMatchMoments} of a
+ * set of {@link PointMatch PointMatches} instead of the matches themselves.
+ * Implementations must produce the same result as
+ * {@link Model#fit(java.util.Collection)}, that is the least squares fit
+ * with each match weighted by {@link PointMatch#getWeight()}.  Models whose
+ * collection fit weights differently, like {@link RigidModel3D} and
+ * {@link SimilarityModel3D}, do not implement it.
+ */
+public interface MomentsFittable
+{
+	/**
+	 * Fit the model to the {@link PointMatchMoments} of a set of matches.
+	 *
+	 * @param moments
+	 *
+	 * @throws NotEnoughDataPointsException if moments contains less matches
+	 *   than required
+	 * @throws IllDefinedDataPointsException if the matches are degenerate
+	 */
+	public void fit( final PointMatchMoments moments )
+		throws NotEnoughDataPointsException, IllDefinedDataPointsException;
+}
@@ -0,0 +1,229 @@
+/*-
+ * #%L
+ * MPICBG Core Library.
+ * %%
+ * Copyright (C) 2008 - 2025 Stephan Saalfeld et. al.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package mpicbg.models;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A fixed size set of {@link PointMatch PointMatches} packed into primitive
+ * arrays.  The local coordinates of {@link PointMatch#getP1() p1}, the world
+ * coordinates of {@link PointMatch#getP2() p2} and the weights are stored in
+ * the layout that is expected by
+ * {@link Model#fit(double[][], double[][], double[])}:
+ * <pre><code>
+ * p = double[][]{
+ *   {x<sub>1</sub>, x<sub>2</sub>, x<sub>3</sub>, ...},
+ *   {y<sub>1</sub>, y<sub>2</sub>, y<sub>3</sub>, ...} }
+ * </code></pre>
+ * such that fitting, testing and applying models iterates over contiguous
+ * arrays instead of {@link Point} objects.
+ */
+public class PackedPointMatches implements Serializable
+{
+	private static final long serialVersionUID = -2071484016738498390L;
+
+	/**
+	 * Local coordinates of {@link PointMatch#getP1() p1}, [dimension][match]
+	 */
+	final protected double[][] p;
+	public double[][] getP(){ return p; }
+
+	/**
+	 * World coordinates of {@link PointMatch#getP2() p2}, [dimension][match]
+	 */
+	final protected double[][] q;
+	public double[][] getQ(){ return q; }
+
+	/**
+	 * Weights
+	 */
+	final protected double[] w;
+	public double[] getW(){ return w; }
+
+	/**
+	 * Constructor
+	 *
+	 * Create an empty {@link PackedPointMatches} with all weights = 1.
+	 *
+	 * @param numDimensions
+	 * @param size number of matches
+	 */
+	public PackedPointMatches( final int numDimensions, final int size )
+	{
+		p = new double[ numDimensions ][ size ];
+		q = new double[ numDimensions ][ size ];
+		w = new double[ size ];
+		for ( int i = 0; i < size; ++i )
+			w[ i ] = 1.0;
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * Pack a {@link Collection} of {@link PointMatch PointMatches}.  All
+	 * matches must have the same dimensionality.
+	 *
+	 * @param matches
+	 */
+	public PackedPointMatches( final Collection< ? extends PointMatch > matches )
+	{
+		this(
+				matches.isEmpty() ? 0 : matches.iterator().next().getP1().getL().length,
+				matches.size() );
+		pack( matches );
+	}
+
+	public int size(){ return w.length; }
+
+	public int numDimensions(){ return p.length; }
+
+	/**
+	 * Set the i-th match from a {@link PointMatch}.
+	 *
+	 * @param i
+	 * @param match
+	 */
+	public void set( final int i, final PointMatch match )
+	{
+		final double[] l = match.getP1().getL();
+		final double[] t = match.getP2().getW();
+		for ( int d = 0; d < p.length; ++d )
+		{
+			p[ d ][ i ] = l[ d ];
+			q[ d ][ i ] = t[ d ];
+		}
+		w[ i ] = match.getWeight();
+	}
+
+	/**
+	 * Set the i-th match from the j-th match of another
+	 * {@link PackedPointMatches}.
+	 *
+	 * @param i
+	 * @param source
+	 * @param j
+	 */
+	public void set( final int i, final PackedPointMatches source, final int j )
+	{
+		for ( int d = 0; d < p.length; ++d )
+		{
+			p[ d ][ i ] = source.p[ d ][ j ];
+			q[ d ][ i ] = source.q[ d ][ j ];
+		}
+		w[ i ] = source.w[ j ];
+	}
+
+	/**
+	 * Re-pack all matches, e.g. after the world coordinates of
+	 * {@link PointMatch#getP2() p2} have changed.  The number of matches
+	 * must be {@link #size()}.
+	 *
+	 * @param matches
+	 */
+	public void pack( final Collection< ? extends PointMatch > matches )
+	{
+		assert matches.size() == size() : "Number of matches does not match.";
+
+		int i = 0;
+		for ( final PointMatch match : matches )
+			set( i++, match );
+	}
+
+	/**
+	 * Copy the weights into maskedWeights, setting the weights of all
+	 * matches that are not in mask to 0.  Weighted least squares fits to
+	 * {@link #getP() p}, {@link #getQ() q} and maskedWeights then ignore the
+	 * masked matches.
+	 *
+	 * @param mask
+	 * @param maskedWeights
+	 */
+	public void mask( final boolean[] mask, final double[] maskedWeights )
+	{
+		for ( int i = 0; i < w.length; ++i )
+			maskedWeights[ i ] = mask[ i ] ? w[ i ] : 0;
+	}
+
+	/**
+	 * Apply a {@link CoordinateTransform} to all local coordinates
+	 * {@link #getP() p} and store the result in target.
+	 *
+	 * @param t
+	 * @param target [dimension][match]
+	 */
+	public void apply( final CoordinateTransform t, final double[][] target )
+	{
+		final double[] location = new double[ p.length ];
+		for ( int i = 0; i < w.length; ++i )
+		{
+			for ( int d = 0; d < p.length; ++d )
+				location[ d ] = p[ d ][ i ];
+			t.applyInPlace( location );
+			for ( int d = 0; d < p.length; ++d )
+				target[ d ][ i ] = location[ d ];
+		}
+	}
+
+	/**
+	 * Euclidean distance of the transferred local coordinates and the world
+	 * coordinates of the i-th match.
+	 *
+	 * @param t
+	 * @param i
+	 * @param location temporary storage with {@link #numDimensions()}
+	 *
+	 * @return transfer error
+	 */
+	public double distance( final CoordinateTransform t, final int i, final double[] location )
+	{
+		for ( int d = 0; d < p.length; ++d )
+			location[ d ] = p[ d ][ i ];
+		t.applyInPlace( location );
+		double sum = 0.0;
+		for ( int d = 0; d < p.length; ++d )
+		{
+			final double dd = location[ d ] - q[ d ][ i ];
+			sum += dd * dd;
+		}
+		return Math.sqrt( sum );
+	}
+
+	/**
+	 * Collect the matches flagged in mask from the list that was packed.
+	 *
+	 * @param matches the packed matches
+	 * @param mask
+	 * @param selected
+	 */
+	static public < P extends PointMatch > void select(
+			final List< P > matches,
+			final boolean[] mask,
+			final Collection< P > selected )
+	{
+		selected.clear();
+		for ( int i = 0; i < mask.length; ++i )
+			if ( mask[ i ] )
+				selected.add( matches.get( i ) );
+	}
+}
@@ -0,0 +1,842 @@
+/*-
+ * #%L
+ * MPICBG Core Library.
+ * %%
+ * Copyright (C) 2008 - 2025 Stephan Saalfeld et. al.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package mpicbg.models;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map.Entry;
+
+/**
+ * A compiled representation of a system of connected
+ * {@link SpringMesh SpringMeshes} in primitive arrays.
+ *
+ * All {@link Vertex Vertices} are numbered.  The active
+ * {@link Vertex Vertices} of all {@link SpringMesh SpringMeshes} come
+ * first, mesh by mesh, followed by passive {@link Vertex Vertices} and by
+ * {@link Vertex Vertices} that are connected by a {@link Spring} but not part
+ * of any {@link SpringMesh}, whose positions remain constant.  Positions,
+ * motion vectors and forces are packed into interleaved arrays, the
+ * {@link Spring Springs} of each active {@link Vertex} into compressed
+ * sparse rows of target index, rest length, weight and stretch limit.  A
+ * passive {@link Vertex} moves with the affine transformation of its
+ * triangle, i.e. its position is the barycentric combination of the three
+ * corner {@link Vertex Vertices}.  The force loop thus iterates over
+ * contiguous arrays without any hash lookup.
+ *
+ * The system refers to the {@link SpringMesh SpringMeshes} and their
+ * active {@link Vertex Vertices} to {@link #writeBack() write back} the
+ * result.  The compiled {@link Spring Springs} stay in the hash maps of
+ * the {@link Vertex Vertices}, so compiling adds to the memory footprint
+ * unless they are released with {@link #releaseSprings()}.  Each end of a
+ * {@link Spring} at an active {@link Vertex} takes 28 bytes in the packed
+ * arrays, and releasing frees about 70 bytes of {@link Spring} and hash
+ * map entry for it.  The triangles and matches of the
+ * {@link SpringMesh SpringMeshes} remain.
+ *
+ * The dynamics of {@link #optimize(double, int, int, double)} are exactly
+ * those of
+ * {@link SpringMesh#optimizeMeshes(Collection, double, int, int, double, boolean)}.
+ * Alternatively, {@link #minimizeEnergy(Param)} finds the rest state by
+ * minimizing the potential energy of all {@link Spring Springs} with
+ * L-BFGS.
+ * {@link SpringMesh SpringMeshes} are 2d.
+ */
+public class PackedSpringSystem
+{
+	/**
+	 * Parameters of {@link PackedSpringSystem#minimizeEnergy(Param)}.
+	 */
+	static public class Param implements Serializable
+	{
+		private static final long serialVersionUID = -3209538911235471263L;
+
+		/**
+		 * Maximal number of L-BFGS iterations.
+		 */
+		public int maxIterations = 1000;
+
+		/**
+		 * Stop when the average force is not larger than this, the average
+		 * force being measured like in {@link PackedSpringSystem#optimize(double, int, int, double)}.
+		 */
+		public double maxError = 0.01;
+
+		/**
+		 * Stop when the energy decreases relatively by less than this.
+		 */
+		public double minEnergyChange = 1.0e-12;
+
+		/**
+		 * Number of correction pairs that approximate the inverse Hessian.
+		 */
+		public int numCorrections = 10;
+
+		/**
+		 * Maximal displacement of a {@link Vertex} in a single line search
+		 * step.
+		 */
+		public double maxStepSize = 1000;
+
+		/**
+		 * Let {@link Spring Springs} to passive {@link Vertex Vertices} pull
+		 * at the corners of the passive {@link Vertex Vertex's} triangle too.
+		 * This makes the system conservative so that it is minimized in one
+		 * run, but it is a different system than the one relaxed by
+		 * {@link SpringMesh#optimizeMeshes(Collection, double, int, int, double, boolean)}.
+		 * Correspondences added in both directions between two
+		 * {@link SpringMesh SpringMeshes} then couple them about twice as
+		 * stiffly, and the rest state differs.
+		 */
+		public boolean passiveReactions = false;
+
+		@Override
+		public Param clone()
+		{
+			final Param p = new Param();
+			p.maxIterations = maxIterations;
+			p.maxError = maxError;
+			p.minEnergyChange = minEnergyChange;
+			p.numCorrections = numCorrections;
+			p.maxStepSize = maxStepSize;
+			p.passiveReactions = passiveReactions;
+			return p;
+		}
+	}
+
+	final static protected int N = 2;
+
+	final protected SpringMesh[] meshes;
+	final protected Vertex[] activeVertices;
+
+	final protected int numActive;
+	final protected int numPassive;
+
+	/* active vertices of mesh m are [meshStarts[ m ], meshStarts[ m + 1 ]) */
+	final protected int[] meshStarts;
+	final protected double[] meshDamps;
+	final protected double[] meshMaxSpeeds;
+
+	/* interleaved positions of all vertices */
+	final protected double[] w;
+
+	/* interleaved motion vectors and forces of the active vertices */
+	final protected double[] directions;
+	final protected double[] forces;
+	final protected double[] forceAmplitudes;
+	final protected double[] speeds;
+
+	/* springs of active vertices, compressed sparse rows */
+	final protected int[] springStarts;
+	final protected int[] springTargets;
+	final protected double[] springLengths;
+	final protected double[] springWeights;
+	final protected double[] springMaxStretches;
+
+	/* corners and barycentric coordinates of passive vertices */
+	final protected int[] passiveCorners;
+	final protected double[] passiveWeights;
+
+	protected double force = 0;
+	public double getForce(){ return force; }
+	protected double minForce = Double.MAX_VALUE;
+	public double getMinForce(){ return minForce; }
+	protected double maxForce = 0;
+	public double getMaxForce(){ return maxForce; }
+	protected double maxSpeed = 0;
+
+	public PackedSpringSystem( final Collection< SpringMesh > meshCollection )
+	{
+		meshes = meshCollection.toArray( new SpringMesh[ meshCollection.size() ] );
+
+		final IdentityHashMap< Vertex, Integer > indices = new IdentityHashMap< Vertex, Integer >();
+		final ArrayList< Vertex > vertexList = new ArrayList< Vertex >();
+
+		meshStarts = new int[ meshes.length + 1 ];
+		meshDamps = new double[ meshes.length ];
+		meshMaxSpeeds = new double[ meshes.length ];
+		for ( int m = 0; m < meshes.length; ++m )
+		{
+			for ( final Vertex vertex : meshes[ m ].getVertices() )
+			{
+				indices.put( vertex, vertexList.size() );
+				vertexList.add( vertex );
+			}
+			meshStarts[ m + 1 ] = vertexList.size();
+			meshDamps[ m ] = meshes[ m ].damp;
+			meshMaxSpeeds[ m ] = meshes[ m ].maxSpeed;
+		}
+		numActive = vertexList.size();
+
+		/* passive vertices and their triangles */
+		final ArrayList< Vertex > passiveVertices = new ArrayList< Vertex >();
+		final ArrayList< int[] > corners = new ArrayList< int[] >();
+		final ArrayList< double[] > barycentrics = new ArrayList< double[] >();
+		for ( final SpringMesh mesh : meshes )
+		{
+			for ( final Entry< Vertex, AffineModel2D > entry : mesh.pva.entrySet() )
+			{
+				final Vertex vertex = entry.getKey();
+				if ( indices.containsKey( vertex ) )
+					continue;
+				final ArrayList< PointMatch > triangle = mesh.av.get( entry.getValue() );
+				final int[] c = new int[ 3 ];
+				final double[][] l = new double[ 3 ][];
+				for ( int k = 0; k < 3; ++k )
+				{
+					c[ k ] = indices.get( mesh.pv.get( triangle.get( k ) ) );
+					l[ k ] = triangle.get( k ).getP1().getL();
+				}
+				indices.put( vertex, numActive + passiveVertices.size() );
+				passiveVertices.add( vertex );
+				corners.add( c );
+				barycentrics.add( barycentric( vertex.getL(), l[ 0 ], l[ 1 ], l[ 2 ] ) );
+			}
+		}
+		numPassive = passiveVertices.size();
+		vertexList.addAll( passiveVertices );
+
+		passiveCorners = new int[ 3 * numPassive ];
+		passiveWeights = new double[ 3 * numPassive ];
+		for ( int p = 0; p < numPassive; ++p )
+		{
+			System.arraycopy( corners.get( p ), 0, passiveCorners, 3 * p, 3 );
+			System.arraycopy( barycentrics.get( p ), 0, passiveWeights, 3 * p, 3 );
+		}
+
+		/* springs, connected vertices outside of all meshes are constant */
+		springStarts = new int[ numActive + 1 ];
+		int numSprings = 0;
+		for ( int i = 0; i < numActive; ++i )
+		{
+			numSprings += vertexList.get( i ).springs.size();
+			springStarts[ i + 1 ] = numSprings;
+		}
+		springTargets = new int[ numSprings ];
+		springLengths = new double[ numSprings ];
+		springWeights = new double[ numSprings ];
+		springMaxStretches = new double[ numSprings ];
+		for ( int i = 0, k = 0; i < numActive; ++i )
+		{
+			for ( final Entry< Vertex, Spring > entry : vertexList.get( i ).springs.entrySet() )
+			{
+				final Vertex target = entry.getKey();
+				Integer j = indices.get( target );
+				if ( j == null )
+				{
+					j = vertexList.size();
+					indices.put( target, j );
+					vertexList.add( target );
+				}
+				final Spring spring = entry.getValue();
+				springTargets[ k ] = j;
+				springLengths[ k ] = spring.getLength();
+				springWeights[ k ] = spring.getWeight();
+				springMaxStretches[ k ] = spring.maxStretch;
+				++k;
+			}
+		}
+
+		activeVertices = vertexList.subList( 0, numActive ).toArray( new Vertex[ numActive ] );
+
+		w = new double[ N * vertexList.size() ];
+		for ( int i = 0; i < vertexList.size(); ++i )
+			System.arraycopy( vertexList.get( i ).getW(), 0, w, N * i, N );
+
+		directions = new double[ N * numActive ];
+		for ( int i = 0; i < numActive; ++i )
+			System.arraycopy( activeVertices[ i ].getDirection(), 0, directions, N * i, N );
+
+		forces = new double[ N * numActive ];
+		forceAmplitudes = new double[ numActive ];
+		speeds = new double[ numActive ];
+	}
+
+	/**
+	 * Barycentric coordinates of a 2d location in a triangle.
+	 */
+	static protected double[] barycentric( final double[] p, final double[] a, final double[] b, final double[] c )
+	{
+		final double v0x = b[ 0 ] - a[ 0 ], v0y = b[ 1 ] - a[ 1 ];
+		final double v1x = c[ 0 ] - a[ 0 ], v1y = c[ 1 ] - a[ 1 ];
+		final double v2x = p[ 0 ] - a[ 0 ], v2y = p[ 1 ] - a[ 1 ];
+		final double det = v0x * v1y - v1x * v0y;
+		final double u = ( v2x * v1y - v1x * v2y ) / det;
+		final double v = ( v0x * v2y - v2x * v0y ) / det;
+		return new double[]{ 1.0 - u - v, u, v };
+	}
+
+	/**
+	 * Remove the compiled {@link Spring Springs}, i.e. those of the active
+	 * {@link Vertex Vertices}, from both {@link Vertex Vertices} they
+	 * connect, such that they can be garbage collected.  The
+	 * {@link SpringMesh SpringMeshes} can then no longer be optimized
+	 * without this system.
+	 */
+	public void releaseSprings()
+	{
+		for ( final Vertex vertex : activeVertices )
+		{
+			for ( final Vertex target : vertex.springs.keySet() )
+				if ( target != vertex )
+					target.springs.remove( vertex );
+			vertex.springs.clear();
+		}
+	}
+
+	public int getNumActiveVertices(){ return numActive; }
+	public int getNumPassiveVertices(){ return numPassive; }
+	public int getNumSprings(){ return springTargets.length; }
+
+	/**
+	 * Update the force vectors of all active {@link Vertex Vertices} and the
+	 * average force, see {@link Vertex#updateForce()} and
+	 * {@link Spring#calculateForce(Point, Point, double[])}.
+	 */
+	public void updateForces()
+	{
+		force = 0;
+		minForce = Double.MAX_VALUE;
+		maxForce = 0;
+		for ( int m = 0; m < meshes.length; ++m )
+		{
+			double meshForce = 0;
+			for ( int i = meshStarts[ m ]; i < meshStarts[ m + 1 ]; ++i )
+			{
+				final int iw = N * i;
+				final double x = w[ iw ];
+				final double y = w[ iw + 1 ];
+				double fx = 0;
+				double fy = 0;
+				for ( int k = springStarts[ i ]; k < springStarts[ i + 1 ]; ++k )
+				{
+					final int jw = N * springTargets[ k ];
+					final double dx = w[ jw ] - x;
+					final double dy = w[ jw + 1 ] - y;
+					final double lw = Math.sqrt( dx * dx + dy * dy );
+					final double d = lw - springLengths[ k ];
+					if ( Math.abs( d ) > springMaxStretches[ k ] )
+						continue;
+					else if ( lw == 0.0 )
+					{
+						if ( Spring.rnd.nextDouble() < 0.5 )
+							fx += d * springWeights[ k ];
+						else
+							fy += d * springWeights[ k ];
+					}
+					else
+					{
+						fx += dx / lw * d * springWeights[ k ];
+						fy += dy / lw * d * springWeights[ k ];
+					}
+				}
+				forces[ iw ] = fx;
+				forces[ iw + 1 ] = fy;
+				final double f = Math.sqrt( fx * fx + fy * fy );
+				forceAmplitudes[ i ] = f;
+				meshForce += f;
+				if ( f < minForce ) minForce = f;
+				if ( f > maxForce ) maxForce = f;
+			}
+			force += meshForce / ( meshStarts[ m + 1 ] - meshStarts[ m ] );
+		}
+	}
+
+	/**
+	 * Update the motion vectors of all active {@link Vertex Vertices}, see
+	 * {@link Vertex#updateDirection(double, double)}.
+	 *
+	 * @param dt
+	 */
+	public void updateDirections( final double dt )
+	{
+		maxSpeed = 0;
+		for ( int m = 0; m < meshes.length; ++m )
+		{
+			final double dampDt = Math.pow( meshDamps[ m ], dt );
+			double meshMaxSpeed = meshMaxSpeeds[ m ];
+			for ( int i = meshStarts[ m ]; i < meshStarts[ m + 1 ]; ++i )
+			{
+				final int iw = N * i;
+				final double dx = ( directions[ iw ] + forces[ iw ] * dt ) * dampDt;
+				final double dy = ( directions[ iw + 1 ] + forces[ iw + 1 ] * dt ) * dampDt;
+				directions[ iw ] = dx;
+				directions[ iw + 1 ] = dy;
+				final double speed = Math.sqrt( dx * dx + dy * dy );
+				speeds[ i ] = speed;
+				if ( speed > meshMaxSpeed ) meshMaxSpeed = speed;
+			}
+			meshMaxSpeeds[ m ] = meshMaxSpeed;
+			if ( meshMaxSpeed > maxSpeed ) maxSpeed = meshMaxSpeed;
+		}
+	}
+
+	/**
+	 * Move all active {@link Vertex Vertices} for a given &Delta;t and the
+	 * passive {@link Vertex Vertices} with their triangles.
+	 *
+	 * @param dt
+	 */
+	public void move( final double dt )
+	{
+		for ( int i = 0; i < N * numActive; ++i )
+			w[ i ] += dt * directions[ i ];
+
+		movePassiveVertices();
+	}
+
+	/**
+	 * Move the passive {@link Vertex Vertices} with their triangles.
+	 */
+	protected void movePassiveVertices()
+	{
+		for ( int p = 0; p < numPassive; ++p )
+		{
+			final int pw = N * ( numActive + p );
+			final int c0 = N * passiveCorners[ 3 * p ];
+			final int c1 = N * passiveCorners[ 3 * p + 1 ];
+			final int c2 = N * passiveCorners[ 3 * p + 2 ];
+			final double b0 = passiveWeights[ 3 * p ];
+			final double b1 = passiveWeights[ 3 * p + 1 ];
+			final double b2 = passiveWeights[ 3 * p + 2 ];
+			w[ pw ] = b0 * w[ c0 ] + b1 * w[ c1 ] + b2 * w[ c2 ];
+			w[ pw + 1 ] = b0 * w[ c0 + 1 ] + b1 * w[ c1 + 1 ] + b2 * w[ c2 + 1 ];
+		}
+	}
+
+	/**
+	 * Copy positions and motion vectors back into the
+	 * {@link Vertex Vertices} and update the affine transformations and
+	 * passive {@link Vertex Vertices} of all {@link SpringMesh SpringMeshes}.
+	 */
+	public void writeBack()
+	{
+		for ( int i = 0; i < numActive; ++i )
+		{
+			final Vertex vertex = activeVertices[ i ];
+			System.arraycopy( w, N * i, vertex.getW(), 0, N );
+			System.arraycopy( directions, N * i, vertex.getDirection(), 0, N );
+			System.arraycopy( forces, N * i, vertex.getForces(), 0, N );
+			vertex.forceAmplitude = forceAmplitudes[ i ];
+			vertex.speed = speeds[ i ];
+		}
+		for ( int m = 0; m < meshes.length; ++m )
+		{
+			final SpringMesh mesh = meshes[ m ];
+			mesh.maxSpeed = meshMaxSpeeds[ m ];
+			mesh.updateAffines();
+			mesh.updatePassiveVertices();
+		}
+	}
+
+	/**
+	 * Optimize the system like
+	 * {@link SpringMesh#optimizeMeshes(Collection, double, int, int, double, boolean)}
+	 * and write the result back into the {@link SpringMesh SpringMeshes}.
+	 *
+	 * @param maxError do not accept convergence if error is &gt; max_error
+	 * @param maxIterations stop after that many iterations even if there was
+	 *   no minimum found
+	 * @param maxPlateauwidth convergence is reached if the average slope in
+	 *   an interval of this size is 0.0 (in double accuracy).
+	 * @param maxStepSize
+	 * @return the number of iterations
+	 */
+	public int optimize(
+			final double maxError,
+			final int maxIterations,
+			final int maxPlateauwidth,
+			final double maxStepSize )
+	{
+		final ErrorStatistic observer = new ErrorStatistic( maxPlateauwidth + 1 );
+
+		int i = 0;
+		boolean proceed = i < maxIterations;
+
+		/* initialize dt */
+		updateForces();
+		double dt = Math.min( 1000, maxStepSize / maxForce );
+		double dt1 = dt;
+
+		while ( proceed )
+		{
+			/* update force vectors */
+			updateForces();
+			observer.add( force / meshes.length );
+
+			/* adjust step size to maximum force vector */
+			double dt0 = Math.min( 1000, maxStepSize / maxForce );
+			dt = Math.min( dt0, ( dt1 + dt0 ) / 2.0 );
+
+			/* update motion vectors */
+			updateDirections( dt );
+
+			/* adjust step size to maximum motion vector */
+			dt0 = Math.min( dt0, maxStepSize / maxSpeed );
+			dt = Math.min( dt0, ( dt1 + dt0 ) / 2.0 );
+
+			dt1 = dt;
+
+			move( dt );
+
+			if ( i > maxPlateauwidth )
+			{
+				proceed = force > maxError;
+
+				int d = maxPlateauwidth;
+				while ( !proceed && d >= 1 )
+				{
+					try
+					{
+						proceed |= Math.abs( observer.getWideSlope( d ) ) > 0.0;
+					}
+					catch ( final Exception e ) { e.printStackTrace(); }
+					d /= 2;
+				}
+			}
+
+			proceed &= ++i < maxIterations;
+		}
+
+		writeBack();
+
+		return i;
+	}
+
+	/**
+	 * Potential energy of all {@link Spring Springs} at the current
+	 * positions and its gradient with respect to the positions of the active
+	 * {@link Vertex Vertices}.
+	 *
+	 * A {@link Spring} stores &frac12;&middot;weight&middot;d&sup2; with d
+	 * being its stretch.  Beyond its stretch limit, a {@link Spring} exerts
+	 * no force, i.e. its energy is constant.
+	 *
+	 * With passive reactions, passive {@link Vertex Vertices} are moved with
+	 * their triangles first, and a {@link Spring} that connects an active
+	 * with a passive {@link Vertex} pulls at both ends, the force on the
+	 * passive {@link Vertex} being distributed over the corners of its
+	 * triangle, see {@link Param#passiveReactions}.  Without, passive
+	 * {@link Vertex Vertices} are constant and the negative gradient equals
+	 * the forces of {@link #updateForces()}.
+	 *
+	 * @param gradient receives the interleaved gradient, its length is
+	 *   N times the number of active {@link Vertex Vertices}
+	 * @param passiveReactions
+	 * @return the energy
+	 */
+	public double energy( final double[] gradient, final boolean passiveReactions )
+	{
+		if ( passiveReactions )
+			movePassiveVertices();
+
+		final double[] passiveGradient = new double[ N * numPassive ];
+		Arrays.fill( gradient, 0 );
+
+		double energy = 0;
+		for ( int i = 0; i < numActive; ++i )
+		{
+			final int iw = N * i;
+			final double x = w[ iw ];
+			final double y = w[ iw + 1 ];
+			for ( int k = springStarts[ i ]; k < springStarts[ i + 1 ]; ++k )
+			{
+				final int j = springTargets[ k ];
+
+				/* springs between active vertices appear in both rows */
+				if ( j < i )
+					continue;
+
+				final int jw = N * j;
+				final double dx = w[ jw ] - x;
+				final double dy = w[ jw + 1 ] - y;
+				final double lw = Math.sqrt( dx * dx + dy * dy );
+				final double d = lw - springLengths[ k ];
+				final double maxStretch = springMaxStretches[ k ];
+				if ( Math.abs( d ) > maxStretch )
+				{
+					energy += 0.5 * springWeights[ k ] * maxStretch * maxStretch;
+					continue;
+				}
+				energy += 0.5 * springWeights[ k ] * d * d;
+				if ( lw == 0.0 )
+					continue;
+
+				final double gx = dx / lw * d * springWeights[ k ];
+				final double gy = dy / lw * d * springWeights[ k ];
+				gradient[ iw ] -= gx;
+				gradient[ iw + 1 ] -= gy;
+				if ( j < numActive )
+				{
+					gradient[ jw ] += gx;
+					gradient[ jw + 1 ] += gy;
+				}
+				else if ( passiveReactions && j < numActive + numPassive )
+				{
+					final int pw = jw - N * numActive;
+					passiveGradient[ pw ] += gx;
+					passiveGradient[ pw + 1 ] += gy;
+				}
+			}
+		}
+
+		for ( int p = 0; p < numPassive; ++p )
+		{
+			final int pw = N * p;
+			for ( int c = 0; c < 3; ++c )
+			{
+				final int cw = N * passiveCorners[ 3 * p + c ];
+				final double b = passiveWeights[ 3 * p + c ];
+				gradient[ cw ] += b * passiveGradient[ pw ];
+				gradient[ cw + 1 ] += b * passiveGradient[ pw + 1 ];
+			}
+		}
+
+		return energy;
+	}
+
+	/**
+	 * Set the forces of all active {@link Vertex Vertices} to the negative
+	 * gradient of the energy and update the average, minimal and maximal
+	 * force.
+	 *
+	 * @param gradient
+	 */
+	protected void updateForces( final double[] gradient )
+	{
+		force = 0;
+		minForce = Double.MAX_VALUE;
+		maxForce = 0;
+		for ( int m = 0; m < meshes.length; ++m )
+		{
+			double meshForce = 0;
+			for ( int i = meshStarts[ m ]; i < meshStarts[ m + 1 ]; ++i )
+			{
+				final int iw = N * i;
+				final double fx = -gradient[ iw ];
+				final double fy = -gradient[ iw + 1 ];
+				forces[ iw ] = fx;
+				forces[ iw + 1 ] = fy;
+				final double f = Math.sqrt( fx * fx + fy * fy );
+				forceAmplitudes[ i ] = f;
+				meshForce += f;
+				if ( f < minForce ) minForce = f;
+				if ( f > maxForce ) maxForce = f;
+			}
+			force += meshForce / ( meshStarts[ m + 1 ] - meshStarts[ m ] );
+		}
+	}
+
+	static private double dot( final double[] a, final double[] b )
+	{
+		double s = 0;
+		for ( int i = 0; i < a.length; ++i )
+			s += a[ i ] * b[ i ];
+		return s;
+	}
+
+	/**
+	 * Find the rest state of the system with limited memory BFGS and a
+	 * backtracking line search, and write the result back into the
+	 * {@link SpringMesh SpringMeshes}.  Other than explicit time stepping,
+	 * the step length is not limited by the stiffest {@link Spring}, so a
+	 * stiff system converges in far fewer iterations.  The
+	 * {@link Vertex Vertices} are at rest afterwards, i.e. their motion
+	 * vectors are zero.
+	 *
+	 * By default, the {@link #energy(double[], boolean) energy} is minimized
+	 * with constant passive {@link Vertex Vertices}, which are then moved
+	 * with their triangles, and this is repeated until the forces are
+	 * small enough.  The rest state is that of
+	 * {@link #optimize(double, int, int, double)}.  With
+	 * {@link Param#passiveReactions}, the energy of a different,
+	 * conservative system is minimized in one run, and its rest state
+	 * differs.
+	 *
+	 * BibTeX:
+	 * <pre>
+	 * &#64;article{LiuN89,
+	 *   author    = {Dong C. Liu and Jorge Nocedal},
+	 *   title     = {On the limited memory {BFGS} method for large scale optimization},
+	 *   journal   = {Mathematical Programming},
+	 *   volume    = {45},
+	 *   number    = {1--3},
+	 *   pages     = {503--528},
+	 *   year      = {1989},
+	 * }
+	 * </pre>
+	 *
+	 * @param param
+	 * @return the total number of L-BFGS iterations
+	 */
+	public int minimizeEnergy( final Param param )
+	{
+		int i;
+		if ( param.passiveReactions )
+			i = minimize( param, param.maxIterations, true );
+		else
+		{
+			/* alternate between minimizing with constant passive vertices and moving them */
+			i = 0;
+			movePassiveVertices();
+			updateForces();
+			while ( i < param.maxIterations && force > param.maxError )
+			{
+				final int numIterations = minimize( param, param.maxIterations - i, false );
+				i += numIterations;
+				movePassiveVertices();
+				updateForces();
+				if ( numIterations == 0 )
+					break;
+			}
+		}
+
+		Arrays.fill( directions, 0 );
+		Arrays.fill( speeds, 0 );
+
+		writeBack();
+
+		return i;
+	}
+
+	/**
+	 * Minimize the {@link #energy(double[], boolean) energy} with limited
+	 * memory BFGS.
+	 *
+	 * @param param
+	 * @param maxIterations
+	 * @param passiveReactions
+	 * @return the number of iterations
+	 */
+	protected int minimize( final Param param, final int maxIterations, final boolean passiveReactions )
+	{
+		final int n = N * numActive;
+		final int m = Math.max( 1, param.numCorrections );
+		final double[][] s = new double[ m ][ n ];
+		final double[][] y = new double[ m ][ n ];
+		final double[] rho = new double[ m ];
+		final double[] alpha = new double[ m ];
+		int numPairs = 0;
+		int newest = -1;
+
+		final double[] gradient = new double[ n ];
+		final double[] previousGradient = new double[ n ];
+		final double[] previousW = new double[ n ];
+		final double[] q = new double[ n ];
+		final double[] sk = new double[ n ];
+		final double[] yk = new double[ n ];
+
+		double energy = energy( gradient, passiveReactions );
+		updateForces( gradient );
+
+		int i = 0;
+		while ( i < maxIterations && force > param.maxError )
+		{
+			/* two-loop recursion, q = -H * gradient */
+			System.arraycopy( gradient, 0, q, 0, n );
+			for ( int k = 0, l = newest; k < numPairs; ++k, l = ( l + m - 1 ) % m )
+			{
+				alpha[ l ] = rho[ l ] * dot( s[ l ], q );
+				for ( int j = 0; j < n; ++j )
+					q[ j ] -= alpha[ l ] * y[ l ][ j ];
+			}
+			if ( numPairs > 0 )
+			{
+				final double gamma = dot( s[ newest ], y[ newest ] ) / dot( y[ newest ], y[ newest ] );
+				for ( int j = 0; j < n; ++j )
+					q[ j ] *= gamma;
+			}
+			for ( int k = 0, l = ( newest - numPairs + 1 + m ) % m; k < numPairs; ++k, l = ( l + 1 ) % m )
+			{
+				final double beta = rho[ l ] * dot( y[ l ], q );
+				for ( int j = 0; j < n; ++j )
+					q[ j ] += ( alpha[ l ] - beta ) * s[ l ][ j ];
+			}
+			for ( int j = 0; j < n; ++j )
+				q[ j ] = -q[ j ];
+
+			double slope = dot( gradient, q );
+			if ( !( slope < 0 ) )
+			{
+				/* not a descent direction, restart with steepest descent */
+				numPairs = 0;
+				for ( int j = 0; j < n; ++j )
+					q[ j ] = -gradient[ j ];
+				slope = dot( gradient, q );
+			}
+
+			/* limit the displacement of each vertex */
+			double maxDisplacement = 0;
+			for ( int j = 0; j < n; j += N )
+				maxDisplacement = Math.max( maxDisplacement, Math.sqrt( q[ j ] * q[ j ] + q[ j + 1 ] * q[ j + 1 ] ) );
+			double step = Math.min( 1.0, param.maxStepSize / maxDisplacement );
+
+			/* backtracking line search with Armijo condition */
+			System.arraycopy( w, 0, previousW, 0, n );
+			System.arraycopy( gradient, 0, previousGradient, 0, n );
+			final double previousEnergy = energy;
+			boolean accepted = false;
+			for ( int t = 0; t < 60 && !accepted; ++t, step *= 0.5 )
+			{
+				for ( int j = 0; j < n; ++j )
+					w[ j ] = previousW[ j ] + step * q[ j ];
+				energy = energy( gradient, passiveReactions );
+				accepted = energy <= previousEnergy + 1.0e-4 * step * slope;
+			}
+			++i;
+
+			if ( !accepted )
+			{
+				System.arraycopy( previousW, 0, w, 0, n );
+				energy = energy( gradient, passiveReactions );
+				break;
+			}
+
+			updateForces( gradient );
+
+			/* update the curvature pairs */
+			for ( int j = 0; j < n; ++j )
+			{
+				sk[ j ] = w[ j ] - previousW[ j ];
+				yk[ j ] = gradient[ j ] - previousGradient[ j ];
+			}
+			final double sy = dot( sk, yk );
+			if ( sy > 1.0e-10 * Math.sqrt( dot( sk, sk ) * dot( yk, yk ) ) )
+			{
+				newest = ( newest + 1 ) % m;
+				System.arraycopy( sk, 0, s[ newest ], 0, n );
+				System.arraycopy( yk, 0, y[ newest ], 0, n );
+				rho[ newest ] = 1.0 / sy;
+				numPairs = Math.min( numPairs + 1, m );
+			}
+
+			if ( previousEnergy - energy <= param.minEnergyChange * Math.abs( previousEnergy ) )
+				break;
+		}
+
+		updateForces( gradient );
+
+		return i;
+	}
+}
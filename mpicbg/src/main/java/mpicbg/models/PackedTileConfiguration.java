@@ -0,0 +1,697 @@
+/*-
+ * #%L
+ * MPICBG Core Library.
+ * %%
+ * Copyright (C) 2008 - 2025 Stephan Saalfeld et. al.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package mpicbg.models;
+
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * A frozen {@link TileConfiguration} compiled into primitive arrays.
+ *
+ * The connectivity graph is stored as compressed sparse rows of
+ * {@link Tile} indices.  The {@link PointMatch PointMatches} of each
+ * {@link Tile} are packed into {@link PackedPointMatches} whose p are the
+ * local coordinates of its points and whose q are the world coordinates of
+ * their partner points.  These q are the only copy of the world
+ * coordinates:  the world coordinates of a point are the q of its mirrored
+ * match in the connected {@link Tile}, and applying a {@link Tile Tile's}
+ * model writes them there directly.  Only points without a mirrored match
+ * keep their world coordinates in a separate array.  Fitting, applying and
+ * error estimation thus iterate over contiguous arrays instead of hash
+ * sets of {@link PointMatch} and {@link Point} objects.
+ *
+ * The arrays of a 2d match take 56 bytes while the {@link PointMatch},
+ * its {@link Point} and its entry in the match set of a {@link Tile} take
+ * about 200 bytes.
+ * The compiled configuration refers to the models of the
+ * {@link Tile Tiles}, but not to the {@link Tile Tiles}, their
+ * {@link PointMatch PointMatches} or {@link Point Points}.  Release those
+ * after compiling to actually save memory, or compile directly from
+ * {@link PackedPointMatches} with
+ * {@link #PackedTileConfiguration(Model[], boolean[], int[], int[], PackedPointMatches[])}.
+ * The optimized models are the models that were compiled, and nothing
+ * needs to be written back.  Each {@link Point} is expected to be the
+ * {@link PointMatch#getP2() p2} of at most one match, as with
+ * {@link Tile#connect(Tile, Collection)}.
+ * {@link Tile Tiles} are numbered in reverse Cuthill-McKee order
+ * \cite{CuthillM69}, i.e. breadth first, such that connected
+ * {@link Tile Tiles} are close in memory.
+ *
+ * After optimization, call {@link Tile#apply()} or {@link Tile#update()}
+ * if the world coordinates of the original {@link Point Points} are
+ * needed.
+ *
+ * BibTeX:
+ * <pre>
+ * &#64;inproceedings{CuthillM69,
+ *   author    = {E. Cuthill and J. McKee},
+ *   title     = {Reducing the Bandwidth of Sparse Symmetric Matrices},
+ *   booktitle = {Proceedings of the 24th National Conference of the ACM},
+ *   year      = {1969},
+ *   pages     = {157--172},
+ * }
+ * </pre>
+ */
+public class PackedTileConfiguration implements Serializable
+{
+	private static final long serialVersionUID = 2818146498342826336L;
+
+	final protected int numDimensions;
+
+	final protected Model< ? >[] models;
+	final protected boolean[] fixed;
+
+	/* connected tiles, compressed sparse rows */
+	final protected int[] neighbourStarts;
+	final protected int[] neighbours;
+
+	/* packed matches per tile, q are the world coordinates of the partner points */
+	final protected PackedPointMatches[] matches;
+
+	/* global match index = matchStarts[ tile ] + local index */
+	final protected int[] matchStarts;
+
+	/* the world coordinates of the point of a match are the q of the
+	 * mirrored match, i.e. of local match mirrors[ g ] of tile
+	 * partners[ g ], or orphans[ mirrors[ g ] ] if partners[ g ] is -1 */
+	final protected int[] partners;
+	final protected int[] mirrors;
+	final protected double[][] orphans;
+
+	/* strengths of all matches by global match index */
+	final protected double[] strengths;
+
+	/* average displacement per tile */
+	final protected double[] distances;
+
+	protected double minError = Double.MAX_VALUE;
+	final public double getMinError() {	return minError; }
+
+	protected double maxError = 0.0;
+	final public double getMaxError() { return maxError; }
+
+	protected double error = Double.MAX_VALUE;
+	final public double getError() { return error; }
+
+	/**
+	 * Compile a set of {@link Tile Tiles}.  The world coordinates are
+	 * copied from the {@link Point Points}.
+	 *
+	 * @param tileSet
+	 * @param fixedTiles
+	 */
+	public PackedTileConfiguration( final Collection< ? extends Tile< ? > > tileSet, final Set< ? extends Tile< ? > > fixedTiles )
+	{
+		final Tile< ? >[] input = tileSet.toArray( new Tile< ? >[ tileSet.size() ] );
+		final int numTiles = input.length;
+
+		final HashMap< Tile< ? >, Integer > indices = new HashMap< Tile< ? >, Integer >();
+		for ( int i = 0; i < numTiles; ++i )
+			indices.put( input[ i ], i );
+
+		/* connectivity in input order */
+		final int[] inputStarts = new int[ numTiles + 1 ];
+		final ArrayList< Integer > inputNeighbourList = new ArrayList< Integer >();
+		for ( int i = 0; i < numTiles; ++i )
+		{
+			for ( final Tile< ? > o : input[ i ].getConnectedTiles() )
+			{
+				final Integer j = indices.get( o );
+				if ( j != null )
+					inputNeighbourList.add( j );
+			}
+			inputStarts[ i + 1 ] = inputNeighbourList.size();
+		}
+		final int[] inputNeighbours = new int[ inputNeighbourList.size() ];
+		for ( int k = 0; k < inputNeighbours.length; ++k )
+			inputNeighbours[ k ] = inputNeighbourList.get( k );
+
+		final int[] order = order( inputStarts, inputNeighbours );
+		final int[][] rows = relabel( inputStarts, inputNeighbours, order );
+		neighbourStarts = rows[ 0 ];
+		neighbours = rows[ 1 ];
+
+		models = new Model< ? >[ numTiles ];
+		fixed = new boolean[ numTiles ];
+		matchStarts = new int[ numTiles + 1 ];
+		for ( int i = 0; i < numTiles; ++i )
+		{
+			final Tile< ? > t = input[ order[ i ] ];
+			models[ i ] = t.getModel();
+			fixed[ i ] = fixedTiles.contains( t );
+			matchStarts[ i + 1 ] = matchStarts[ i ] + t.getMatches().size();
+		}
+
+		/* number the matches by the point whose world coordinates are their q */
+		final IdentityHashMap< Point, Integer > pointMatches = new IdentityHashMap< Point, Integer >();
+		int n = 0;
+		for ( int i = 0; i < numTiles; ++i )
+		{
+			int g = matchStarts[ i ];
+			for ( final PointMatch m : input[ order[ i ] ].getMatches() )
+			{
+				pointMatches.put( m.getP2(), g++ );
+				if ( n == 0 )
+					n = m.getP1().getL().length;
+			}
+		}
+		numDimensions = n;
+
+		final int numMatches = matchStarts[ numTiles ];
+		partners = new int[ numMatches ];
+		mirrors = new int[ numMatches ];
+		strengths = new double[ numMatches ];
+		matches = new PackedPointMatches[ numTiles ];
+		distances = new double[ numTiles ];
+		final ArrayList< double[] > orphanList = new ArrayList< double[] >();
+		for ( int i = 0; i < numTiles; ++i )
+		{
+			final int start = matchStarts[ i ];
+			final PackedPointMatches packed = new PackedPointMatches( numDimensions, matchStarts[ i + 1 ] - start );
+			int g = start;
+			for ( final PointMatch m : input[ order[ i ] ].getMatches() )
+			{
+				packed.set( g - start, m );
+				strengths[ g ] = m.getStrength();
+				final Integer mirror = pointMatches.get( m.getP1() );
+				if ( mirror == null )
+				{
+					partners[ g ] = -1;
+					mirrors[ g ] = orphanList.size();
+					orphanList.add( m.getP1().getW() );
+				}
+				else
+				{
+					partners[ g ] = tileOf( mirror );
+					mirrors[ g ] = mirror - matchStarts[ partners[ g ] ];
+				}
+				++g;
+			}
+			matches[ i ] = packed;
+		}
+
+		orphans = new double[ numDimensions ][ orphanList.size() ];
+		for ( int k = 0; k < orphanList.size(); ++k )
+			for ( int d = 0; d < numDimensions; ++d )
+				orphans[ d ][ k ] = orphanList.get( k )[ d ];
+	}
+
+	public PackedTileConfiguration( final TileConfiguration tileConfiguration )
+	{
+		this( tileConfiguration.getTiles(), tileConfiguration.getFixedTiles() );
+	}
+
+	/**
+	 * Compile connected models from {@link PackedPointMatches} without
+	 * {@link Tile}, {@link PointMatch} or {@link Point} objects.  The k-th
+	 * connection links models[ a[ k ] ] and models[ b[ k ] ] by
+	 * connections[ k ], whose p are local coordinates of the first and q
+	 * local coordinates of the second model, like
+	 * {@link Tile#connect(Tile, Collection)} with matches of strength 1.
+	 * The world coordinates are initialized by the current models.
+	 *
+	 * @param models
+	 * @param fixed fixed[ i ] is true if models[ i ] is fixed
+	 * @param a
+	 * @param b
+	 * @param connections
+	 */
+	public PackedTileConfiguration(
+			final Model< ? >[] models,
+			final boolean[] fixed,
+			final int[] a,
+			final int[] b,
+			final PackedPointMatches[] connections )
+	{
+		final int numTiles = models.length;
+
+		/* connectivity in input order */
+		final int[] inputStarts = new int[ numTiles + 1 ];
+		for ( int k = 0; k < connections.length; ++k )
+		{
+			++inputStarts[ a[ k ] + 1 ];
+			++inputStarts[ b[ k ] + 1 ];
+		}
+		for ( int i = 0; i < numTiles; ++i )
+			inputStarts[ i + 1 ] += inputStarts[ i ];
+		final int[] inputNeighbours = new int[ inputStarts[ numTiles ] ];
+		final int[] fill = new int[ numTiles ];
+		for ( int k = 0; k < connections.length; ++k )
+		{
+			inputNeighbours[ inputStarts[ a[ k ] ] + fill[ a[ k ] ]++ ] = b[ k ];
+			inputNeighbours[ inputStarts[ b[ k ] ] + fill[ b[ k ] ]++ ] = a[ k ];
+		}
+
+		final int[] order = order( inputStarts, inputNeighbours );
+		final int[][] rows = relabel( inputStarts, inputNeighbours, order );
+		neighbourStarts = rows[ 0 ];
+		neighbours = rows[ 1 ];
+
+		final int[] rank = new int[ numTiles ];
+		for ( int i = 0; i < numTiles; ++i )
+			rank[ order[ i ] ] = i;
+
+		this.models = new Model< ? >[ numTiles ];
+		this.fixed = new boolean[ numTiles ];
+		for ( int i = 0; i < numTiles; ++i )
+		{
+			this.models[ i ] = models[ order[ i ] ];
+			this.fixed[ i ] = fixed[ order[ i ] ];
+		}
+
+		numDimensions = connections.length == 0 ? 0 : connections[ 0 ].numDimensions();
+		matchStarts = new int[ numTiles + 1 ];
+		for ( int k = 0; k < connections.length; ++k )
+		{
+			matchStarts[ rank[ a[ k ] ] + 1 ] += connections[ k ].size();
+			matchStarts[ rank[ b[ k ] ] + 1 ] += connections[ k ].size();
+		}
+		for ( int i = 0; i < numTiles; ++i )
+			matchStarts[ i + 1 ] += matchStarts[ i ];
+
+		final int numMatches = matchStarts[ numTiles ];
+		partners = new int[ numMatches ];
+		mirrors = new int[ numMatches ];
+		strengths = new double[ numMatches ];
+		Arrays.fill( strengths, 1.0 );
+		orphans = new double[ numDimensions ][ 0 ];
+		distances = new double[ numTiles ];
+		matches = new PackedPointMatches[ numTiles ];
+		for ( int i = 0; i < numTiles; ++i )
+			matches[ i ] = new PackedPointMatches( numDimensions, matchStarts[ i + 1 ] - matchStarts[ i ] );
+
+		Arrays.fill( fill, 0 );
+		for ( int k = 0; k < connections.length; ++k )
+		{
+			final int i = rank[ a[ k ] ];
+			final int j = rank[ b[ k ] ];
+			final double[][] p = connections[ k ].getP();
+			final double[][] q = connections[ k ].getQ();
+			final double[] w = connections[ k ].getW();
+			final double[][] pi = matches[ i ].getP();
+			final double[][] pj = matches[ j ].getP();
+			for ( int l = 0; l < w.length; ++l )
+			{
+				final int ki = fill[ i ]++;
+				final int kj = fill[ j ]++;
+				for ( int d = 0; d < numDimensions; ++d )
+				{
+					pi[ d ][ ki ] = p[ d ][ l ];
+					pj[ d ][ kj ] = q[ d ][ l ];
+				}
+				matches[ i ].getW()[ ki ] = w[ l ];
+				matches[ j ].getW()[ kj ] = w[ l ];
+				partners[ matchStarts[ i ] + ki ] = j;
+				mirrors[ matchStarts[ i ] + ki ] = kj;
+				partners[ matchStarts[ j ] + kj ] = i;
+				mirrors[ matchStarts[ j ] + kj ] = ki;
+			}
+		}
+
+		apply();
+	}
+
+	/**
+	 * Order the nodes of a graph given as compressed sparse rows breadth
+	 * first starting each connected component at a node of minimal degree
+	 * and visiting neighbours by increasing degree, then reverse.
+	 *
+	 * @return the node indices in reverse Cuthill-McKee order
+	 */
+	static protected int[] order( final int[] starts, final int[] neighbours )
+	{
+		final int numNodes = starts.length - 1;
+		final Integer[] sorted = new Integer[ numNodes ];
+		for ( int i = 0; i < numNodes; ++i )
+			sorted[ i ] = i;
+		final Comparator< Integer > byDegree = ( x, y ) -> Integer.compare( starts[ x + 1 ] - starts[ x ], starts[ y + 1 ] - starts[ y ] );
+		Arrays.sort( sorted, byDegree );
+
+		final boolean[] visited = new boolean[ numNodes ];
+		final int[] ordered = new int[ numNodes ];
+		final ArrayDeque< Integer > queue = new ArrayDeque< Integer >();
+		final ArrayList< Integer > next = new ArrayList< Integer >();
+		int n = 0;
+		for ( final int seed : sorted )
+		{
+			if ( visited[ seed ] )
+				continue;
+			visited[ seed ] = true;
+			queue.add( seed );
+			while ( !queue.isEmpty() )
+			{
+				final int t = queue.poll();
+				ordered[ n++ ] = t;
+				next.clear();
+				for ( int k = starts[ t ]; k < starts[ t + 1 ]; ++k )
+				{
+					final int o = neighbours[ k ];
+					if ( !visited[ o ] )
+					{
+						visited[ o ] = true;
+						next.add( o );
+					}
+				}
+				next.sort( byDegree );
+				queue.addAll( next );
+			}
+		}
+
+		for ( int i = 0, j = n - 1; i < j; ++i, --j )
+		{
+			final int t = ordered[ i ];
+			ordered[ i ] = ordered[ j ];
+			ordered[ j ] = t;
+		}
+		return ordered;
+	}
+
+	/**
+	 * Renumber a graph given as compressed sparse rows such that node
+	 * order[ i ] becomes node i.  Neighbours are sorted, duplicates and
+	 * self connections removed.
+	 *
+	 * @return { starts, neighbours }
+	 */
+	static protected int[][] relabel( final int[] starts, final int[] neighbours, final int[] order )
+	{
+		final int numNodes = order.length;
+		final int[] rank = new int[ numNodes ];
+		for ( int i = 0; i < numNodes; ++i )
+			rank[ order[ i ] ] = i;
+
+		final int[] newStarts = new int[ numNodes + 1 ];
+		final int[] newNeighbours = new int[ neighbours.length ];
+		int n = 0;
+		for ( int i = 0; i < numNodes; ++i )
+		{
+			final int o = order[ i ];
+			final int start = n;
+			for ( int k = starts[ o ]; k < starts[ o + 1 ]; ++k )
+				newNeighbours[ n++ ] = rank[ neighbours[ k ] ];
+			Arrays.sort( newNeighbours, start, n );
+			int m = start;
+			for ( int k = start; k < n; ++k )
+				if ( newNeighbours[ k ] != i && ( m == start || newNeighbours[ k ] != newNeighbours[ m - 1 ] ) )
+					newNeighbours[ m++ ] = newNeighbours[ k ];
+			n = m;
+			newStarts[ i + 1 ] = n;
+		}
+		return new int[][]{ newStarts, Arrays.copyOf( newNeighbours, n ) };
+	}
+
+	/**
+	 * @param k global match index
+	 * @return index of the {@link Tile} that owns the match
+	 */
+	final protected int tileOf( final int k )
+	{
+		final int i = Arrays.binarySearch( matchStarts, k );
+		if ( i >= 0 )
+		{
+			/* skip tiles without matches */
+			int j = i;
+			while ( matchStarts[ j + 1 ] == k )
+				++j;
+			return j;
+		}
+		return -i - 2;
+	}
+
+	public int getNumDimensions(){ return numDimensions; }
+	public int getNumTiles(){ return models.length; }
+	public int getNumMatches(){ return partners.length; }
+
+	/**
+	 * @param i
+	 * @return the model of the i-th {@link Tile}
+	 */
+	public Model< ? > getModel( final int i ){ return models[ i ]; }
+
+	/**
+	 * @param i
+	 * @return the packed matches of the i-th {@link Tile}
+	 */
+	public PackedPointMatches getMatches( final int i ){ return matches[ i ]; }
+
+	/**
+	 * @param i
+	 * @return index of the first neighbour of the i-th {@link Tile} in
+	 *   {@link #getNeighbours()}, the last is at getNeighbourStarts()[ i + 1 ] - 1
+	 */
+	public int[] getNeighbourStarts(){ return neighbourStarts; }
+	public int[] getNeighbours(){ return neighbours; }
+
+	/**
+	 * Apply the model of the i-th {@link Tile} to its points by a given
+	 * amount like {@link Tile#apply(double)}, i.e. scaled by the strength of
+	 * each match, and update the world coordinates of these points in the
+	 * matches of its neighbours.
+	 *
+	 * @param i
+	 * @param amount 1.0 sets the new world coordinates, smaller values
+	 *   interpolate between the old and the new world coordinates
+	 * @param buffer [numDimensions][&gt;= number of matches]
+	 */
+	protected void apply( final int i, final double amount, final double[][] buffer )
+	{
+		transform( i, buffer );
+		final int start = matchStarts[ i ];
+		final int size = matches[ i ].size();
+		for ( int k = 0; k < size; ++k )
+		{
+			final int g = start + k;
+			final double s = strengths[ g ] * amount;
+			final double[][] world = world( g );
+			final int l = mirrors[ g ];
+			for ( int d = 0; d < numDimensions; ++d )
+				world[ d ][ l ] += s * ( buffer[ d ][ k ] - world[ d ][ l ] );
+		}
+	}
+
+	/**
+	 * Apply the model of the i-th {@link Tile} to its points like
+	 * {@link Tile#apply()} and update the world coordinates of these points
+	 * in the matches of its neighbours.
+	 *
+	 * @param i
+	 * @param buffer [numDimensions][&gt;= number of matches]
+	 */
+	protected void apply( final int i, final double[][] buffer )
+	{
+		transform( i, buffer );
+		final int start = matchStarts[ i ];
+		final int size = matches[ i ].size();
+		for ( int k = 0; k < size; ++k )
+		{
+			final int g = start + k;
+			final double[][] world = world( g );
+			final int l = mirrors[ g ];
+			for ( int d = 0; d < numDimensions; ++d )
+				world[ d ][ l ] = buffer[ d ][ k ];
+		}
+	}
+
+	/**
+	 * Transfer the local coordinates of the i-th {@link Tile Tile's} points
+	 * into buffer.
+	 */
+	final protected void transform( final int i, final double[][] buffer )
+	{
+		final double[][] p = matches[ i ].getP();
+		final int size = matches[ i ].size();
+		for ( int d = 0; d < numDimensions; ++d )
+			System.arraycopy( p[ d ], 0, buffer[ d ], 0, size );
+		models[ i ].applyInPlace( buffer, 0, size );
+	}
+
+	/**
+	 * @param g global match index
+	 * @return the array that holds the world coordinates of the point of
+	 *   match g at index mirrors[ g ]
+	 */
+	final protected double[][] world( final int g )
+	{
+		final int j = partners[ g ];
+		return j < 0 ? orphans : matches[ j ].getQ();
+	}
+
+	/**
+	 * Apply the model of each {@link Tile}.
+	 */
+	public void apply()
+	{
+		final double[][] buffer = createBuffer();
+		for ( int i = 0; i < models.length; ++i )
+			apply( i, buffer );
+	}
+
+	protected double[][] createBuffer()
+	{
+		int maxSize = 0;
+		for ( final PackedPointMatches m : matches )
+			maxSize = Math.max( maxSize, m.size() );
+		return new double[ numDimensions ][ maxSize ];
+	}
+
+	/**
+	 * Fit the model of the i-th {@link Tile} to its matches.
+	 *
+	 * @param i
+	 */
+	public void fit( final int i ) throws NotEnoughDataPointsException, IllDefinedDataPointsException
+	{
+		final PackedPointMatches m = matches[ i ];
+		models[ i ].fit( m.getP(), m.getQ(), m.getW() );
+	}
+
+	/**
+	 * Update the average displacement and the cost of the i-th
+	 * {@link Tile} from the current world coordinates of its points and
+	 * their partners, see {@link Tile#updateCost()}.
+	 *
+	 * @param i
+	 */
+	protected void updateCost( final int i )
+	{
+		final PackedPointMatches m = matches[ i ];
+		final int size = m.size();
+		double d = 0.0;
+		double c = 0.0;
+		if ( size > 0 )
+		{
+			final int start = matchStarts[ i ];
+			final double[][] q = m.getQ();
+			final double[] w = m.getW();
+			double sumWeight = 0.0;
+			for ( int k = 0; k < size; ++k )
+			{
+				final double[][] world = world( start + k );
+				final int j = mirrors[ start + k ];
+				double dd = 0;
+				for ( int l = 0; l < numDimensions; ++l )
+				{
+					final double dl = world[ l ][ j ] - q[ l ][ k ];
+					dd += dl * dl;
+				}
+				final double dl = Math.sqrt( dd );
+				d += dl;
+				c += dl * dl * w[ k ];
+				sumWeight += w[ k ];
+			}
+			d /= size;
+			c /= sumWeight;
+		}
+		distances[ i ] = d;
+		models[ i ].setCost( c );
+	}
+
+	/**
+	 * Estimate min/max/average displacement of all matches of all
+	 * {@link Tile Tiles}.
+	 */
+	public void updateErrors()
+	{
+		double cd = 0.0;
+		minError = Double.MAX_VALUE;
+		maxError = 0.0;
+		for ( int i = 0; i < models.length; ++i )
+		{
+			updateCost( i );
+			final double d = distances[ i ];
+			if ( d < minError ) minError = d;
+			if ( d > maxError ) maxError = d;
+			cd += d;
+		}
+		error = cd / models.length;
+	}
+
+	/**
+	 * Minimize the displacement of all matches of all {@link Tile Tiles}
+	 * like {@link TileConfiguration#optimizeSilently}.  Each iteration
+	 * applies the same damped and strength scaled update and measures the
+	 * error on the same world coordinates, but visits the
+	 * {@link Tile Tiles} in reverse Cuthill-McKee order, so intermediate
+	 * configurations and the number of iterations differ slightly.
+	 *
+	 * @param observer
+	 * @param maxAllowedError do not accept convergence if error is &gt; max_error
+	 * @param maxIterations stop after that many iterations even if there was
+	 *   no minimum found
+	 * @param maxPlateauwidth convergence is reached if the average absolute
+	 *   slope in an interval of this size and half this size is smaller than
+	 *   0.0001 (in double accuracy).
+	 * @param damp
+	 */
+	public void optimizeSilently(
+			final ErrorStatistic observer,
+			final double maxAllowedError,
+			final int maxIterations,
+			final int maxPlateauwidth,
+			final double damp ) throws NotEnoughDataPointsException, IllDefinedDataPointsException
+	{
+		int i = 0;
+
+		boolean proceed = i < maxIterations;
+
+		/* initialize the configuration with the current model of each tile */
+		apply();
+
+		final double[][] buffer = createBuffer();
+		while ( proceed )
+		{
+			for ( int t = 0; t < models.length; ++t )
+			{
+				if ( fixed[ t ] ) continue;
+				fit( t );
+				apply( t, damp, buffer );
+			}
+			updateErrors();
+			observer.add( error );
+
+			if ( i > maxPlateauwidth )
+			{
+				proceed = error > maxAllowedError;
+
+				int d = maxPlateauwidth;
+				while ( !proceed && d >= 1 )
+				{
+					try
+					{
+						proceed |= Math.abs( observer.getWideSlope( d ) ) > 0.0001;
+					}
+					catch ( final Exception e ) { e.printStackTrace(); }
+					d /= 2;
+				}
+			}
+
+			proceed &= ++i < maxIterations;
+		}
+	}
+}
@@ -54,6 +54,7 @@ public class PointMatch implements Serializable
 	private static final long serialVersionUID = -3943684962223800732L;
 
 	protected double strength = 1.0f;
+	public double getStrength() { return strength; }
 
 	final protected Point p1;
 	public Point getP1() { return p1; }
@@ -166,6 +167,16 @@ public class PointMatch implements Serializable
 	}
 
 
+	/**
+	 * Quality of the correspondence, e.g. derived from the descriptor
+	 * distance ratio of a feature match.  Larger is better.  Used to rank
+	 * candidates for guided sampling in
+	 * {@link AbstractModel#ransac(java.util.List, Collection, int, double, double, int, AbstractModel.RansacParam) RANSAC}.
+	 */
+	protected double quality = 0;
+	public double getQuality(){ return quality; }
+	public void setQuality( final double quality ){ this.quality = quality; }
+
 	public double getDistance(){ return Point.distance( p1, p2 ); }
 
 	/**
@@ -329,8 +340,8 @@ public class PointMatch implements Serializable
 	/**
 	 * Flip all {@link PointMatch PointMatches} from
 	 * {@linkplain Collection matches} symmetrically and fill
-	 * {@linkplain Collection flippedMatches} with them, weights remain
-	 * unchanged.
+	 * {@linkplain Collection flippedMatches} with them, weights and quality
+	 * remain unchanged.
 	 *
 	 * @param matches original set
 	 * @param flippedMatches result set
@@ -340,15 +351,19 @@ public class PointMatch implements Serializable
 			final Collection< PointMatch > flippedMatches )
 	{
 		for ( final PointMatch match : matches )
-			flippedMatches.add(
+		{
+			final PointMatch flippedMatch =
 					new PointMatch(
 							match.p2,
 							match.p1,
-							match.weights ) );
+							match.weights );
+			flippedMatch.quality = match.quality;
+			flippedMatches.add( flippedMatch );
+		}
 	}
 
 	/**
-	 * Flip symmetrically, weights remains unchanged.
+	 * Flip symmetrically, weights and quality remain unchanged.
 	 *
 	 * @param matches
 	 * @return
@@ -0,0 +1,227 @@
+/*-
+ * #%L
+ * MPICBG Core Library.
+ * %%
+ * Copyright (C) 2008 - 2025 Stephan Saalfeld et. al.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package mpicbg.models;
+
+import java.io.Serializable;
+import java.util.Collection;
+
+/**
+ * Weighted first and second order moments of a set of
+ * {@link PointMatch PointMatches}, sufficient to fit affine models and their
+ * constrained variants by weighted least squares.  Matches can be added and
+ * removed in constant time such that a
+ * {@link MomentsFittable} model can be refitted after small changes of the
+ * set without iterating over all matches.
+ *
+ * All coordinates are accumulated relative to the first match added, which
+ * keeps the centered second moments accurate for large coordinates.
+ */
+public class PointMatchMoments implements Serializable
+{
+	private static final long serialVersionUID = 2931578270441926154L;
+
+	final protected int n;
+
+	/* reference coordinates */
+	final protected double[] pr, qr;
+	protected boolean hasReference = false;
+
+	protected int size = 0;
+	protected double ws = 0;
+
+	/* sum w * p, sum w * q */
+	final protected double[] sp, sq;
+
+	/* sum w * p * p^T, sum w * p * q^T, sum w * q * q^T, row major */
+	final protected double[] spp, spq, sqq;
+
+	public PointMatchMoments( final int numDimensions )
+	{
+		n = numDimensions;
+		pr = new double[ n ];
+		qr = new double[ n ];
+		sp = new double[ n ];
+		sq = new double[ n ];
+		spp = new double[ n * n ];
+		spq = new double[ n * n ];
+		sqq = new double[ n * n ];
+	}
+
+	/**
+	 * Create {@link PointMatchMoments} of matches, all matches must have the
+	 * same dimensionality.
+	 *
+	 * @param matches at least one
+	 */
+	public PointMatchMoments( final Collection< ? extends PointMatch > matches )
+	{
+		this( matches.iterator().next().getP1().getL().length );
+		addAll( matches );
+	}
+
+	public int numDimensions(){ return n; }
+
+	/**
+	 * @return number of matches
+	 */
+	public int size(){ return size; }
+
+	public double getWeightSum(){ return ws; }
+
+	final private void update( final double[] p, final double[] q, final double w )
+	{
+		if ( !hasReference )
+		{
+			System.arraycopy( p, 0, pr, 0, n );
+			System.arraycopy( q, 0, qr, 0, n );
+			hasReference = true;
+		}
+
+		ws += w;
+		for ( int i = 0; i < n; ++i )
+		{
+			final double pi = p[ i ] - pr[ i ];
+			final double qi = q[ i ] - qr[ i ];
+			sp[ i ] += w * pi;
+			sq[ i ] += w * qi;
+			final int k = i * n;
+			for ( int j = 0; j < n; ++j )
+			{
+				final double pj = p[ j ] - pr[ j ];
+				final double qj = q[ j ] - qr[ j ];
+				spp[ k + j ] += w * pi * pj;
+				spq[ k + j ] += w * pi * qj;
+				sqq[ k + j ] += w * qi * qj;
+			}
+		}
+	}
+
+	/**
+	 * Add a match.
+	 *
+	 * @param p local coordinates of p1
+	 * @param q world coordinates of p2
+	 * @param w weight
+	 */
+	public void add( final double[] p, final double[] q, final double w )
+	{
+		update( p, q, w );
+		++size;
+	}
+
+	/**
+	 * Remove a match that was added before with the same coordinates and
+	 * weight.
+	 *
+	 * @param p local coordinates of p1
+	 * @param q world coordinates of p2
+	 * @param w weight
+	 */
+	public void remove( final double[] p, final double[] q, final double w )
+	{
+		update( p, q, -w );
+		--size;
+	}
+
+	public void add( final PointMatch match )
+	{
+		add( match.getP1().getL(), match.getP2().getW(), match.getWeight() );
+	}
+
+	public void remove( final PointMatch match )
+	{
+		remove( match.getP1().getL(), match.getP2().getW(), match.getWeight() );
+	}
+
+	public void addAll( final Collection< ? extends PointMatch > matches )
+	{
+		for ( final PointMatch match : matches )
+			add( match );
+	}
+
+	public void removeAll( final Collection< ? extends PointMatch > matches )
+	{
+		for ( final PointMatch match : matches )
+			remove( match );
+	}
+
+	public void clear()
+	{
+		hasReference = false;
+		size = 0;
+		ws = 0;
+		for ( int i = 0; i < n; ++i )
+		{
+			sp[ i ] = 0;
+			sq[ i ] = 0;
+		}
+		for ( int i = 0; i < spp.length; ++i )
+		{
+			spp[ i ] = 0;
+			spq[ i ] = 0;
+			sqq[ i ] = 0;
+		}
+	}
+
+	/**
+	 * Get the weighted centers of mass of the local coordinates of p1 and
+	 * the world coordinates of p2.
+	 *
+	 * @param pc
+	 * @param qc
+	 */
+	public void getCenters( final double[] pc, final double[] qc )
+	{
+		for ( int i = 0; i < n; ++i )
+		{
+			pc[ i ] = pr[ i ] + sp[ i ] / ws;
+			qc[ i ] = qr[ i ] + sq[ i ] / ws;
+		}
+	}
+
+	/**
+	 * Get the weighted second moments of the centered coordinates in row
+	 * major order, that is for p = p1 local - pc and q = p2 world - qc
+	 * <pre>
+	 * pp[ i * n + j ] = sum w p_i p_j
+	 * pq[ i * n + j ] = sum w p_i q_j
+	 * qq[ i * n + j ] = sum w q_i q_j
+	 * </pre>
+	 *
+	 * @param pp
+	 * @param pq
+	 * @param qq
+	 */
+	public void getCenteredMoments( final double[] pp, final double[] pq, final double[] qq )
+	{
+		for ( int i = 0; i < n; ++i )
+		{
+			final int k = i * n;
+			for ( int j = 0; j < n; ++j )
+			{
+				pp[ k + j ] = spp[ k + j ] - sp[ i ] * sp[ j ] / ws;
+				pq[ k + j ] = spq[ k + j ] - sp[ i ] * sq[ j ] / ws;
+				qq[ k + j ] = sqq[ k + j ] - sq[ i ] * sq[ j ] / ws;
+			}
+		}
+	}
+}
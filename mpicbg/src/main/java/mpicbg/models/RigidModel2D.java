@@ -63,7 +63,7 @@ import java.util.Collection;
  *
  * @author Stephan Saalfeld &lt;saalfelds@janelia.hhmi.org&gt;
  */
-public class RigidModel2D extends AbstractAffineModel2D< RigidModel2D >
+public class RigidModel2D extends AbstractAffineModel2D< RigidModel2D > implements MomentsFittable
 {
 	private static final long serialVersionUID = 294104229960804720L;
 
@@ -292,6 +292,41 @@ public class RigidModel2D extends AbstractAffineModel2D< RigidModel2D >
 		invert();
 	}
 
+	/**
+	 * Fit to the {@link PointMatchMoments} of a set of matches.  The result
+	 * is that of {@link #fit(Collection)} for the same matches.
+	 */
+	@Override
+	final public void fit( final PointMatchMoments moments )
+		throws NotEnoughDataPointsException
+	{
+		if ( moments.size() < MIN_NUM_MATCHES )
+			throw new NotEnoughDataPointsException( moments.size() + " data points are not enough to estimate a 2d rigid model, at least " + MIN_NUM_MATCHES + " data points required." );
+
+		final int n = moments.numDimensions();
+		final double[] pc = new double[ n ];
+		final double[] qc = new double[ n ];
+		moments.getCenters( pc, qc );
+		final double[] pp = new double[ n * n ];
+		final double[] pq = new double[ n * n ];
+		final double[] qq = new double[ n * n ];
+		moments.getCenteredMoments( pp, pq, qq );
+
+		double cosd = pq[ 0 ] + pq[ n + 1 ];
+		double sind = pq[ 1 ] - pq[ n ];
+		final double norm = Math.sqrt( cosd * cosd + sind * sind );
+		cosd /= norm;
+		sind /= norm;
+
+		cos = cosd;
+		sin = sind;
+
+		tx = qc[ 0 ] - cosd * pc[ 0 ] + sind * pc[ 1 ];
+		ty = qc[ 1 ] - sind * pc[ 0 ] - cosd * pc[ 1 ];
+
+		invert();
+	}
+
 	/**
 	 * Closed form weighted least squares solution as described by
 	 * \citet{SchaeferAl06} and implemented by Johannes Schindelin.
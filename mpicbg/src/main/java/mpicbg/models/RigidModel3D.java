@@ -213,6 +213,105 @@ public class RigidModel3D extends AbstractAffineModel3D< RigidModel3D > implemen
 			Szz += z1 * z2;
 		}
 
+		fit( pcx, pcy, pcz, qcx, qcy, qcz, Sxx, Sxy, Sxz, Syx, Syy, Syz, Szx, Szy, Szz );
+	}
+
+	@Override
+	final public void fit(
+			final double[][] p,
+			final double[][] q,
+			final double[] w )
+		throws NotEnoughDataPointsException, IllDefinedDataPointsException
+	{
+		assert
+			p.length >= 3 &&
+			q.length >= 3 : "3d rigid transformations can be applied to 3d points only.";
+
+		assert
+			p[ 0 ].length == p[ 1 ].length &&
+			p[ 0 ].length == p[ 2 ].length &&
+			p[ 0 ].length == q[ 0 ].length &&
+			p[ 0 ].length == q[ 1 ].length &&
+			p[ 0 ].length == q[ 2 ].length &&
+			p[ 0 ].length == w.length : "Array lengths do not match.";
+
+		final int l = p[ 0 ].length;
+
+		if ( l < MIN_NUM_MATCHES )
+			throw new NotEnoughDataPointsException(
+					l + " data points are not enough to estimate a 3d rigid transformation model, at least " + MIN_NUM_MATCHES + " data points required." );
+
+		final double[] pX = p[ 0 ];
+		final double[] pY = p[ 1 ];
+		final double[] pZ = p[ 2 ];
+		final double[] qX = q[ 0 ];
+		final double[] qY = q[ 1 ];
+		final double[] qZ = q[ 2 ];
+
+		double pcx = 0, pcy = 0, pcz = 0;
+		double qcx = 0, qcy = 0, qcz = 0;
+
+		double sumW = 0;
+
+		for ( int i = 0; i < l; ++i )
+		{
+			final double ww = w[ i ];
+
+			pcx += pX[ i ] * ww;
+			pcy += pY[ i ] * ww;
+			pcz += pZ[ i ] * ww;
+			qcx += qX[ i ] * ww;
+			qcy += qY[ i ] * ww;
+			qcz += qZ[ i ] * ww;
+			sumW += ww;
+		}
+
+		pcx /= sumW;
+		pcy /= sumW;
+		pcz /= sumW;
+		qcx /= sumW;
+		qcy /= sumW;
+		qcz /= sumW;
+
+		// calculate N
+		double Sxx = 0, Sxy = 0, Sxz = 0, Syx = 0, Syy = 0, Syz = 0, Szx = 0, Szy = 0, Szz = 0;
+
+		for ( int i = 0; i < l; ++i )
+		{
+			final double ww = w[ i ];
+
+			final double x1 = (pX[ i ] - pcx) * ww;
+			final double y1 = (pY[ i ] - pcy) * ww;
+			final double z1 = (pZ[ i ] - pcz) * ww;
+			final double x2 = (qX[ i ] - qcx) * ww;
+			final double y2 = (qY[ i ] - qcy) * ww;
+			final double z2 = (qZ[ i ] - qcz) * ww;
+			Sxx += x1 * x2;
+			Sxy += x1 * y2;
+			Sxz += x1 * z2;
+			Syx += y1 * x2;
+			Syy += y1 * y2;
+			Syz += y1 * z2;
+			Szx += z1 * x2;
+			Szy += z1 * y2;
+			Szz += z1 * z2;
+		}
+
+		fit( pcx, pcy, pcz, qcx, qcy, qcz, Sxx, Sxy, Sxz, Syx, Syy, Syz, Szx, Szy, Szz );
+	}
+
+	/**
+	 * Set the rotation from the eigenvector with maximal eigenvalue of the
+	 * 4&times;4 matrix N built from the weighted cross-covariance S of the
+	 * centered point sets and the translation from the centers of mass.
+	 */
+	final private void fit(
+			final double pcx, final double pcy, final double pcz,
+			final double qcx, final double qcy, final double qcz,
+			final double Sxx, final double Sxy, final double Sxz,
+			final double Syx, final double Syy, final double Syz,
+			final double Szx, final double Szy, final double Szz )
+	{
 		final double[][] N = new double[ 4 ][ 4 ];
 		N[0][0] = Sxx + Syy + Szz;
 		N[0][1] = Syz - Szy;
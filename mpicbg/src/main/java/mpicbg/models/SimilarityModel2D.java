@@ -63,7 +63,7 @@ import java.util.Collection;
  *
  * @author Stephan Saalfeld &lt;saalfelds@janelia.hhmi.org&gt;
  */
-public class SimilarityModel2D extends AbstractAffineModel2D< SimilarityModel2D >
+public class SimilarityModel2D extends AbstractAffineModel2D< SimilarityModel2D > implements MomentsFittable
 {
 	private static final long serialVersionUID = -2002621576568975203L;
 
@@ -300,6 +300,39 @@ public class SimilarityModel2D extends AbstractAffineModel2D< SimilarityModel2D
 		invert();
 	}
 
+	/**
+	 * Fit to the {@link PointMatchMoments} of a set of matches.  The result
+	 * is that of {@link #fit(Collection)} for the same matches.
+	 */
+	@Override
+	final public void fit( final PointMatchMoments moments )
+		throws NotEnoughDataPointsException
+	{
+		if ( moments.size() < MIN_NUM_MATCHES )
+			throw new NotEnoughDataPointsException( moments.size() + " data points are not enough to estimate a 2d similarity model, at least " + MIN_NUM_MATCHES + " data points required." );
+
+		final int n = moments.numDimensions();
+		final double[] pc = new double[ n ];
+		final double[] qc = new double[ n ];
+		moments.getCenters( pc, qc );
+		final double[] pp = new double[ n * n ];
+		final double[] pq = new double[ n * n ];
+		final double[] qq = new double[ n * n ];
+		moments.getCenteredMoments( pp, pq, qq );
+
+		final double ws = pp[ 0 ] + pp[ n + 1 ];
+		final double scosd = ( pq[ 0 ] + pq[ n + 1 ] ) / ws;
+		final double ssind = ( pq[ 1 ] - pq[ n ] ) / ws;
+
+		scos = scosd;
+		ssin = ssind;
+
+		tx = qc[ 0 ] - scosd * pc[ 0 ] + ssind * pc[ 1 ];
+		ty = qc[ 1 ] - ssind * pc[ 0 ] - scosd * pc[ 1 ];
+
+		invert();
+	}
+
 	/**
 	 * Closed form weighted least squares solution as described by
 	 * \citet{SchaeferAl06} and implemented by Johannes Schindelin.
@@ -0,0 +1,1169 @@
+/*-
+ * #%L
+ * MPICBG Core Library.
+ * %%
+ * Copyright (C) 2008 - 2025 Stephan Saalfeld et. al.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package mpicbg.models;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Global least-squares solver for a {@link TileConfiguration} whose
+ * {@link Tile Tiles} use models that are linear in their parameters or can
+ * be linearized.
+ *
+ * Instead of fitting each {@link Tile} to its neighbours in turn, the normal
+ * equations of the sum of weighted squared {@link PointMatch} displacements
+ * over all {@link Tile Tiles} are assembled into one block sparse matrix
+ * with a block per pair of connected {@link Tile Tiles}.  It is solved with
+ * block Jacobi preconditioned conjugate gradients \cite{HestenesS52}.
+ * {@link TranslationModel2D}, {@link TranslationModel3D},
+ * {@link AffineModel2D}, {@link AffineModel3D} and
+ * {@link SimilarityModel2D} are linear in their parameters and are solved in
+ * one step.  {@link RigidModel2D}, {@link RigidModel3D} and
+ * {@link SimilarityModel3D} are linearized at their current rotation and
+ * refined by Gauss-Newton iterations.  Fixed {@link Tile Tiles} are
+ * constants.  If no {@link Tile} is fixed, an arbitrary one is.
+ *
+ * BibTeX:
+ * <pre>
+ * &#64;article{HestenesS52,
+ *   author    = {Magnus R. Hestenes and Eduard Stiefel},
+ *   title     = {Methods of Conjugate Gradients for Solving Linear Systems},
+ *   journal   = {Journal of Research of the National Bureau of Standards},
+ *   volume    = {49},
+ *   number    = {6},
+ *   year      = {1952},
+ *   pages     = {409--436},
+ * }
+ * </pre>
+ */
+public class SparseTileSolver
+{
+	/**
+	 * Parameters for {@link SparseTileSolver#solve(Collection, Set, Param)}.
+	 */
+	static public class Param implements Serializable
+	{
+		private static final long serialVersionUID = 4170281541338779513L;
+
+		/**
+		 * Maximal number of Gauss-Newton iterations for linearized models.
+		 * Linear models need only one.
+		 */
+		public int maxIterations = 20;
+
+		/**
+		 * Stop Gauss-Newton iterations when the cost decreases relatively
+		 * by less than this.
+		 */
+		public double minCostChange = 1.0e-9;
+
+		/**
+		 * Maximal number of conjugate gradient iterations per linear solve.
+		 */
+		public int maxCgIterations = 10000;
+
+		/**
+		 * Stop conjugate gradients when the norm of the residual is smaller
+		 * than this times the norm of the right hand side.
+		 */
+		public double cgTolerance = 1.0e-10;
+
+		@Override
+		public Param clone()
+		{
+			final Param p = new Param();
+			p.maxIterations = maxIterations;
+			p.minCostChange = minCostChange;
+			p.maxCgIterations = maxCgIterations;
+			p.cgTolerance = cgTolerance;
+			return p;
+		}
+	}
+
+	/**
+	 * Parameters of a {@link Model} relative to its state at the last
+	 * {@link #linearize(double[], double[], double[])}.
+	 */
+	static abstract protected class Parameterization
+	{
+		final protected int numDimensions;
+		final protected int size;
+
+		protected Parameterization( final int numDimensions, final int size )
+		{
+			this.numDimensions = numDimensions;
+			this.size = size;
+		}
+
+		/**
+		 * Remember the current state of the {@link Model} as the origin of
+		 * the parameters.
+		 */
+		abstract protected void snapshot();
+
+		/**
+		 * Transfer a local location into the world and write the derivative
+		 * of the world location with respect to the parameters at the
+		 * snapshot, row-major [numDimensions][size], into jacobian.
+		 */
+		abstract protected void linearize( final double[] l, final double[] w, final double[] jacobian );
+
+		/**
+		 * Set the {@link Model} to the snapshot plus scale * delta.
+		 */
+		abstract protected void update( final double[] delta, final int offset, final double scale );
+
+		/**
+		 * Whether the parameterization is exact, i.e. the {@link Model} is
+		 * linear in its parameters.
+		 */
+		abstract protected boolean isLinear();
+	}
+
+	static protected class Translation2DParameterization extends Parameterization
+	{
+		final protected TranslationModel2D model;
+		final protected double[] m = new double[ 6 ];
+
+		Translation2DParameterization( final TranslationModel2D model )
+		{
+			super( 2, 2 );
+			this.model = model;
+		}
+
+		@Override
+		protected void snapshot(){ model.toArray( m ); }
+
+		@Override
+		protected void linearize( final double[] l, final double[] w, final double[] jacobian )
+		{
+			w[ 0 ] = l[ 0 ] + m[ 4 ];
+			w[ 1 ] = l[ 1 ] + m[ 5 ];
+			jacobian[ 0 ] = 1; jacobian[ 1 ] = 0;
+			jacobian[ 2 ] = 0; jacobian[ 3 ] = 1;
+		}
+
+		@Override
+		protected void update( final double[] delta, final int offset, final double scale )
+		{
+			model.set( m[ 4 ] + scale * delta[ offset ], m[ 5 ] + scale * delta[ offset + 1 ] );
+		}
+
+		@Override
+		protected boolean isLinear(){ return true; }
+	}
+
+	static protected class Translation3DParameterization extends Parameterization
+	{
+		final protected TranslationModel3D model;
+		final protected double[] m = new double[ 12 ];
+
+		Translation3DParameterization( final TranslationModel3D model )
+		{
+			super( 3, 3 );
+			this.model = model;
+		}
+
+		@Override
+		protected void snapshot(){ model.toArray( m ); }
+
+		@Override
+		protected void linearize( final double[] l, final double[] w, final double[] jacobian )
+		{
+			w[ 0 ] = l[ 0 ] + m[ 9 ];
+			w[ 1 ] = l[ 1 ] + m[ 10 ];
+			w[ 2 ] = l[ 2 ] + m[ 11 ];
+			Arrays.fill( jacobian, 0, 9, 0 );
+			jacobian[ 0 ] = 1;
+			jacobian[ 4 ] = 1;
+			jacobian[ 8 ] = 1;
+		}
+
+		@Override
+		protected void update( final double[] delta, final int offset, final double scale )
+		{
+			model.set(
+					m[ 9 ] + scale * delta[ offset ],
+					m[ 10 ] + scale * delta[ offset + 1 ],
+					m[ 11 ] + scale * delta[ offset + 2 ] );
+		}
+
+		@Override
+		protected boolean isLinear(){ return true; }
+	}
+
+	/**
+	 * Parameters m00, m10, m01, m11, m02, m12.
+	 */
+	static protected class Affine2DParameterization extends Parameterization
+	{
+		final protected AffineModel2D model;
+		final protected double[] m = new double[ 6 ];
+
+		Affine2DParameterization( final AffineModel2D model )
+		{
+			super( 2, 6 );
+			this.model = model;
+		}
+
+		@Override
+		protected void snapshot(){ model.toArray( m ); }
+
+		@Override
+		protected void linearize( final double[] l, final double[] w, final double[] jacobian )
+		{
+			final double x = l[ 0 ], y = l[ 1 ];
+			w[ 0 ] = m[ 0 ] * x + m[ 2 ] * y + m[ 4 ];
+			w[ 1 ] = m[ 1 ] * x + m[ 3 ] * y + m[ 5 ];
+			jacobian[ 0 ] = x; jacobian[ 1 ] = 0; jacobian[ 2 ] = y; jacobian[ 3 ] = 0; jacobian[ 4 ] = 1; jacobian[ 5 ] = 0;
+			jacobian[ 6 ] = 0; jacobian[ 7 ] = x; jacobian[ 8 ] = 0; jacobian[ 9 ] = y; jacobian[ 10 ] = 0; jacobian[ 11 ] = 1;
+		}
+
+		@Override
+		protected void update( final double[] delta, final int offset, final double scale )
+		{
+			model.set(
+					m[ 0 ] + scale * delta[ offset ],
+					m[ 1 ] + scale * delta[ offset + 1 ],
+					m[ 2 ] + scale * delta[ offset + 2 ],
+					m[ 3 ] + scale * delta[ offset + 3 ],
+					m[ 4 ] + scale * delta[ offset + 4 ],
+					m[ 5 ] + scale * delta[ offset + 5 ] );
+		}
+
+		@Override
+		protected boolean isLinear(){ return true; }
+	}
+
+	/**
+	 * Parameters m00, m10, m20, m01, m11, m21, m02, m12, m22, m03, m13, m23.
+	 */
+	static protected class Affine3DParameterization extends Parameterization
+	{
+		final protected AffineModel3D model;
+		final protected double[] m = new double[ 12 ];
+
+		Affine3DParameterization( final AffineModel3D model )
+		{
+			super( 3, 12 );
+			this.model = model;
+		}
+
+		@Override
+		protected void snapshot(){ model.toArray( m ); }
+
+		@Override
+		protected void linearize( final double[] l, final double[] w, final double[] jacobian )
+		{
+			Arrays.fill( jacobian, 0, 36, 0 );
+			for ( int d = 0; d < 3; ++d )
+			{
+				final int r = d * 12;
+				w[ d ] = m[ d ] * l[ 0 ] + m[ 3 + d ] * l[ 1 ] + m[ 6 + d ] * l[ 2 ] + m[ 9 + d ];
+				jacobian[ r + d ] = l[ 0 ];
+				jacobian[ r + 3 + d ] = l[ 1 ];
+				jacobian[ r + 6 + d ] = l[ 2 ];
+				jacobian[ r + 9 + d ] = 1;
+			}
+		}
+
+		@Override
+		protected void update( final double[] delta, final int offset, final double scale )
+		{
+			final double[] a = new double[ 12 ];
+			for ( int i = 0; i < 12; ++i )
+				a[ i ] = m[ i ] + scale * delta[ offset + i ];
+			model.set(
+					a[ 0 ], a[ 3 ], a[ 6 ], a[ 9 ],
+					a[ 1 ], a[ 4 ], a[ 7 ], a[ 10 ],
+					a[ 2 ], a[ 5 ], a[ 8 ], a[ 11 ] );
+		}
+
+		@Override
+		protected boolean isLinear(){ return true; }
+	}
+
+	/**
+	 * Parameters s cos, s sin, tx, ty.
+	 */
+	static protected class Similarity2DParameterization extends Parameterization
+	{
+		final protected SimilarityModel2D model;
+		final protected double[] m = new double[ 6 ];
+
+		Similarity2DParameterization( final SimilarityModel2D model )
+		{
+			super( 2, 4 );
+			this.model = model;
+		}
+
+		@Override
+		protected void snapshot(){ model.toArray( m ); }
+
+		@Override
+		protected void linearize( final double[] l, final double[] w, final double[] jacobian )
+		{
+			final double x = l[ 0 ], y = l[ 1 ];
+			w[ 0 ] = m[ 0 ] * x - m[ 1 ] * y + m[ 4 ];
+			w[ 1 ] = m[ 1 ] * x + m[ 0 ] * y + m[ 5 ];
+			jacobian[ 0 ] = x; jacobian[ 1 ] = -y; jacobian[ 2 ] = 1; jacobian[ 3 ] = 0;
+			jacobian[ 4 ] = y; jacobian[ 5 ] = x; jacobian[ 6 ] = 0; jacobian[ 7 ] = 1;
+		}
+
+		@Override
+		protected void update( final double[] delta, final int offset, final double scale )
+		{
+			model.set(
+					m[ 0 ] + scale * delta[ offset ],
+					m[ 1 ] + scale * delta[ offset + 1 ],
+					m[ 4 ] + scale * delta[ offset + 2 ],
+					m[ 5 ] + scale * delta[ offset + 3 ] );
+		}
+
+		@Override
+		protected boolean isLinear(){ return true; }
+	}
+
+	/**
+	 * Parameters rotation angle, tx, ty.
+	 */
+	static protected class Rigid2DParameterization extends Parameterization
+	{
+		final protected RigidModel2D model;
+		final protected double[] m = new double[ 6 ];
+		protected double theta;
+
+		Rigid2DParameterization( final RigidModel2D model )
+		{
+			super( 2, 3 );
+			this.model = model;
+		}
+
+		@Override
+		protected void snapshot()
+		{
+			model.toArray( m );
+			theta = Math.atan2( m[ 1 ], m[ 0 ] );
+		}
+
+		@Override
+		protected void linearize( final double[] l, final double[] w, final double[] jacobian )
+		{
+			final double vx = m[ 0 ] * l[ 0 ] + m[ 2 ] * l[ 1 ];
+			final double vy = m[ 1 ] * l[ 0 ] + m[ 3 ] * l[ 1 ];
+			w[ 0 ] = vx + m[ 4 ];
+			w[ 1 ] = vy + m[ 5 ];
+			jacobian[ 0 ] = -vy; jacobian[ 1 ] = 1; jacobian[ 2 ] = 0;
+			jacobian[ 3 ] = vx; jacobian[ 4 ] = 0; jacobian[ 5 ] = 1;
+		}
+
+		@Override
+		protected void update( final double[] delta, final int offset, final double scale )
+		{
+			model.set(
+					theta + scale * delta[ offset ],
+					m[ 4 ] + scale * delta[ offset + 1 ],
+					m[ 5 ] + scale * delta[ offset + 2 ] );
+		}
+
+		@Override
+		protected boolean isLinear(){ return false; }
+	}
+
+	/**
+	 * Parameters of a small rotation (axis times angle) applied after the
+	 * snapshot, optionally the logarithm of a scale factor, and the
+	 * translation.  The {@link Model} is updated by fitting it to four
+	 * locations transferred by the updated transformation, which is exact
+	 * for rigid and similarity transformations.
+	 */
+	static protected class Rotation3DParameterization extends Parameterization
+	{
+		final protected Model< ? > model;
+		final protected boolean scaling;
+		final protected double[] m = new double[ 12 ];
+
+		final protected double[][] p = new double[][]{ { 0, 1, 0, 0 }, { 0, 0, 1, 0 }, { 0, 0, 0, 1 } };
+		final protected double[][] q = new double[ 3 ][ 4 ];
+		final protected double[] weights = new double[]{ 1, 1, 1, 1 };
+
+		Rotation3DParameterization( final Model< ? > model, final boolean scaling )
+		{
+			super( 3, scaling ? 7 : 6 );
+			this.model = model;
+			this.scaling = scaling;
+		}
+
+		@Override
+		protected void snapshot(){ ( ( Affine3D< ? > )model ).toArray( m ); }
+
+		@Override
+		protected void linearize( final double[] l, final double[] w, final double[] jacobian )
+		{
+			final double vx = m[ 0 ] * l[ 0 ] + m[ 3 ] * l[ 1 ] + m[ 6 ] * l[ 2 ];
+			final double vy = m[ 1 ] * l[ 0 ] + m[ 4 ] * l[ 1 ] + m[ 7 ] * l[ 2 ];
+			final double vz = m[ 2 ] * l[ 0 ] + m[ 5 ] * l[ 1 ] + m[ 8 ] * l[ 2 ];
+			w[ 0 ] = vx + m[ 9 ];
+			w[ 1 ] = vy + m[ 10 ];
+			w[ 2 ] = vz + m[ 11 ];
+
+			Arrays.fill( jacobian, 0, 3 * size, 0 );
+
+			/* rotation: d( omega x v ) / d omega = -[v]x */
+			jacobian[ 1 ] = vz;
+			jacobian[ 2 ] = -vy;
+			jacobian[ size ] = -vz;
+			jacobian[ size + 2 ] = vx;
+			jacobian[ 2 * size ] = vy;
+			jacobian[ 2 * size + 1 ] = -vx;
+
+			int t = 3;
+			if ( scaling )
+			{
+				jacobian[ 3 ] = vx;
+				jacobian[ size + 3 ] = vy;
+				jacobian[ 2 * size + 3 ] = vz;
+				++t;
+			}
+
+			jacobian[ t ] = 1;
+			jacobian[ size + t + 1 ] = 1;
+			jacobian[ 2 * size + t + 2 ] = 1;
+		}
+
+		@Override
+		protected void update( final double[] delta, final int offset, final double scale )
+		{
+			/* Rodrigues' rotation formula */
+			final double ox = scale * delta[ offset ];
+			final double oy = scale * delta[ offset + 1 ];
+			final double oz = scale * delta[ offset + 2 ];
+			final double angle = Math.sqrt( ox * ox + oy * oy + oz * oz );
+			final double[] r = new double[]{ 1, 0, 0, 0, 1, 0, 0, 0, 1 };
+			if ( angle > 0 )
+			{
+				final double kx = ox / angle, ky = oy / angle, kz = oz / angle;
+				final double c = Math.cos( angle ), s = Math.sin( angle ), c1 = 1.0 - c;
+				r[ 0 ] = c + kx * kx * c1;
+				r[ 1 ] = kx * ky * c1 - kz * s;
+				r[ 2 ] = kx * kz * c1 + ky * s;
+				r[ 3 ] = ky * kx * c1 + kz * s;
+				r[ 4 ] = c + ky * ky * c1;
+				r[ 5 ] = ky * kz * c1 - kx * s;
+				r[ 6 ] = kz * kx * c1 - ky * s;
+				r[ 7 ] = kz * ky * c1 + kx * s;
+				r[ 8 ] = c + kz * kz * c1;
+			}
+
+			int t = offset + 3;
+			final double f;
+			if ( scaling )
+				f = Math.exp( scale * delta[ t++ ] );
+			else
+				f = 1.0;
+
+			final double tx = m[ 9 ] + scale * delta[ t ];
+			final double ty = m[ 10 ] + scale * delta[ t + 1 ];
+			final double tz = m[ 11 ] + scale * delta[ t + 2 ];
+
+			/* the origin and the unit vectors, transferred by f * r * m + t */
+			for ( int i = 0; i < 3; ++i )
+				q[ i ][ 0 ] = i == 0 ? tx : i == 1 ? ty : tz;
+			for ( int j = 0; j < 3; ++j )
+			{
+				final double cx = m[ 3 * j ], cy = m[ 3 * j + 1 ], cz = m[ 3 * j + 2 ];
+				q[ 0 ][ j + 1 ] = f * ( r[ 0 ] * cx + r[ 1 ] * cy + r[ 2 ] * cz ) + tx;
+				q[ 1 ][ j + 1 ] = f * ( r[ 3 ] * cx + r[ 4 ] * cy + r[ 5 ] * cz ) + ty;
+				q[ 2 ][ j + 1 ] = f * ( r[ 6 ] * cx + r[ 7 ] * cy + r[ 8 ] * cz ) + tz;
+			}
+
+			try
+			{
+				model.fit( p, q, weights );
+			}
+			catch ( final NotEnoughDataPointsException | IllDefinedDataPointsException e )
+			{
+				throw new RuntimeException( e );
+			}
+		}
+
+		@Override
+		protected boolean isLinear(){ return false; }
+	}
+
+	/**
+	 * Create the {@link Parameterization} of a {@link Model}.
+	 *
+	 * @param model
+	 *
+	 * @return the {@link Parameterization} or null if the {@link Model} is
+	 *   not supported
+	 */
+	static protected Parameterization createParameterization( final Model< ? > model )
+	{
+		if ( model instanceof TranslationModel2D )
+			return new Translation2DParameterization( ( TranslationModel2D )model );
+		else if ( model instanceof TranslationModel3D )
+			return new Translation3DParameterization( ( TranslationModel3D )model );
+		else if ( model instanceof AffineModel2D )
+			return new Affine2DParameterization( ( AffineModel2D )model );
+		else if ( model instanceof AffineModel3D )
+			return new Affine3DParameterization( ( AffineModel3D )model );
+		else if ( model instanceof SimilarityModel2D )
+			return new Similarity2DParameterization( ( SimilarityModel2D )model );
+		else if ( model instanceof RigidModel2D )
+			return new Rigid2DParameterization( ( RigidModel2D )model );
+		else if ( model instanceof RigidModel3D )
+			return new Rotation3DParameterization( model, false );
+		else if ( model instanceof SimilarityModel3D )
+			return new Rotation3DParameterization( model, true );
+		else
+			return null;
+	}
+
+	/**
+	 * Check whether the {@link Model} of a {@link Tile} is supported.
+	 *
+	 * @param model
+	 * @return
+	 */
+	static public boolean isSupported( final Model< ? > model )
+	{
+		return createParameterization( model ) != null;
+	}
+
+	/* free tiles */
+	final protected ArrayList< Tile< ? > > tiles = new ArrayList< Tile< ? > >();
+	final protected Parameterization[] parameterizations;
+	final protected int[] offsets;
+	final protected int numParameters;
+	final protected int numDimensions;
+	final protected boolean linear;
+
+	/* per free tile, its matches and the index of the free tile they connect to, -1 for constants */
+	final protected PointMatch[][] matches;
+	final protected int[][] partners;
+
+	/* matches of constant tiles, included from the side of the free tile, i.e. with p2 in the free tile */
+	final protected boolean[][] reversed;
+
+	/* the models of constant partners, null for unknown partners whose world coordinates are used as they are */
+	final protected CoordinateTransform[][] constantPartners;
+
+	/* block sparse normal matrix, rows of blocks in compressed sparse row format */
+	final protected int[] rowStarts;
+	final protected int[] columns;
+	final protected int[] blockStarts;
+	final protected double[] values;
+	final protected double[] rhs;
+
+	/* block Jacobi preconditioner, inverse diagonal blocks */
+	final protected double[] inverseDiagonal;
+	final protected int[] inverseDiagonalStarts;
+
+	/**
+	 * Build the sparse structure for a set of {@link Tile Tiles}.
+	 *
+	 * @param allTiles
+	 * @param fixedTiles if empty, the first {@link Tile} will be fixed
+	 */
+	public SparseTileSolver( final Collection< ? extends Tile< ? > > allTiles, final Set< ? extends Tile< ? > > fixedTiles )
+	{
+		final Set< Tile< ? > > fixed = new HashSet< Tile< ? > >( fixedTiles );
+		if ( fixed.isEmpty() )
+		{
+			final Iterator< ? extends Tile< ? > > it = allTiles.iterator();
+			if ( it.hasNext() )
+				fixed.add( it.next() );
+		}
+
+		final IdentityHashMap< Tile< ? >, Integer > indices = new IdentityHashMap< Tile< ? >, Integer >();
+		final IdentityHashMap< Point, Tile< ? > > pointTiles = new IdentityHashMap< Point, Tile< ? > >();
+		for ( final Tile< ? > t : allTiles )
+		{
+			for ( final PointMatch m : t.getMatches() )
+				pointTiles.put( m.getP1(), t );
+			if ( !fixed.contains( t ) && t.getMatches().size() > 0 )
+			{
+				indices.put( t, tiles.size() );
+				tiles.add( t );
+			}
+		}
+
+		final int numTiles = tiles.size();
+		parameterizations = new Parameterization[ numTiles ];
+		offsets = new int[ numTiles + 1 ];
+		boolean isLinear = true;
+		int n = 0;
+		for ( int i = 0; i < numTiles; ++i )
+		{
+			final Model< ? > model = tiles.get( i ).getModel();
+			final Parameterization parameterization = createParameterization( model );
+			if ( parameterization == null )
+				throw new IllegalArgumentException( model.getClass().getSimpleName() + " is not supported by " + getClass().getSimpleName() + "." );
+			if ( n == 0 )
+				n = parameterization.numDimensions;
+			else if ( n != parameterization.numDimensions )
+				throw new IllegalArgumentException( "All tiles must have the same number of dimensions." );
+			parameterizations[ i ] = parameterization;
+			offsets[ i + 1 ] = offsets[ i ] + parameterization.size;
+			isLinear &= parameterization.isLinear();
+		}
+		numParameters = offsets[ numTiles ];
+		numDimensions = n;
+		linear = isLinear;
+
+		/*
+		 * Matches between free tiles are visited from both sides.  Matches
+		 * of constant tiles are visited from the side of the free tile so
+		 * that they have the same weight.
+		 */
+		final ArrayList< ArrayList< PointMatch > > reversedMatches = new ArrayList< ArrayList< PointMatch > >( numTiles );
+		final ArrayList< ArrayList< Tile< ? > > > reversedPartners = new ArrayList< ArrayList< Tile< ? > > >( numTiles );
+		for ( int i = 0; i < numTiles; ++i )
+		{
+			reversedMatches.add( new ArrayList< PointMatch >() );
+			reversedPartners.add( new ArrayList< Tile< ? > >() );
+		}
+		for ( final Tile< ? > t : allTiles )
+		{
+			if ( indices.containsKey( t ) )
+				continue;
+			for ( final PointMatch m : t.getMatches() )
+			{
+				final Tile< ? > partner = pointTiles.get( m.getP2() );
+				final Integer j = partner == null ? null : indices.get( partner );
+				if ( j != null )
+				{
+					reversedMatches.get( j ).add( m );
+					reversedPartners.get( j ).add( t );
+				}
+			}
+		}
+
+		/* matches, partners and the sparse structure */
+		matches = new PointMatch[ numTiles ][];
+		partners = new int[ numTiles ][];
+		reversed = new boolean[ numTiles ][];
+		constantPartners = new CoordinateTransform[ numTiles ][];
+		rowStarts = new int[ numTiles + 1 ];
+		final int[][] rowColumns = new int[ numTiles ][];
+		for ( int i = 0; i < numTiles; ++i )
+		{
+			final Set< PointMatch > tileMatches = tiles.get( i ).getMatches();
+			final ArrayList< PointMatch > tileReversedMatches = reversedMatches.get( i );
+			final ArrayList< Tile< ? > > tileReversedPartners = reversedPartners.get( i );
+			final int numMatches = tileMatches.size();
+			final int numReversedMatches = tileReversedMatches.size();
+			final PointMatch[] ms = new PointMatch[ numMatches + numReversedMatches ];
+			final int[] ps = new int[ ms.length ];
+			final boolean[] rs = new boolean[ ms.length ];
+			final CoordinateTransform[] cs = new CoordinateTransform[ ms.length ];
+			final HashSet< Integer > row = new HashSet< Integer >();
+			row.add( i );
+			int k = 0;
+			for ( final PointMatch m : tileMatches )
+			{
+				ms[ k ] = m;
+				final Tile< ? > partner = pointTiles.get( m.getP2() );
+				final Integer j = partner == null ? null : indices.get( partner );
+				if ( j == null )
+				{
+					ps[ k ] = -1;
+					cs[ k ] = partner == null ? null : partner.getModel();
+				}
+				else
+				{
+					ps[ k ] = j;
+					row.add( j );
+				}
+				++k;
+			}
+			for ( int l = 0; l < numReversedMatches; ++l, ++k )
+			{
+				ms[ k ] = tileReversedMatches.get( l );
+				ps[ k ] = -1;
+				rs[ k ] = true;
+				cs[ k ] = tileReversedPartners.get( l ).getModel();
+			}
+			matches[ i ] = ms;
+			partners[ i ] = ps;
+			reversed[ i ] = rs;
+			constantPartners[ i ] = cs;
+
+			final int[] r = new int[ row.size() ];
+			k = 0;
+			for ( final Integer j : row )
+				r[ k++ ] = j;
+			Arrays.sort( r );
+			rowColumns[ i ] = r;
+			rowStarts[ i + 1 ] = rowStarts[ i ] + r.length;
+		}
+
+		/* the partner relation is symmetric, so is the structure */
+		columns = new int[ rowStarts[ numTiles ] ];
+		blockStarts = new int[ columns.length + 1 ];
+		inverseDiagonalStarts = new int[ numTiles + 1 ];
+		for ( int i = 0, b = 0; i < numTiles; ++i )
+		{
+			final int ki = parameterizations[ i ].size;
+			for ( final int j : rowColumns[ i ] )
+			{
+				columns[ b ] = j;
+				blockStarts[ b + 1 ] = blockStarts[ b ] + ki * parameterizations[ j ].size;
+				++b;
+			}
+			inverseDiagonalStarts[ i + 1 ] = inverseDiagonalStarts[ i ] + ki * ki;
+		}
+		values = new double[ blockStarts[ columns.length ] ];
+		rhs = new double[ numParameters ];
+		inverseDiagonal = new double[ inverseDiagonalStarts[ numTiles ] ];
+	}
+
+	public SparseTileSolver( final TileConfiguration tileConfiguration )
+	{
+		this( tileConfiguration.getTiles(), tileConfiguration.getFixedTiles() );
+	}
+
+	/**
+	 * @return the free {@link Tile Tiles} whose {@link Model Models} are
+	 *   estimated
+	 */
+	public List< Tile< ? > > getFreeTiles(){ return tiles; }
+
+	/**
+	 * @return the number of unknowns of the system
+	 */
+	public int getNumParameters(){ return numParameters; }
+
+	final protected int findBlock( final int i, final int j )
+	{
+		return blockStarts[ Arrays.binarySearch( columns, rowStarts[ i ], rowStarts[ i + 1 ], j ) ];
+	}
+
+	/**
+	 * Add w * a<sup>T</sup>b to the block (i, j).  a is a row-major
+	 * [numDimensions][ki] matrix, b a row-major [numDimensions][kj] matrix.
+	 */
+	final protected void addBlock( final int i, final int j, final double[] a, final double[] b, final double w )
+	{
+		final int ki = parameterizations[ i ].size;
+		final int kj = parameterizations[ j ].size;
+		final int o = findBlock( i, j );
+		for ( int r = 0; r < ki; ++r )
+		{
+			for ( int d = 0; d < numDimensions; ++d )
+			{
+				final double ar = w * a[ d * ki + r ];
+				if ( ar == 0 ) continue;
+				final int bd = d * kj;
+				final int or = o + r * kj;
+				for ( int c = 0; c < kj; ++c )
+					values[ or + c ] += ar * b[ bd + c ];
+			}
+		}
+	}
+
+	/**
+	 * Add w * a<sup>T</sup>v to the right hand side of tile i.
+	 */
+	final protected void addRhs( final int i, final double[] a, final double[] v, final double w )
+	{
+		final int ki = parameterizations[ i ].size;
+		final int o = offsets[ i ];
+		for ( int r = 0; r < ki; ++r )
+		{
+			double s = 0;
+			for ( int d = 0; d < numDimensions; ++d )
+				s += a[ d * ki + r ] * v[ d ];
+			rhs[ o + r ] += w * s;
+		}
+	}
+
+	/**
+	 * Linearize all free {@link Model Models} at their current state and
+	 * assemble the normal equations for the parameter update.
+	 *
+	 * @return the current cost, i.e. the sum of weighted squared
+	 *   {@link PointMatch} displacements
+	 */
+	protected double assemble()
+	{
+		Arrays.fill( values, 0 );
+		Arrays.fill( rhs, 0 );
+
+		for ( final Parameterization parameterization : parameterizations )
+			parameterization.snapshot();
+
+		final double[] wa = new double[ numDimensions ];
+		final double[] wb = new double[ numDimensions ];
+		final double[] ja = new double[ numDimensions * 12 ];
+		final double[] jb = new double[ numDimensions * 12 ];
+		final double[] r = new double[ numDimensions ];
+
+		double cost = 0;
+		for ( int i = 0; i < matches.length; ++i )
+		{
+			final Parameterization pi = parameterizations[ i ];
+			final PointMatch[] ms = matches[ i ];
+			final int[] ps = partners[ i ];
+			final boolean[] rs = reversed[ i ];
+			final CoordinateTransform[] cs = constantPartners[ i ];
+			for ( int k = 0; k < ms.length; ++k )
+			{
+				final PointMatch m = ms[ k ];
+				final double w = m.getWeight();
+				final int j = ps[ k ];
+				final Point pa = rs[ k ] ? m.getP2() : m.getP1();
+				final Point pb = rs[ k ] ? m.getP1() : m.getP2();
+				pi.linearize( pa.getL(), wa, ja );
+				if ( j >= 0 )
+					parameterizations[ j ].linearize( pb.getL(), wb, jb );
+				else if ( cs[ k ] != null )
+				{
+					System.arraycopy( pb.getL(), 0, wb, 0, numDimensions );
+					cs[ k ].applyInPlace( wb );
+				}
+				else
+					System.arraycopy( pb.getW(), 0, wb, 0, numDimensions );
+
+				double rr = 0;
+				for ( int d = 0; d < numDimensions; ++d )
+				{
+					r[ d ] = wb[ d ] - wa[ d ];
+					rr += r[ d ] * r[ d ];
+				}
+				cost += w * rr;
+
+				addBlock( i, i, ja, ja, w );
+				addRhs( i, ja, r, w );
+				if ( j >= 0 )
+				{
+					addBlock( i, j, ja, jb, -w );
+					addBlock( j, i, jb, ja, -w );
+					addBlock( j, j, jb, jb, w );
+					addRhs( j, jb, r, -w );
+				}
+			}
+		}
+		return cost;
+	}
+
+	/**
+	 * Invert the diagonal blocks for preconditioning.  Singular blocks, e.g.
+	 * of {@link Tile Tiles} with too few matches, are regularized.
+	 */
+	protected void updatePreconditioner()
+	{
+		final int numTiles = parameterizations.length;
+		for ( int i = 0; i < numTiles; ++i )
+		{
+			final int k = parameterizations[ i ].size;
+			final double[] a = new double[ k * k ];
+			System.arraycopy( values, findBlock( i, i ), a, 0, k * k );
+			double trace = 0;
+			for ( int r = 0; r < k; ++r )
+				trace += a[ r * k + r ];
+			final double eps = trace > 0 ? trace * 1.0e-12 : 1.0;
+			for ( int r = 0; r < k; ++r )
+				a[ r * k + r ] += eps;
+			invertSymmetricPositiveDefinite( a, k, inverseDiagonal, inverseDiagonalStarts[ i ] );
+		}
+	}
+
+	/**
+	 * Invert a symmetric positive definite k&times;k matrix by Cholesky
+	 * decomposition.
+	 */
+	static protected void invertSymmetricPositiveDefinite( final double[] a, final int k, final double[] inverse, final int offset )
+	{
+		/* a = l l^T, l in the lower triangle of a */
+		for ( int j = 0; j < k; ++j )
+		{
+			double s = a[ j * k + j ];
+			for ( int p = 0; p < j; ++p )
+				s -= a[ j * k + p ] * a[ j * k + p ];
+			final double ljj = Math.sqrt( Math.max( s, Double.MIN_NORMAL ) );
+			a[ j * k + j ] = ljj;
+			for ( int i = j + 1; i < k; ++i )
+			{
+				double t = a[ i * k + j ];
+				for ( int p = 0; p < j; ++p )
+					t -= a[ i * k + p ] * a[ j * k + p ];
+				a[ i * k + j ] = t / ljj;
+			}
+		}
+
+		/* solve for each column of the identity */
+		final double[] y = new double[ k ];
+		for ( int c = 0; c < k; ++c )
+		{
+			for ( int i = 0; i < k; ++i )
+			{
+				double t = i == c ? 1 : 0;
+				for ( int p = 0; p < i; ++p )
+					t -= a[ i * k + p ] * y[ p ];
+				y[ i ] = t / a[ i * k + i ];
+			}
+			for ( int i = k - 1; i >= 0; --i )
+			{
+				double t = y[ i ];
+				for ( int p = i + 1; p < k; ++p )
+					t -= a[ p * k + i ] * y[ p ];
+				y[ i ] = t / a[ i * k + i ];
+			}
+			for ( int i = 0; i < k; ++i )
+				inverse[ offset + i * k + c ] = y[ i ];
+		}
+	}
+
+	/**
+	 * y = A x
+	 */
+	protected void multiply( final double[] x, final double[] y )
+	{
+		final int numTiles = parameterizations.length;
+		for ( int i = 0; i < numTiles; ++i )
+		{
+			final int ki = parameterizations[ i ].size;
+			final int oi = offsets[ i ];
+			for ( int r = 0; r < ki; ++r )
+				y[ oi + r ] = 0;
+			for ( int b = rowStarts[ i ]; b < rowStarts[ i + 1 ]; ++b )
+			{
+				final int j = columns[ b ];
+				final int kj = parameterizations[ j ].size;
+				final int oj = offsets[ j ];
+				final int o = blockStarts[ b ];
+				for ( int r = 0; r < ki; ++r )
+				{
+					double s = 0;
+					final int or = o + r * kj;
+					for ( int c = 0; c < kj; ++c )
+						s += values[ or + c ] * x[ oj + c ];
+					y[ oi + r ] += s;
+				}
+			}
+		}
+	}
+
+	/**
+	 * z = M<sup>-1</sup> r
+	 */
+	protected void precondition( final double[] r, final double[] z )
+	{
+		final int numTiles = parameterizations.length;
+		for ( int i = 0; i < numTiles; ++i )
+		{
+			final int k = parameterizations[ i ].size;
+			final int oi = offsets[ i ];
+			final int o = inverseDiagonalStarts[ i ];
+			for ( int a = 0; a < k; ++a )
+			{
+				double s = 0;
+				final int oa = o + a * k;
+				for ( int c = 0; c < k; ++c )
+					s += inverseDiagonal[ oa + c ] * r[ oi + c ];
+				z[ oi + a ] = s;
+			}
+		}
+	}
+
+	static protected double dot( final double[] a, final double[] b )
+	{
+		double s = 0;
+		for ( int i = 0; i < a.length; ++i )
+			s += a[ i ] * b[ i ];
+		return s;
+	}
+
+	/**
+	 * Solve the assembled system with block Jacobi preconditioned conjugate
+	 * gradients starting from x = 0.
+	 *
+	 * @param x solution
+	 * @param maxIterations
+	 * @param tolerance relative to the norm of the right hand side
+	 *
+	 * @return number of iterations
+	 */
+	protected int solveLinear( final double[] x, final int maxIterations, final double tolerance )
+	{
+		final int n = numParameters;
+		final double[] r = rhs.clone();
+		final double[] z = new double[ n ];
+		final double[] p = new double[ n ];
+		final double[] ap = new double[ n ];
+
+		Arrays.fill( x, 0 );
+		final double bb = dot( r, r );
+		if ( bb == 0 )
+			return 0;
+		final double threshold = tolerance * tolerance * bb;
+
+		precondition( r, z );
+		System.arraycopy( z, 0, p, 0, n );
+		double rz = dot( r, z );
+
+		int i = 0;
+		while ( i < maxIterations )
+		{
+			multiply( p, ap );
+			final double pap = dot( p, ap );
+			if ( pap <= 0 )
+				break;
+			final double alpha = rz / pap;
+			for ( int k = 0; k < n; ++k )
+			{
+				x[ k ] += alpha * p[ k ];
+				r[ k ] -= alpha * ap[ k ];
+			}
+			++i;
+			if ( dot( r, r ) <= threshold )
+				break;
+			precondition( r, z );
+			final double rzNew = dot( r, z );
+			final double beta = rzNew / rz;
+			rz = rzNew;
+			for ( int k = 0; k < n; ++k )
+				p[ k ] = z[ k ] + beta * p[ k ];
+		}
+		return i;
+	}
+
+	/**
+	 * Set all free {@link Model Models} to their snapshot plus scale * delta.
+	 */
+	protected void update( final double[] delta, final double scale )
+	{
+		for ( int i = 0; i < parameterizations.length; ++i )
+			parameterizations[ i ].update( delta, offsets[ i ], scale );
+	}
+
+	/**
+	 * @return the sum of weighted squared {@link PointMatch} displacements
+	 *   of all free {@link Tile Tiles} for the current {@link Model Models}
+	 */
+	protected double cost()
+	{
+		final double[] wa = new double[ numDimensions ];
+		final double[] wb = new double[ numDimensions ];
+		double cost = 0;
+		for ( int i = 0; i < matches.length; ++i )
+		{
+			final CoordinateTransform ti = tiles.get( i ).getModel();
+			final PointMatch[] ms = matches[ i ];
+			final int[] ps = partners[ i ];
+			final boolean[] rs = reversed[ i ];
+			final CoordinateTransform[] cs = constantPartners[ i ];
+			for ( int k = 0; k < ms.length; ++k )
+			{
+				final PointMatch m = ms[ k ];
+				final Point pa = rs[ k ] ? m.getP2() : m.getP1();
+				final Point pb = rs[ k ] ? m.getP1() : m.getP2();
+				System.arraycopy( pa.getL(), 0, wa, 0, numDimensions );
+				ti.applyInPlace( wa );
+				final int j = ps[ k ];
+				final CoordinateTransform tj = j >= 0 ? tiles.get( j ).getModel() : cs[ k ];
+				if ( tj == null )
+					System.arraycopy( pb.getW(), 0, wb, 0, numDimensions );
+				else
+				{
+					System.arraycopy( pb.getL(), 0, wb, 0, numDimensions );
+					tj.applyInPlace( wb );
+				}
+				double rr = 0;
+				for ( int d = 0; d < numDimensions; ++d )
+				{
+					final double r = wb[ d ] - wa[ d ];
+					rr += r * r;
+				}
+				cost += m.getWeight() * rr;
+			}
+		}
+		return cost;
+	}
+
+	/**
+	 * Estimate the {@link Model Models} of all free {@link Tile Tiles}.
+	 * The world coordinates of the {@link PointMatch PointMatches} are not
+	 * updated.
+	 *
+	 * @param param
+	 *
+	 * @return the final sum of weighted squared {@link PointMatch}
+	 *   displacements
+	 */
+	public double solve( final Param param )
+	{
+		final double[] delta = new double[ numParameters ];
+		double cost = Double.MAX_VALUE;
+		for ( int i = 0; i < param.maxIterations; ++i )
+		{
+			final double cost0 = assemble();
+			updatePreconditioner();
+			solveLinear( delta, param.maxCgIterations, param.cgTolerance );
+
+			/* step halving for linearized models that overshoot */
+			double scale = 1.0;
+			update( delta, scale );
+			cost = cost();
+			for ( int k = 0; !linear && cost > cost0 && k < 16; ++k )
+			{
+				scale *= 0.5;
+				update( delta, scale );
+				cost = cost();
+			}
+			if ( cost > cost0 )
+			{
+				update( delta, 0 );
+				cost = cost0;
+			}
+
+			if ( linear || cost0 - cost <= param.minCostChange * cost0 )
+				break;
+		}
+		return cost;
+	}
+
+	/**
+	 * Estimate the {@link Model Models} of all free {@link Tile Tiles}.
+	 *
+	 * @param allTiles
+	 * @param fixedTiles
+	 * @param param
+	 *
+	 * @return the final sum of weighted squared {@link PointMatch}
+	 *   displacements
+	 */
+	static public double solve( final Collection< ? extends Tile< ? > > allTiles, final Set< ? extends Tile< ? > > fixedTiles, final Param param )
+	{
+		return new SparseTileSolver( allTiles, fixedTiles ).solve( param );
+	}
+}
@@ -54,8 +54,13 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import mpicbg.ij.util.Util;
 
@@ -704,8 +709,52 @@ public class SpringMesh extends TransformMesh
 			final double maxStepSize,
 			final boolean visualize ) throws NotEnoughDataPointsException
 	{
+		optimizeMeshes( meshes, maxError, maxIterations, maxPlateauwidth, maxStepSize, visualize, null );
+	}
+
+	/**
+	 * Optimize a {@link Collection} of connected {@link SpringMesh SpringMeshes}
+	 * concurrently.  Each phase of an iteration, i.e. updating forces,
+	 * updating motion vectors and moving vertices, is run for all
+	 * {@link SpringMesh SpringMeshes} in parallel, and the next phase starts
+	 * when all are done.  Forces are calculated from positions that do not
+	 * change during the force phase, and each {@link SpringMesh} moves only
+	 * its own vertices.  The minimal, maximal and average forces and speeds
+	 * are collected in the order of the {@link Collection}, so the result
+	 * is identical to that of the sequential optimizer as long as no
+	 * {@link Spring} has zero length.  A zero length {@link Spring} pushes
+	 * its vertices into a random direction drawn from the static random
+	 * source shared by all {@link Spring Springs}, and concurrent
+	 * {@link SpringMesh SpringMeshes} draw from it in no particular order.
+	 * Results are then reproducible only when optimizing sequentially.
+	 *
+	 * @param maxError do not accept convergence if error is &gt; max_error
+	 * @param maxIterations stop after that many iterations even if there was
+	 *   no minimum found
+	 * @param maxPlateauwidth convergence is reached if the average slope in
+	 *   an interval of this size is 0.0 (in double accuracy).  This prevents
+	 *   the algorithm from stopping at plateaus smaller than this value.
+	 * @param maxStepSize
+	 * @param visualize
+	 * @param executor e.g. a {@link java.util.concurrent.ForkJoinPool},
+	 *   null to optimize sequentially
+	 */
+	public static void optimizeMeshes(
+			final Collection< SpringMesh > meshes,
+			final double maxError,
+			final int maxIterations,
+			final int maxPlateauwidth,
+			final double maxStepSize,
+			final boolean visualize,
+			final ExecutorService executor ) throws NotEnoughDataPointsException
+	{
+		final ArrayList< SpringMesh > meshList = new ArrayList< SpringMesh >( meshes );
 		final ErrorStatistic observer = new ErrorStatistic( maxPlateauwidth + 1 );
-		final ErrorStatistic singleMeshObserver = new ErrorStatistic( maxPlateauwidth + 1 );
+
+		/* one observer per mesh, they are not thread safe */
+		final IdentityHashMap< SpringMesh, ErrorStatistic > singleMeshObservers = new IdentityHashMap< SpringMesh, ErrorStatistic >();
+		for ( final SpringMesh mesh : meshList )
+			singleMeshObservers.put( mesh, new ErrorStatistic( maxPlateauwidth + 1 ) );
 
 		int i = 0;
 
@@ -734,9 +783,9 @@ public class SpringMesh extends TransformMesh
 
 		/* initialize dt */
 		maxForce = 0;
-		for ( final SpringMesh mesh : meshes )
+		forEachMesh( meshList, executor, mesh -> mesh.updateForce( singleMeshObservers.get( mesh ) ) );
+		for ( final SpringMesh mesh : meshList )
 		{
-			mesh.updateForce( singleMeshObserver );
 			force += mesh.getForce();
 
 			final double meshMaxForce = mesh.maxForce;
@@ -770,9 +819,9 @@ public class SpringMesh extends TransformMesh
 			/* </visualization> */
 
 			/* update force vectors */
-			for ( final SpringMesh mesh : meshes )
+			forEachMesh( meshList, executor, mesh -> mesh.updateForce( singleMeshObservers.get( mesh ) ) );
+			for ( final SpringMesh mesh : meshList )
 			{
-				mesh.updateForce( singleMeshObserver );
 				force += mesh.getForce();
 
 				final double meshMaxForce = mesh.maxForce;
@@ -787,9 +836,10 @@ public class SpringMesh extends TransformMesh
 			dt = Math.min( dt0, ( dt1 + dt0 ) / 2.0 );
 
 			/* update motion vectors */
-			for ( final SpringMesh mesh : meshes )
+			final double dtDirection = dt;
+			forEachMesh( meshList, executor, mesh -> mesh.updateDirection( dtDirection ) );
+			for ( final SpringMesh mesh : meshList )
 			{
-				mesh.updateDirection( dt );
 				if ( mesh.maxSpeed > maxSpeed )
 					maxSpeed = mesh.maxSpeed;
 			}
@@ -800,11 +850,8 @@ public class SpringMesh extends TransformMesh
 
 			dt1 = dt;
 
-
-			for ( final SpringMesh mesh : meshes )
-			{
-				mesh.update( dt );
-			}
+			final double dtUpdate = dt;
+			forEachMesh( meshList, executor, mesh -> mesh.update( dtUpdate ) );
 
 			println( new StringBuffer( i + " " ).append( force / meshes.size() ).append( " " ).append( minForce ).append( " " ).append( maxForce ).append( " " ).append( dt ).toString() );
 
@@ -827,11 +874,10 @@ public class SpringMesh extends TransformMesh
 			proceed &= ++i < maxIterations;
 		}
 
-		for ( final SpringMesh mesh : meshes )
-		{
+		forEachMesh( meshList, executor, mesh -> {
 			mesh.updateAffines();
 			mesh.updatePassiveVertices();
-		}
+		} );
 
 		System.out.println( "Successfully optimized " + meshes.size() + " meshes after " + i + " iterations:" );
 		System.out.println( "  average force: " + decimalFormat.format( force / meshes.size() ) + "N" );
@@ -839,6 +885,116 @@ public class SpringMesh extends TransformMesh
 		System.out.println( "  maximal force: " + decimalFormat.format( maxForce ) + "N" );
 	}
 
+	/**
+	 * Optimize a {@link Collection} of connected {@link SpringMesh SpringMeshes}
+	 * compiled into a {@link PackedSpringSystem}.  The dynamics are those of
+	 * {@link #optimizeMeshes(Collection, double, int, int, double, boolean)}.
+	 * The system is compiled for each call while the {@link Spring Springs}
+	 * stay in the {@link Vertex Vertices}, so peak memory use is higher than
+	 * that of {@link #optimizeMeshes(Collection, double, int, int, double, boolean)}.
+	 * To reduce memory, compile a {@link PackedSpringSystem} once, call
+	 * {@link PackedSpringSystem#releaseSprings()} and optimize that instead.
+	 *
+	 * @param maxError do not accept convergence if error is &gt; max_error
+	 * @param maxIterations stop after that many iterations even if there was
+	 *   no minimum found
+	 * @param maxPlateauwidth convergence is reached if the average slope in
+	 *   an interval of this size is 0.0 (in double accuracy).  This prevents
+	 *   the algorithm from stopping at plateaus smaller than this value.
+	 * @param maxStepSize
+	 */
+	public static void optimizeMeshesPacked(
+			final Collection< SpringMesh > meshes,
+			final double maxError,
+			final int maxIterations,
+			final int maxPlateauwidth,
+			final double maxStepSize )
+	{
+		final PackedSpringSystem system = new PackedSpringSystem( meshes );
+		final int i = system.optimize( maxError, maxIterations, maxPlateauwidth, maxStepSize );
+
+		System.out.println( "Successfully optimized " + meshes.size() + " meshes after " + i + " iterations:" );
+		System.out.println( "  average force: " + decimalFormat.format( system.getForce() / meshes.size() ) + "N" );
+		System.out.println( "  minimal force: " + decimalFormat.format( system.getMinForce() ) + "N" );
+		System.out.println( "  maximal force: " + decimalFormat.format( system.getMaxForce() ) + "N" );
+	}
+
+	/**
+	 * Find the rest state of a {@link Collection} of connected
+	 * {@link SpringMesh SpringMeshes} by minimizing the potential energy of
+	 * all {@link Spring Springs}, see
+	 * {@link PackedSpringSystem#minimizeEnergy(PackedSpringSystem.Param)}.
+	 * By default, the rest state is that of
+	 * {@link #optimizeMeshes(Collection, double, int, int, double, boolean)}.
+	 * With {@link PackedSpringSystem.Param#passiveReactions}, springs to
+	 * passive vertices pull at both meshes, and the rest state differs.
+	 * Like {@link #optimizeMeshesPacked(Collection, double, int, int, double)},
+	 * this compiles a {@link PackedSpringSystem} for each call and raises
+	 * peak memory use.
+	 *
+	 * @param meshes
+	 * @param param
+	 */
+	public static void minimizeMeshes(
+			final Collection< SpringMesh > meshes,
+			final PackedSpringSystem.Param param )
+	{
+		final PackedSpringSystem system = new PackedSpringSystem( meshes );
+		final int i = system.minimizeEnergy( param );
+
+		System.out.println( "Successfully optimized " + meshes.size() + " meshes after " + i + " iterations:" );
+		System.out.println( "  average force: " + decimalFormat.format( system.getForce() / meshes.size() ) + "N" );
+		System.out.println( "  minimal force: " + decimalFormat.format( system.getMinForce() ) + "N" );
+		System.out.println( "  maximal force: " + decimalFormat.format( system.getMaxForce() ) + "N" );
+	}
+
+	/**
+	 * An operation on a single {@link SpringMesh}.
+	 */
+	private interface MeshOperation
+	{
+		void run( SpringMesh mesh );
+	}
+
+	/**
+	 * Run an operation on all {@link SpringMesh SpringMeshes}, one task per
+	 * {@link SpringMesh}, and return when all are done.
+	 *
+	 * @param meshes
+	 * @param executor null to run sequentially in the calling thread
+	 * @param operation
+	 */
+	static private void forEachMesh(
+			final List< SpringMesh > meshes,
+			final ExecutorService executor,
+			final MeshOperation operation )
+	{
+		if ( executor == null )
+		{
+			for ( final SpringMesh mesh : meshes )
+				operation.run( mesh );
+			return;
+		}
+
+		final ArrayList< Future< ? > > tasks = new ArrayList< Future< ? > >( meshes.size() );
+		for ( final SpringMesh mesh : meshes )
+			tasks.add( executor.submit( () -> operation.run( mesh ) ) );
+
+		for ( final Future< ? > task : tasks )
+		{
+			try
+			{
+				task.get();
+			}
+			catch ( final InterruptedException | ExecutionException e )
+			{
+				for ( final Future< ? > t : tasks )
+					t.cancel( true );
+				throw new RuntimeException( e );
+			}
+		}
+	}
+
 
 	/* LEGACY OPTIMIZER */
 
@@ -245,6 +245,38 @@ public class Tile< M extends Model< M > > implements Serializable
 			match.apply( model, amount );
 	}
 
+	/**
+	 * Apply the current {@link AbstractModel} to all local point coordinates
+	 * like {@link #apply(double)} and measure how far the world coordinates
+	 * moved.
+	 *
+	 * <em>This method does not recalculate the cost of the tile.</em>
+	 *
+	 * @param amount
+	 * @return the maximal displacement of a world coordinate
+	 */
+	final public double applyAndMeasure( final double amount )
+	{
+		double maxSquareDisplacement = 0.0;
+		for ( final PointMatch match : matches )
+		{
+			final Point p = match.getP1();
+			final double[] w = p.getW();
+			final double[] a = model.apply( p.getL() );
+			final double s = match.getStrength() * amount;
+			double dd = 0.0;
+			for ( int i = 0; i < a.length; ++i )
+			{
+				final double dw = s * ( a[ i ] - w[ i ] );
+				w[ i ] += dw;
+				dd += dw * dw;
+			}
+			if ( dd > maxSquareDisplacement )
+				maxSquareDisplacement = dd;
+		}
+		return Math.sqrt( maxSquareDisplacement );
+	}
+
 	/**
 	 * Update {@link #cost} and {@link #distance}.
 	 */
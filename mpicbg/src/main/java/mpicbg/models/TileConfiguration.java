@@ -39,17 +39,23 @@ package mpicbg.models;
 
 import mpicbg.util.RealSum;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.ThreadPoolExecutor;
 
@@ -84,6 +90,33 @@ public class TileConfiguration implements Serializable
 	protected double error = Double.MAX_VALUE;
 	final public double getError() { return error; }
 
+	/* null means the executor shared by all configurations, see TileUtil#getSharedExecutor() */
+	protected transient ExecutorService executor = null;
+	protected int numThreads = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * Set the {@link ExecutorService} for concurrent optimization, e.g. a
+	 * {@link java.util.concurrent.ForkJoinPool} that is reused across many
+	 * configurations.  The executor is never shut down by this
+	 * {@link TileConfiguration}.
+	 *
+	 * @param executor null to use {@link TileUtil#getSharedExecutor()}
+	 * @param numThreads number of tasks that each concurrent step is split
+	 *   into, usually the parallelism of the executor
+	 */
+	public void setExecutor( final ExecutorService executor, final int numThreads )
+	{
+		this.executor = executor;
+		this.numThreads = numThreads;
+	}
+
+	public ExecutorService getExecutor()
+	{
+		return executor == null ? TileUtil.getSharedExecutor() : executor;
+	}
+
+	public int getNumThreads(){ return numThreads; }
+
 	public TileConfiguration()
 	{
 		decimalFormatSymbols.setGroupingSeparator( ',' );
@@ -152,9 +185,17 @@ public class TileConfiguration implements Serializable
 	 * {@link ThreadPoolExecutor}.
 	 */
 	protected void apply(final ThreadPoolExecutor executor) {
+		apply(executor, executor.getMaximumPoolSize());
+	}
+
+	/**
+	 * Apply the model of each {@link Tile} to all its
+	 * {@link PointMatch PointMatches} in nThreads tasks on a given
+	 * {@link ExecutorService}.
+	 */
+	protected void apply(final ExecutorService executor, final int nThreads) {
 		final List<Tile<?>> allTiles = new ArrayList<>(tiles);
 		final int nTiles = allTiles.size();
-		final int nThreads = executor.getMaximumPoolSize();
 		final int tilesPerThread = nTiles / nThreads + (nTiles % nThreads == 0 ? 0 : 1);
 		final List<Future<Void>> applyTasks = new ArrayList<>(nThreads);
 
@@ -205,50 +246,55 @@ public class TileConfiguration implements Serializable
 	/**
 	 * Estimate min/max/average displacement of all
 	 * {@link PointMatch PointMatches} in all {@link Tile Tiles} using
-	 * a given {@link ThreadPoolExecutor}.
+	 * a given {@link ThreadPoolExecutor}.  The costs of the tiles are
+	 * updated concurrently but summed up in a fixed order, so the result
+	 * does not depend on the number of threads.
 	 */
 	protected void updateErrors(final ThreadPoolExecutor executor) {
+		updateErrors(executor, executor.getMaximumPoolSize());
+	}
+
+	/**
+	 * Estimate min/max/average displacement of all
+	 * {@link PointMatch PointMatches} in all {@link Tile Tiles} in nThreads
+	 * tasks on a given {@link ExecutorService}.
+	 */
+	protected void updateErrors(final ExecutorService executor, final int nThreads) {
 		final List<Tile<?>> allTiles = new ArrayList<>(tiles);
 		final int nTiles = allTiles.size();
-		final int nThreads = executor.getMaximumPoolSize();
 		final int tilesPerThread = nTiles / nThreads + (nTiles % nThreads == 0 ? 0 : 1);
-		final List<Future<Double[]>> applyTasks = new ArrayList<>(nThreads);
+		final List<Future<Void>> applyTasks = new ArrayList<>(nThreads);
 
 		for (int j = 0; j < nThreads; j++) {
 			final int start = j * tilesPerThread;
 			final int end = Math.min((j + 1) * tilesPerThread, nTiles);
-			applyTasks.add(executor.submit(() -> computeErrorsOfRange(allTiles, start, end)));
+			applyTasks.add(executor.submit(() -> updateCostOfRange(allTiles, start, end)));
 		}
 
-		minError = Double.MAX_VALUE;
-		maxError = 0.0;
-		double sum = 0.0;
-		for (final Future<Double[]> task : applyTasks) {
+		for (final Future<Void> task : applyTasks) {
 			try {
-				final Double[] minMaxSum = task.get();
-				if (minMaxSum[0] < minError) minError = minMaxSum[0];
-				if (minMaxSum[1] > maxError) maxError = minMaxSum[1];
-				sum += minMaxSum[2];
+				task.get();
 			} catch (final InterruptedException | ExecutionException e) {
 				throw new RuntimeException(e);
 			}
 		}
-		error = sum / allTiles.size();
-	}
 
-	private static Double[] computeErrorsOfRange(List<Tile<?>> tiles, int start, int end) {
+		minError = Double.MAX_VALUE;
+		maxError = 0.0;
 		double sum = 0.0;
-		double minError = Double.MAX_VALUE;
-		double maxError = 0.0;
-		for (int i = start; i < end; i++) {
-			final Tile<?> t = tiles.get(i);
-			t.updateCost();
+		for (final Tile<?> t : allTiles) {
 			final double d = t.getDistance();
 			if (d < minError) minError = d;
 			if (d > maxError) maxError = d;
 			sum += d;
 		}
-		return new Double[] { minError, maxError, sum };
+		error = sum / nTiles;
+	}
+
+	private static Void updateCostOfRange(final List<Tile<?>> tiles, final int start, final int end) {
+		for (int i = start; i < end; i++)
+			tiles.get(i).updateCost();
+		return null;
 	}
 
 	/**
@@ -313,7 +359,146 @@ public class TileConfiguration implements Serializable
 			final int maxPlateauwidth,
 			final double damp ) throws NotEnoughDataPointsException, IllDefinedDataPointsException
 	{
-		int i = 0;
+		optimizeSilently( observer, maxAllowedError, maxIterations, maxPlateauwidth, damp, 0, null );
+	}
+
+	/**
+	 * Minimize the displacement of all {@link PointMatch Correspondence pairs}
+	 * of all {@link Tile Tiles} and write checkpoints periodically on a
+	 * background thread.  Resume with
+	 * {@link #resumeSilently(File, List, double, int, int, double, int)}.
+	 *
+	 * @param observer
+	 * @param maxAllowedError
+	 * @param maxIterations
+	 * @param maxPlateauwidth
+	 * @param damp
+	 * @param tiles all {@link Tile Tiles} of this configuration in an order
+	 *   that can be reproduced when resuming
+	 * @param checkpointFile
+	 * @param checkpointInterval write a checkpoint every that many iterations
+	 */
+	public void optimizeSilently(
+			final ErrorStatistic observer,
+			final double maxAllowedError,
+			final int maxIterations,
+			final int maxPlateauwidth,
+			final double damp,
+			final List< ? extends Tile< ? > > tiles,
+			final File checkpointFile,
+			final int checkpointInterval ) throws NotEnoughDataPointsException, IllDefinedDataPointsException, IOException
+	{
+		optimizeSilently( observer, maxAllowedError, maxIterations, maxPlateauwidth, damp, 0, tiles, checkpointFile, checkpointInterval );
+	}
+
+	/**
+	 * Restore the models, fixed {@link Tile Tiles}, {@link ErrorStatistic}
+	 * and iteration count from a checkpoint written by
+	 * {@link #optimizeSilently(ErrorStatistic, double, int, int, double, List, File, int)}
+	 * and continue the optimization, writing further checkpoints to the
+	 * same file.
+	 *
+	 * @param checkpointFile
+	 * @param tiles all {@link Tile Tiles} of this configuration in the same
+	 *   order as when the checkpoint was written
+	 * @param maxAllowedError
+	 * @param maxIterations total number of iterations including those before
+	 *   the checkpoint
+	 * @param maxPlateauwidth
+	 * @param damp
+	 * @param checkpointInterval
+	 * @return the restored and continued {@link ErrorStatistic}
+	 */
+	public ErrorStatistic resumeSilently(
+			final File checkpointFile,
+			final List< ? extends Tile< ? > > tiles,
+			final double maxAllowedError,
+			final int maxIterations,
+			final int maxPlateauwidth,
+			final double damp,
+			final int checkpointInterval ) throws NotEnoughDataPointsException, IllDefinedDataPointsException, IOException
+	{
+		final TileConfigurationCheckpoint checkpoint = TileConfigurationCheckpoint.read( checkpointFile );
+		checkpoint.restore( tiles, this );
+		final ErrorStatistic observer = checkpoint.getObserver();
+
+		optimizeSilently( observer, maxAllowedError, maxIterations, maxPlateauwidth, damp, checkpoint.getIteration(), tiles, checkpointFile, checkpointInterval );
+		return observer;
+	}
+
+	/**
+	 * Minimize the displacement of all {@link PointMatch Correspondence pairs}
+	 * of all {@link Tile Tiles} starting at a given iteration and write
+	 * checkpoints periodically.  A final checkpoint of the last completed
+	 * iteration is written also if the optimization fails.
+	 *
+	 * @return the number of completed iterations
+	 */
+	protected int optimizeSilently(
+			final ErrorStatistic observer,
+			final double maxAllowedError,
+			final int maxIterations,
+			final int maxPlateauwidth,
+			final double damp,
+			final int firstIteration,
+			final List< ? extends Tile< ? > > tiles,
+			final File checkpointFile,
+			final int checkpointInterval ) throws NotEnoughDataPointsException, IllDefinedDataPointsException, IOException
+	{
+		final TileConfigurationCheckpoint.Writer writer = new TileConfigurationCheckpoint.Writer( checkpointFile, checkpointInterval, tiles, firstIteration );
+		Throwable failure = null;
+		try
+		{
+			return optimizeSilently( observer, maxAllowedError, maxIterations, maxPlateauwidth, damp, firstIteration, writer );
+		}
+		catch ( final UncheckedIOException e )
+		{
+			failure = e.getCause();
+			throw e.getCause();
+		}
+		catch ( final NotEnoughDataPointsException | IllDefinedDataPointsException | RuntimeException | Error e )
+		{
+			failure = e;
+			throw e;
+		}
+		finally
+		{
+			try
+			{
+				writer.close( fixedTiles, observer );
+			}
+			catch ( final IOException e )
+			{
+				if ( failure == null )
+					throw e;
+				failure.addSuppressed( e );
+			}
+		}
+	}
+
+	/**
+	 * Minimize the displacement of all {@link PointMatch Correspondence pairs}
+	 * of all {@link Tile Tiles} starting at a given iteration.
+	 *
+	 * @param observer
+	 * @param maxAllowedError
+	 * @param maxIterations
+	 * @param maxPlateauwidth
+	 * @param damp
+	 * @param firstIteration
+	 * @param checkpointWriter null for no checkpoints
+	 * @return the number of completed iterations
+	 */
+	protected int optimizeSilently(
+			final ErrorStatistic observer,
+			final double maxAllowedError,
+			final int maxIterations,
+			final int maxPlateauwidth,
+			final double damp,
+			final int firstIteration,
+			final TileConfigurationCheckpoint.Writer checkpointWriter ) throws NotEnoughDataPointsException, IllDefinedDataPointsException
+	{
+		int i = firstIteration;
 
 		boolean proceed = i < maxIterations;
 
@@ -353,9 +538,593 @@ public class TileConfiguration implements Serializable
 //			println( new StringBuffer( i + " " ).append( error ).append( " " ).append( minError ).append( " " ).append( maxError ).toString() );
 
 			proceed &= ++i < maxIterations;
+
+			if ( checkpointWriter != null )
+				checkpointWriter.iterationDone( i, fixedTiles, observer );
+		}
+		return i;
+	}
+
+	/**
+	 * Minimize the displacement of all {@link PointMatch Correspondence pairs}
+	 * of all {@link Tile Tiles} visiting only {@link Tile Tiles} that may
+	 * still move.  Initially, all {@link Tile Tiles} are active.  A
+	 * {@link Tile} stays active for the next iteration if its world
+	 * coordinates moved by more than minDisplacement, and then activates its
+	 * connected {@link Tile Tiles} as well.  Only the costs of
+	 * {@link Tile Tiles} that were visited or are connected to a visited
+	 * {@link Tile} are updated.  The optimization has converged when no
+	 * {@link Tile} is active any more.
+	 *
+	 * @param observer
+	 * @param maxAllowedError do not accept convergence if error is &gt; max_error
+	 * @param maxIterations stop after that many iterations even if there was
+	 *   no minimum found
+	 * @param maxPlateauwidth convergence is reached if the average absolute
+	 *   slope in an interval of this size and half this size is smaller than
+	 *   0.0001 (in double accuracy).
+	 * @param damp
+	 * @param minDisplacement a {@link Tile} whose world coordinates moved by
+	 *   less than this value is considered converged
+	 */
+	public void optimizeSilentlyActiveSet(
+			final ErrorStatistic observer,
+			final double maxAllowedError,
+			final int maxIterations,
+			final int maxPlateauwidth,
+			final double damp,
+			final double minDisplacement ) throws NotEnoughDataPointsException, IllDefinedDataPointsException
+	{
+		/* initialize the configuration with the current model of each tile */
+		apply();
+
+		optimizeSilentlyActiveSet( observer, maxAllowedError, maxIterations, maxPlateauwidth, damp, minDisplacement, tiles );
+	}
+
+	/**
+	 * Minimize the displacement of all {@link PointMatch Correspondence pairs}
+	 * of all {@link Tile Tiles} starting with a given active set and the
+	 * current world coordinates, see
+	 * {@link #optimizeSilentlyActiveSet(ErrorStatistic, double, int, int, double, double)}.
+	 *
+	 * @param observer
+	 * @param maxAllowedError
+	 * @param maxIterations
+	 * @param maxPlateauwidth
+	 * @param damp
+	 * @param minDisplacement
+	 * @param initiallyActive
+	 */
+	protected void optimizeSilentlyActiveSet(
+			final ErrorStatistic observer,
+			final double maxAllowedError,
+			final int maxIterations,
+			final int maxPlateauwidth,
+			final double damp,
+			final double minDisplacement,
+			final Collection< ? extends Tile< ? > > initiallyActive ) throws NotEnoughDataPointsException, IllDefinedDataPointsException
+	{
+		int i = 0;
+
+		updateErrors();
+
+		double sumDistances = error * tiles.size();
+
+		LinkedHashSet< Tile< ? > > active = new LinkedHashSet< Tile< ? > >();
+		for ( final Tile< ? > tile : initiallyActive )
+			if ( tiles.contains( tile ) && !fixedTiles.contains( tile ) )
+				active.add( tile );
+
+		boolean proceed = i < maxIterations && !active.isEmpty();
+
+		final LinkedHashSet< Tile< ? > > visited = new LinkedHashSet< Tile< ? > >();
+		while ( proceed )
+		{
+			final LinkedHashSet< Tile< ? > > next = new LinkedHashSet< Tile< ? > >();
+			visited.clear();
+			for ( final Tile< ? > tile : active )
+			{
+				tile.fitModel();
+				visited.add( tile );
+				final double displacement = tile.applyAndMeasure( damp );
+				for ( final Tile< ? > o : tile.getConnectedTiles() )
+				{
+					if ( !tiles.contains( o ) )
+						continue;
+					visited.add( o );
+					if ( displacement > minDisplacement && !fixedTiles.contains( o ) )
+						next.add( o );
+				}
+				if ( displacement > minDisplacement )
+					next.add( tile );
+			}
+
+			for ( final Tile< ? > tile : visited )
+			{
+				sumDistances -= tile.getDistance();
+				tile.updateCost();
+				sumDistances += tile.getDistance();
+			}
+			error = sumDistances / tiles.size();
+			observer.add( error );
+
+			active = next;
+
+			proceed = !active.isEmpty();
+			if ( proceed && i > maxPlateauwidth )
+			{
+				proceed = error > maxAllowedError;
+
+				int d = maxPlateauwidth;
+				while ( !proceed && d >= 1 )
+				{
+					try
+					{
+						proceed |= Math.abs( observer.getWideSlope( d ) ) > 0.0001;
+					}
+					catch ( final Exception e ) { e.printStackTrace(); }
+					d /= 2;
+				}
+			}
+
+			proceed &= ++i < maxIterations;
+		}
+
+		updateErrors();
+	}
+
+	/**
+	 * Minimize the displacement of all {@link PointMatch Correspondence pairs}
+	 * of all {@link Tile Tiles} with heavy ball momentum \cite{Polyak64}.
+	 * The iteration is the same as in
+	 * {@link #optimizeSilently(ErrorStatistic, double, int, int, double)}
+	 * but each world coordinate is extrapolated by momentum times its
+	 * change in the previous iteration:
+	 *
+	 * w<sub>k+1</sub> = w<sub>k</sub> + damp (T(l) - w<sub>k</sub>) +
+	 *   momentum (w<sub>k</sub> - w<sub>k-1</sub>)
+	 *
+	 * Whenever the error increases, the momentum is dropped for one
+	 * iteration, i.e. it falls back to plain damped relaxation
+	 * \cite{ODonoghueC15}.
+	 *
+	 * BibTeX:
+	 * <pre>
+	 * &#64;article{Polyak64,
+	 *   author    = {Boris T. Polyak},
+	 *   title     = {Some methods of speeding up the convergence of iteration methods},
+	 *   journal   = {USSR Computational Mathematics and Mathematical Physics},
+	 *   volume    = {4},
+	 *   number    = {5},
+	 *   year      = {1964},
+	 *   pages     = {1--17},
+	 * }
+	 * &#64;article{ODonoghueC15,
+	 *   author    = {Brendan O'Donoghue and Emmanuel Cand{\`e}s},
+	 *   title     = {Adaptive Restart for Accelerated Gradient Schemes},
+	 *   journal   = {Foundations of Computational Mathematics},
+	 *   volume    = {15},
+	 *   number    = {3},
+	 *   year      = {2015},
+	 *   pages     = {715--732},
+	 * }
+	 * </pre>
+	 *
+	 * @param observer
+	 * @param maxAllowedError do not accept convergence if error is &gt; max_error
+	 * @param maxIterations stop after that many iterations even if there was
+	 *   no minimum found
+	 * @param maxPlateauwidth convergence is reached if the average absolute
+	 *   slope in an interval of this size and half this size is smaller than
+	 *   0.0001 (in double accuracy).
+	 * @param damp
+	 * @param momentum in [0, 1), 0 is plain damped relaxation, e.g. 0.5
+	 */
+	public void optimizeSilentlyMomentum(
+			final ErrorStatistic observer,
+			final double maxAllowedError,
+			final int maxIterations,
+			final int maxPlateauwidth,
+			final double damp,
+			final double momentum ) throws NotEnoughDataPointsException, IllDefinedDataPointsException
+	{
+		int i = 0;
+
+		boolean proceed = i < maxIterations;
+
+		/* initialize the configuration with the current model of each tile */
+		apply();
+
+		/* world coordinates of the previous iteration */
+		final IdentityHashMap< Tile< ? >, double[] > previous = new IdentityHashMap< Tile< ? >, double[] >();
+		for ( final Tile< ? > tile : tiles )
+		{
+			if ( fixedTiles.contains( tile ) ) continue;
+			final Set< PointMatch > matches = tile.getMatches();
+			final double[] w = new double[ matches.isEmpty() ? 0 : matches.size() * matches.iterator().next().getP1().getW().length ];
+			int k = 0;
+			for ( final PointMatch match : matches )
+				for ( final double x : match.getP1().getW() )
+					w[ k++ ] = x;
+			previous.put( tile, w );
+		}
+
+		double beta = 0;
+		double lastError = Double.MAX_VALUE;
+		while ( proceed )
+		{
+			for ( final Tile< ? > tile : tiles )
+			{
+				if ( fixedTiles.contains( tile ) ) continue;
+				tile.fitModel();
+				applyWithMomentum( tile, damp, beta, previous.get( tile ) );
+			}
+			updateErrors();
+			observer.add( error );
+
+			/* adaptive restart */
+			beta = error > lastError ? 0 : momentum;
+			lastError = error;
+
+			if ( i > maxPlateauwidth )
+			{
+				proceed = error > maxAllowedError;
+
+				int d = maxPlateauwidth;
+				while ( !proceed && d >= 1 )
+				{
+					try
+					{
+						proceed |= Math.abs( observer.getWideSlope( d ) ) > 0.0001;
+					}
+					catch ( final Exception e ) { e.printStackTrace(); }
+					d /= 2;
+				}
+			}
+
+			proceed &= ++i < maxIterations;
 		}
 	}
 
+	/**
+	 * Apply the model of a {@link Tile} like {@link Tile#apply(double)} and
+	 * add momentum times the change of the world coordinates since the
+	 * previous iteration.
+	 *
+	 * @param tile
+	 * @param amount
+	 * @param momentum
+	 * @param previous world coordinates of the previous iteration, packed
+	 *   in the iteration order of the {@link Tile Tile's} matches, will be
+	 *   replaced by the current world coordinates
+	 */
+	static protected void applyWithMomentum(
+			final Tile< ? > tile,
+			final double amount,
+			final double momentum,
+			final double[] previous )
+	{
+		final CoordinateTransform model = tile.getModel();
+		int k = 0;
+		for ( final PointMatch match : tile.getMatches() )
+		{
+			final Point p = match.getP1();
+			final double[] w = p.getW();
+			final double[] a = model.apply( p.getL() );
+			final double s = match.getStrength() * amount;
+			for ( int d = 0; d < w.length; ++d, ++k )
+			{
+				final double x = w[ d ];
+				w[ d ] = x + s * ( a[ d ] - x ) + momentum * ( x - previous[ k ] );
+				previous[ k ] = x;
+			}
+		}
+	}
+
+	/**
+	 * Minimize the displacement of all {@link PointMatch Correspondence pairs}
+	 * of all {@link Tile Tiles} with multigrid V-cycles.  Connected
+	 * {@link Tile Tiles} are aggregated into super tiles, see
+	 * {@link TileUtil#generateAggregates(Collection, Set)}.  Each super tile
+	 * has one model that transfers the current world coordinates of all its
+	 * {@link Tile Tiles}.  A cycle runs {@link #NUM_SMOOTHING_ITERATIONS}
+	 * iterations of {@link #optimizeSilently} to smooth errors between
+	 * neighbouring {@link Tile Tiles}, then one cycle on the configuration
+	 * of super tiles, coarsened in the same way down to minNumTiles
+	 * {@link Tile Tiles}.  The coarsest level runs
+	 * {@link #NUM_COARSEST_ITERATIONS} iterations.  The cycle then
+	 * concatenates each super tile's model to the models of its
+	 * {@link Tile Tiles} and smooths again.  Low frequency deformations that
+	 * iterations on the full configuration propagate by one neighbour per
+	 * iteration are thus resolved on the coarse levels at a cost
+	 * proportional to the number of {@link Tile Tiles} per cycle.  At most
+	 * {@link #MAX_NUM_CYCLES} cycles are run while they reduce the error,
+	 * then the configuration is optimized with {@link #optimizeSilently}.
+	 *
+	 * Fixed {@link Tile Tiles} and super tiles whose model cannot be
+	 * estimated from their matches remain where they are on the coarse
+	 * levels.  Concatenation fits each {@link Tile Tile's} model, so the
+	 * models must be closed under concatenation, e.g. translation, rigid,
+	 * similarity or affine.
+	 *
+	 * @param observer collects the errors of the final iterations
+	 * @param maxAllowedError
+	 * @param maxIterations of the final iterations
+	 * @param maxPlateauwidth
+	 * @param damp
+	 * @param minNumTiles stop coarsening at this number of {@link Tile Tiles}
+	 * @return the total number of iterations on all levels
+	 */
+	public int optimizeSilentlyHierarchically(
+			final ErrorStatistic observer,
+			final double maxAllowedError,
+			final int maxIterations,
+			final int maxPlateauwidth,
+			final double damp,
+			final int minNumTiles ) throws NotEnoughDataPointsException, IllDefinedDataPointsException
+	{
+		int numIterations = 0;
+		final List< List< Tile< ? > > > aggregates = coarsen( minNumTiles );
+		if ( aggregates != null )
+		{
+			/* V-cycles until the coarse corrections do not help any more */
+			double lastError = Double.MAX_VALUE;
+			for ( int cycle = 0; cycle < MAX_NUM_CYCLES; ++cycle )
+			{
+				numIterations += cycle( aggregates, maxAllowedError, maxPlateauwidth, damp, minNumTiles );
+				if ( error >= lastError * ( 1.0 - MIN_CYCLE_IMPROVEMENT ) || error <= maxAllowedError )
+					break;
+				lastError = error;
+			}
+		}
+
+		return numIterations + optimizeSilently( observer, maxAllowedError, maxIterations, maxPlateauwidth, damp, 0, null );
+	}
+
+	/**
+	 * Minimize the displacement of all {@link PointMatch Correspondence pairs}
+	 * of all {@link Tile Tiles} coarse to fine coarsening down to 16
+	 * {@link Tile Tiles}.
+	 *
+	 * @return the total number of iterations on all levels
+	 */
+	public int optimizeSilentlyHierarchically(
+			final ErrorStatistic observer,
+			final double maxAllowedError,
+			final int maxIterations,
+			final int maxPlateauwidth,
+			final double damp ) throws NotEnoughDataPointsException, IllDefinedDataPointsException
+	{
+		return optimizeSilentlyHierarchically( observer, maxAllowedError, maxIterations, maxPlateauwidth, damp, 16 );
+	}
+
+	/**
+	 * Number of iterations on each level before and after the coarse
+	 * correction in {@link #optimizeSilentlyHierarchically}.
+	 */
+	final static protected int NUM_SMOOTHING_ITERATIONS = 10;
+
+	/**
+	 * Number of iterations on the coarsest level in
+	 * {@link #optimizeSilentlyHierarchically}.
+	 */
+	final static protected int NUM_COARSEST_ITERATIONS = 100;
+
+	/**
+	 * Maximal number of V-cycles in
+	 * {@link #optimizeSilentlyHierarchically}.
+	 */
+	final static protected int MAX_NUM_CYCLES = 50;
+
+	/**
+	 * Relative error reduction of a cycle in
+	 * {@link #optimizeSilentlyHierarchically} below which no more cycles
+	 * are run.
+	 */
+	final static protected double MIN_CYCLE_IMPROVEMENT = 0.001;
+
+	/**
+	 * Aggregate the {@link Tile Tiles} for the next coarser level.
+	 *
+	 * @param minNumTiles
+	 * @return the aggregates or null if this level has no more than
+	 *   minNumTiles {@link Tile Tiles} or cannot be coarsened
+	 */
+	protected List< List< Tile< ? > > > coarsen( final int minNumTiles )
+	{
+		if ( tiles.size() <= minNumTiles )
+			return null;
+		final List< List< Tile< ? > > > aggregates = TileUtil.generateAggregates( tiles, fixedTiles );
+		return aggregates.size() < tiles.size() ? aggregates : null;
+	}
+
+	/**
+	 * Run a fixed number of iterations of {@link #optimizeSilently}.
+	 *
+	 * @return the number of iterations
+	 */
+	protected int smooth(
+			final int numIterations,
+			final double maxAllowedError,
+			final int maxPlateauwidth,
+			final double damp ) throws NotEnoughDataPointsException, IllDefinedDataPointsException
+	{
+		return optimizeSilently( new ErrorStatistic( maxPlateauwidth + 1 ), maxAllowedError, numIterations, maxPlateauwidth, damp, 0, null );
+	}
+
+	/**
+	 * One V-cycle: smoothing, coarse correction and smoothing.
+	 *
+	 * @return the number of iterations on this and all coarser levels
+	 */
+	protected int cycle(
+			final List< List< Tile< ? > > > aggregates,
+			final double maxAllowedError,
+			final int maxPlateauwidth,
+			final double damp,
+			final int minNumTiles ) throws NotEnoughDataPointsException, IllDefinedDataPointsException
+	{
+		int numIterations = smooth( NUM_SMOOTHING_ITERATIONS, maxAllowedError, maxPlateauwidth, damp );
+		numIterations += coarseCorrection( aggregates, maxAllowedError, maxPlateauwidth, damp, minNumTiles );
+		numIterations += smooth( NUM_SMOOTHING_ITERATIONS, maxAllowedError, maxPlateauwidth, damp );
+		return numIterations;
+	}
+
+	/**
+	 * Run one cycle on the configuration of super tiles, or
+	 * {@link #NUM_COARSEST_ITERATIONS} iterations if it is the coarsest
+	 * level, and concatenate their models to the models of their
+	 * {@link Tile Tiles}.
+	 *
+	 * @return the number of iterations on all coarser levels
+	 */
+	protected int coarseCorrection(
+			final List< List< Tile< ? > > > aggregates,
+			final double maxAllowedError,
+			final int maxPlateauwidth,
+			final double damp,
+			final int minNumTiles ) throws NotEnoughDataPointsException, IllDefinedDataPointsException
+	{
+		final TileConfiguration coarse = new TileConfiguration();
+		final ArrayList< Tile< ? > > coarseTiles = createCoarseTiles( aggregates );
+		for ( final Tile< ? > coarseTile : coarseTiles )
+			if ( coarseTile != null )
+				coarse.addTile( coarseTile );
+
+		if ( coarse.getTiles().isEmpty() )
+			return 0;
+
+		final List< List< Tile< ? > > > coarseAggregates = coarse.coarsen( minNumTiles );
+		final int numIterations;
+		if ( coarseAggregates == null )
+			numIterations = coarse.smooth( NUM_COARSEST_ITERATIONS, maxAllowedError, maxPlateauwidth, damp );
+		else
+			numIterations = coarse.cycle( coarseAggregates, maxAllowedError, maxPlateauwidth, damp, minNumTiles );
+
+		/* prolongation */
+		for ( int i = 0; i < coarseTiles.size(); ++i )
+		{
+			final Tile< ? > coarseTile = coarseTiles.get( i );
+			if ( coarseTile == null )
+				continue;
+			for ( final Tile< ? > t : aggregates.get( i ) )
+				concatenate( t, coarseTile.getModel() );
+		}
+		apply();
+		updateErrors();
+
+		return numIterations;
+	}
+
+	/**
+	 * Create a super tile for each aggregate that has no fixed
+	 * {@link Tile}.  Its {@link PointMatch PointMatches} are the matches
+	 * to other aggregates with the current world coordinates as local
+	 * coordinates.  Its model is a copy of the first {@link Tile Tile's}
+	 * model, set to identity.
+	 *
+	 * @param aggregates
+	 * @return super tiles, null for aggregates that remain constant
+	 */
+	protected ArrayList< Tile< ? > > createCoarseTiles( final List< List< Tile< ? > > > aggregates )
+	{
+		final IdentityHashMap< Point, Integer > pointAggregates = new IdentityHashMap< Point, Integer >();
+		for ( int i = 0; i < aggregates.size(); ++i )
+			for ( final Tile< ? > t : aggregates.get( i ) )
+				for ( final PointMatch m : t.getMatches() )
+					pointAggregates.put( m.getP1(), i );
+
+		final IdentityHashMap< Point, Point > coarsePoints = new IdentityHashMap< Point, Point >();
+		final ArrayList< Tile< ? > > coarseTiles = new ArrayList< Tile< ? > >( aggregates.size() );
+		final ArrayList< ArrayList< Integer > > coarseConnections = new ArrayList< ArrayList< Integer > >( aggregates.size() );
+		for ( int i = 0; i < aggregates.size(); ++i )
+		{
+			final List< Tile< ? > > aggregate = aggregates.get( i );
+			final ArrayList< Integer > connections = new ArrayList< Integer >();
+			coarseConnections.add( connections );
+			if ( fixedTiles.contains( aggregate.get( 0 ) ) )
+			{
+				coarseTiles.add( null );
+				continue;
+			}
+
+			final Tile< ? > coarseTile = createTile( aggregate.get( 0 ) );
+			final ArrayList< PointMatch > identity = new ArrayList< PointMatch >();
+			for ( final Tile< ? > t : aggregate )
+			{
+				for ( final PointMatch m : t.getMatches() )
+				{
+					final Integer j = pointAggregates.get( m.getP2() );
+					if ( j != null && j == i )
+						continue;
+
+					final Point p1 = coarsePoint( m.getP1(), coarsePoints );
+					final Point p2 = coarsePoint( m.getP2(), coarsePoints );
+					coarseTile.addMatch( new PointMatch( p1, p2, m.getWeight() ) );
+					identity.add( new PointMatch( p1, new Point( p1.getL() ), 1.0 ) );
+					if ( j != null && !connections.contains( j ) )
+						connections.add( j );
+				}
+			}
+
+			try
+			{
+				coarseTile.getModel().fit( identity );
+				coarseTiles.add( coarseTile );
+			}
+			catch ( final NotEnoughDataPointsException | IllDefinedDataPointsException e )
+			{
+				coarseTiles.add( null );
+			}
+		}
+
+		for ( int i = 0; i < coarseTiles.size(); ++i )
+		{
+			final Tile< ? > coarseTile = coarseTiles.get( i );
+			if ( coarseTile == null )
+				continue;
+			for ( final int j : coarseConnections.get( i ) )
+				if ( coarseTiles.get( j ) != null )
+					coarseTile.addConnectedTile( coarseTiles.get( j ) );
+		}
+
+		return coarseTiles;
+	}
+
+	static protected Point coarsePoint( final Point p, final IdentityHashMap< Point, Point > coarsePoints )
+	{
+		Point q = coarsePoints.get( p );
+		if ( q == null )
+		{
+			q = new Point( p.getW().clone() );
+			coarsePoints.put( p, q );
+		}
+		return q;
+	}
+
+	static protected < M extends Model< M > > Tile< M > createTile( final Tile< M > t )
+	{
+		return new Tile< M >( t.getModel().copy() );
+	}
+
+	/**
+	 * Set the model of a {@link Tile} to the transformation of its current
+	 * world coordinates by t by fitting it.  The model remains unchanged if
+	 * it cannot be fit.
+	 */
+	static protected void concatenate( final Tile< ? > tile, final CoordinateTransform t )
+	{
+		final ArrayList< PointMatch > matches = new ArrayList< PointMatch >( tile.getMatches().size() );
+		for ( final PointMatch m : tile.getMatches() )
+			matches.add( new PointMatch( new Point( m.getP1().getL().clone() ), new Point( t.apply( m.getP1().getW() ) ), m.getWeight() ) );
+
+		try
+		{
+			tile.getModel().fit( matches );
+		}
+		catch ( final NotEnoughDataPointsException | IllDefinedDataPointsException e ) {}
+	}
+
 	public void optimizeSilentlyConcurrent(
 			final ErrorStatistic observer,
 			final double maxAllowedError,
@@ -364,7 +1133,78 @@ public class TileConfiguration implements Serializable
 			final double damp ) throws InterruptedException, ExecutionException
 	{
 		TileUtil.optimizeConcurrently(observer, maxAllowedError, maxIterations, maxPlateauwidth, damp,
-				this, tiles, fixedTiles, Runtime.getRuntime().availableProcessors());
+				this, tiles, fixedTiles, getExecutor(), numThreads, false);
+	}
+
+	/**
+	 * Minimize the displacement of all {@link PointMatch Correspondence pairs}
+	 * of all {@link Tile Tiles} with Jacobi iterations, i.e. all
+	 * {@link Tile Tiles} are fit concurrently against the world coordinates
+	 * of the previous iteration, see
+	 * {@link TileUtil#optimizeJacobi(ErrorStatistic, double, int, int, double, TileConfiguration, Set, Set, int)}.
+	 * The result does not depend on the number of threads.
+	 *
+	 * @param observer
+	 * @param maxAllowedError
+	 * @param maxIterations
+	 * @param maxPlateauwidth
+	 * @param damp should be &lt; 1, e.g. 0.5, to prevent oscillation
+	 * @param nThreads
+	 */
+	public void optimizeSilentlyJacobi(
+			final ErrorStatistic observer,
+			final double maxAllowedError,
+			final int maxIterations,
+			final int maxPlateauwidth,
+			final double damp,
+			final int nThreads )
+	{
+		TileUtil.optimizeJacobi( observer, maxAllowedError, maxIterations, maxPlateauwidth, damp,
+				this, tiles, fixedTiles, getExecutor(), nThreads );
+	}
+
+	public void optimizeSilentlyJacobi(
+			final ErrorStatistic observer,
+			final double maxAllowedError,
+			final int maxIterations,
+			final int maxPlateauwidth,
+			final double damp )
+	{
+		optimizeSilentlyJacobi( observer, maxAllowedError, maxIterations, maxPlateauwidth, damp, numThreads );
+	}
+
+	/**
+	 * Minimize the displacement of all {@link PointMatch Correspondence pairs}
+	 * of all {@link Tile Tiles} on a compiled {@link PackedTileConfiguration}.
+	 * Like {@link #optimizeSilently(ErrorStatistic, double, int, int, double)}
+	 * but with packed matches and a locality preserving {@link Tile} order,
+	 * see {@link PackedTileConfiguration#optimizeSilently}.  This
+	 * configuration is compiled for each call and its
+	 * {@link PointMatch PointMatches} stay in memory, so peak memory use is
+	 * higher than that of
+	 * {@link #optimizeSilently(ErrorStatistic, double, int, int, double)}.
+	 * To reduce memory, compile a {@link PackedTileConfiguration} once,
+	 * release the {@link Tile Tiles} and optimize that instead.
+	 * The world coordinates and errors of this configuration are updated
+	 * at the end.
+	 *
+	 * @param observer
+	 * @param maxAllowedError
+	 * @param maxIterations
+	 * @param maxPlateauwidth
+	 * @param damp
+	 */
+	public void optimizeSilentlyPacked(
+			final ErrorStatistic observer,
+			final double maxAllowedError,
+			final int maxIterations,
+			final int maxPlateauwidth,
+			final double damp ) throws NotEnoughDataPointsException, IllDefinedDataPointsException
+	{
+		final PackedTileConfiguration packed = new PackedTileConfiguration( this );
+		packed.optimizeSilently( observer, maxAllowedError, maxIterations, maxPlateauwidth, damp );
+		apply();
+		updateErrors();
 	}
 
 	/**
@@ -443,6 +1283,52 @@ public class TileConfiguration implements Serializable
 	}
 
 
+	/**
+	 * Minimize the displacement of all {@link PointMatch Correspondence pairs}
+	 * of all {@link Tile Tiles} by solving the normal equations of all
+	 * {@link Tile Tiles} at once with a {@link SparseTileSolver}.  This
+	 * supports only {@link Tile Tiles} with models that are linear in their
+	 * parameters or can be linearized, see
+	 * {@link SparseTileSolver#isSupported(Model)}.
+	 *
+	 * @param param
+	 */
+	public void optimizeSparseSilently( final SparseTileSolver.Param param )
+	{
+		new SparseTileSolver( tiles, fixedTiles ).solve( param );
+		apply();
+		updateErrors();
+	}
+
+	/**
+	 * Minimize the displacement of all {@link PointMatch Correspondence pairs}
+	 * of all {@link Tile Tiles} with a {@link SparseTileSolver} and tell
+	 * about it.
+	 *
+	 * @param param
+	 */
+	public void optimizeSparse( final SparseTileSolver.Param param )
+	{
+		println( "Optimizing..." );
+
+		optimizeSparseSilently( param );
+
+		println( new StringBuffer( "Successfully optimized configuration of " ).append( tiles.size() ).append( " tiles:" ).toString() );
+		println( new StringBuffer( "  average displacement: " ).append( decimalFormat.format( error ) ).append( "px" ).toString() );
+		println( new StringBuffer( "  minimal displacement: " ).append( decimalFormat.format( minError ) ).append( "px" ).toString() );
+		println( new StringBuffer( "  maximal displacement: " ).append( decimalFormat.format( maxError ) ).append( "px" ).toString() );
+	}
+
+	/**
+	 * Minimize the displacement of all {@link PointMatch Correspondence pairs}
+	 * of all {@link Tile Tiles} with a {@link SparseTileSolver} using default
+	 * parameters and tell about it.
+	 */
+	public void optimizeSparse()
+	{
+		optimizeSparse( new SparseTileSolver.Param() );
+	}
+
 	public void optimizeAndFilter(
 			final double maxAllowedError,
 			final int maxIterations,
@@ -518,6 +1404,94 @@ A:				for ( final Tile< ? > t : tiles )
 		optimizeAndFilter( maxAllowedError, maxIterations, maxPlateauwidth, 1.0f, maxMeanFactor );
 	}
 
+	/**
+	 * Minimize the displacement of all {@link PointMatch Correspondence pairs}
+	 * of all {@link Tile Tiles} and remove bad {@link Tile} connections like
+	 * {@link #optimizeAndFilter(double, int, int, double, double)}, but
+	 * optimize the whole configuration only once.  After each removal of the
+	 * worst connection, only the two {@link Tile Tiles} that lost it are
+	 * re-relaxed starting from their current models, and their neighbours
+	 * are visited only while something moves, see
+	 * {@link #optimizeSilentlyActiveSet(ErrorStatistic, double, int, int, double, double)}.
+	 *
+	 * @param maxAllowedError
+	 * @param maxIterations
+	 * @param maxPlateauwidth
+	 * @param damp
+	 * @param maxMeanFactor
+	 * @param minDisplacement a {@link Tile} whose world coordinates moved by
+	 *   less than this value is considered converged
+	 */
+	public void optimizeAndFilterIncrementally(
+			final double maxAllowedError,
+			final int maxIterations,
+			final int maxPlateauwidth,
+			final double damp,
+			final double maxMeanFactor,
+			final double minDisplacement ) throws NotEnoughDataPointsException, IllDefinedDataPointsException
+	{
+		println( "Optimizing..." );
+
+		optimizeSilently( new ErrorStatistic( maxPlateauwidth + 1 ), maxAllowedError, maxIterations, maxPlateauwidth, damp );
+
+		println( "Filter outliers..." );
+
+		final ArrayList< Tile< ? > > changed = new ArrayList< Tile< ? > >();
+		while ( true )
+		{
+			/* get all transfer errors */
+			final RealSum sum = new RealSum();
+			final RealSum weights = new RealSum();
+
+			double dMax = 0;
+			Tile< ? > worstTile = null;
+			PointMatch worstMatch = null;
+
+			for ( final Tile< ? > t : tiles )
+				t.update();
+
+			for ( final Tile< ? > t : tiles )
+			{
+				for ( final PointMatch p : t.getMatches() )
+				{
+					final double d = p.getDistance();
+					final double w = p.getWeight();
+					sum.add( d * w  );
+					weights.add( w );
+					if ( d > dMax )
+					{
+						dMax = d;
+						worstTile = t;
+						worstMatch = p;
+					}
+				}
+			}
+
+			/* remove the worst if there is one */
+			if ( worstMatch == null || dMax <= maxMeanFactor * sum.getSum() / weights.getSum() )
+				break;
+
+			final Tile< ? > o = worstTile.findConnectedTile( worstMatch );
+			if ( o == null )
+				break;
+
+			worstTile.removeConnectedTile( o );
+			o.removeConnectedTile( worstTile );
+			println( "Removing bad tile connection from configuration, error = " + dMax );
+
+			/* re-relax the neighbourhood of the removed connection */
+			changed.clear();
+			changed.add( worstTile );
+			changed.add( o );
+			optimizeSilentlyActiveSet( new ErrorStatistic( maxPlateauwidth + 1 ), maxAllowedError, maxIterations, maxPlateauwidth, damp, minDisplacement, changed );
+		}
+
+		println( new StringBuffer( "Successfully optimized configuration of " ).append( tiles.size() ).append( " tiles:" ).toString() );
+		println( new StringBuffer( "  average displacement: " ).append( decimalFormat.format( error ) ).append( "px" ).toString() );
+		println( new StringBuffer( "  minimal displacement: " ).append( decimalFormat.format( minError ) ).append( "px" ).toString() );
+		println( new StringBuffer( "  maximal displacement: " ).append( decimalFormat.format( maxError ) ).append( "px" ).toString() );
+	}
+
 	/**
 	 * Computes a pre-alignemnt of all non-fixed {@link Tile}s by propagating the pairwise
 	 * models. This does not give a correct registration but a very good starting point
@@ -0,0 +1,381 @@
+/*-
+ * #%L
+ * MPICBG Core Library.
+ * %%
+ * Copyright (C) 2008 - 2025 Stephan Saalfeld et. al.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package mpicbg.models;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A snapshot of the state of an iterative {@link TileConfiguration}
+ * optimization: the models of all {@link Tile Tiles}, the set of fixed
+ * {@link Tile Tiles}, the {@link ErrorStatistic} and the iteration count.
+ *
+ * {@link Tile Tiles} are identified by their index in a {@link List} that
+ * the caller must create in the same order when resuming.  The binary
+ * format is a Java object stream with a header, the serialized
+ * {@link ErrorStatistic}, and one fixed flag and one serialized model per
+ * {@link Tile}.  Class descriptors are written only once, so a checkpoint
+ * takes about 120 bytes per {@link Tile} with a 2d affine model.
+ */
+public class TileConfigurationCheckpoint
+{
+	final static protected int MAGIC = 0x4d504354;
+	final static protected int VERSION = 1;
+
+	final protected int iteration;
+	public int getIteration(){ return iteration; }
+
+	final protected Model< ? >[] models;
+	final protected boolean[] fixed;
+
+	/* the observer is serialized immediately so that it can keep changing */
+	final protected byte[] observer;
+
+	protected TileConfigurationCheckpoint(
+			final int iteration,
+			final Model< ? >[] models,
+			final boolean[] fixed,
+			final byte[] observer )
+	{
+		this.iteration = iteration;
+		this.models = models;
+		this.fixed = fixed;
+		this.observer = observer;
+	}
+
+	/**
+	 * Create a snapshot.  Models are copied, so the snapshot can be written
+	 * while the optimization continues.
+	 *
+	 * @param tiles
+	 * @param fixedTiles
+	 * @param observer
+	 * @param iteration number of completed iterations
+	 * @return
+	 */
+	static public TileConfigurationCheckpoint create(
+			final List< ? extends Tile< ? > > tiles,
+			final Set< ? extends Tile< ? > > fixedTiles,
+			final ErrorStatistic observer,
+			final int iteration )
+	{
+		final Model< ? >[] models = new Model< ? >[ tiles.size() ];
+		final boolean[] fixed = new boolean[ tiles.size() ];
+		for ( int i = 0; i < models.length; ++i )
+		{
+			final Tile< ? > tile = tiles.get( i );
+			models[ i ] = tile.getModel().copy();
+			fixed[ i ] = fixedTiles.contains( tile );
+		}
+
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try
+		{
+			final DataOutputStream out = new DataOutputStream( bytes );
+			observer.write( out );
+			out.flush();
+		}
+		catch ( final IOException e )
+		{
+			/* cannot happen in memory */
+			throw new RuntimeException( e );
+		}
+
+		return new TileConfigurationCheckpoint( iteration, models, fixed, bytes.toByteArray() );
+	}
+
+	/**
+	 * @return a new copy of the {@link ErrorStatistic}
+	 */
+	public ErrorStatistic getObserver()
+	{
+		try
+		{
+			return ErrorStatistic.read( new DataInputStream( new ByteArrayInputStream( observer ) ) );
+		}
+		catch ( final IOException e )
+		{
+			throw new RuntimeException( e );
+		}
+	}
+
+	public void write( final OutputStream outputStream ) throws IOException
+	{
+		final ObjectOutputStream out = new ObjectOutputStream( new BufferedOutputStream( outputStream ) );
+		out.writeInt( MAGIC );
+		out.writeInt( VERSION );
+		out.writeInt( iteration );
+		out.writeInt( models.length );
+		out.writeInt( observer.length );
+		out.write( observer );
+		for ( int i = 0; i < models.length; ++i )
+		{
+			out.writeBoolean( fixed[ i ] );
+			out.writeObject( models[ i ] );
+		}
+		out.flush();
+	}
+
+	/**
+	 * Write to a temporary file first and move it to the target file when
+	 * complete, such that an interrupted write leaves the previous
+	 * checkpoint intact.
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	public void write( final File file ) throws IOException
+	{
+		final File tmp = new File( file.getPath() + ".tmp" );
+		try ( final FileOutputStream out = new FileOutputStream( tmp ) )
+		{
+			write( out );
+			out.getFD().sync();
+		}
+		Files.move( tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+	}
+
+	static public TileConfigurationCheckpoint read( final InputStream inputStream ) throws IOException
+	{
+		final ObjectInputStream in = new ObjectInputStream( new BufferedInputStream( inputStream ) );
+		if ( in.readInt() != MAGIC )
+			throw new IOException( "Not a tile configuration checkpoint." );
+		final int version = in.readInt();
+		if ( version != VERSION )
+			throw new IOException( "Unsupported tile configuration checkpoint version " + version + "." );
+		final int iteration = in.readInt();
+		final int numTiles = in.readInt();
+		final byte[] observer = new byte[ in.readInt() ];
+		in.readFully( observer );
+		final Model< ? >[] models = new Model< ? >[ numTiles ];
+		final boolean[] fixed = new boolean[ numTiles ];
+		try
+		{
+			for ( int i = 0; i < numTiles; ++i )
+			{
+				fixed[ i ] = in.readBoolean();
+				models[ i ] = ( Model< ? > )in.readObject();
+			}
+		}
+		catch ( final ClassNotFoundException e )
+		{
+			throw new IOException( e );
+		}
+		return new TileConfigurationCheckpoint( iteration, models, fixed, observer );
+	}
+
+	static public TileConfigurationCheckpoint read( final File file ) throws IOException
+	{
+		try ( final FileInputStream in = new FileInputStream( file ) )
+		{
+			return read( in );
+		}
+	}
+
+	/**
+	 * Set the models of all {@link Tile Tiles} and the fixed {@link Tile Tiles}
+	 * of a {@link TileConfiguration}.
+	 *
+	 * @param tiles in the same order as when the checkpoint was created
+	 * @param tileConfiguration
+	 * @throws IOException if the number of {@link Tile Tiles} or the type of
+	 *   a model does not match
+	 */
+	public void restore(
+			final List< ? extends Tile< ? > > tiles,
+			final TileConfiguration tileConfiguration ) throws IOException
+	{
+		if ( tiles.size() != models.length )
+			throw new IOException( "Checkpoint has " + models.length + " tiles but " + tiles.size() + " tiles were passed." );
+
+		for ( int i = 0; i < models.length; ++i )
+			if ( tiles.get( i ).getModel().getClass() != models[ i ].getClass() )
+				throw new IOException( "Model of tile " + i + " is a " + tiles.get( i ).getModel().getClass().getSimpleName() + " but the checkpoint has a " + models[ i ].getClass().getSimpleName() + "." );
+
+		tileConfiguration.getFixedTiles().clear();
+		for ( int i = 0; i < models.length; ++i )
+		{
+			final Tile< ? > tile = tiles.get( i );
+			set( tile, models[ i ] );
+			if ( fixed[ i ] )
+				tileConfiguration.fixTile( tile );
+		}
+	}
+
+	@SuppressWarnings( "unchecked" )
+	static private < M extends Model< M > > void set( final Tile< M > tile, final Model< ? > model )
+	{
+		tile.getModel().set( ( M )model );
+	}
+
+	/**
+	 * Writes checkpoints periodically on a background thread.  If the
+	 * previous checkpoint is still being written, a checkpoint is skipped
+	 * rather than waiting for it.  A failed background write is rethrown by
+	 * the next call of {@link #iterationDone(int, Set, ErrorStatistic)} or
+	 * {@link #close(Set, ErrorStatistic)}.
+	 */
+	static public class Writer
+	{
+		final protected File file;
+		final protected int interval;
+		final protected List< ? extends Tile< ? > > tiles;
+		final protected ExecutorService executor = Executors.newSingleThreadExecutor( r -> {
+			final Thread t = new Thread( r, "tile-configuration-checkpoint" );
+			t.setDaemon( true );
+			return t;
+		} );
+		protected Future< ? > pending = null;
+
+		/* number of completed iterations */
+		protected int iteration;
+
+		/**
+		 * @param file
+		 * @param interval write a checkpoint every interval iterations, must
+		 *   be positive
+		 * @param tiles {@link Tile Tiles} in the order in which they will be
+		 *   passed when resuming
+		 * @param firstIteration number of iterations completed before
+		 */
+		public Writer( final File file, final int interval, final List< ? extends Tile< ? > > tiles, final int firstIteration )
+		{
+			if ( interval <= 0 )
+				throw new IllegalArgumentException( "Checkpoint interval must be positive but is " + interval + "." );
+			this.file = file;
+			this.interval = interval;
+			this.tiles = tiles;
+			iteration = firstIteration;
+		}
+
+		public Writer( final File file, final int interval, final List< ? extends Tile< ? > > tiles )
+		{
+			this( file, interval, tiles, 0 );
+		}
+
+		public int getIteration(){ return iteration; }
+
+		/**
+		 * Rethrow the failure of the pending background write if it has
+		 * completed or, if wait is set, once it completes.
+		 *
+		 * @param wait
+		 */
+		protected void checkPending( final boolean wait ) throws IOException
+		{
+			if ( pending == null || !( wait || pending.isDone() ) )
+				return;
+			final Future< ? > done = pending;
+			pending = null;
+			try
+			{
+				done.get();
+			}
+			catch ( final InterruptedException e )
+			{
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException( "Interrupted while waiting for checkpoint." );
+			}
+			catch ( final ExecutionException e )
+			{
+				final Throwable cause = e.getCause();
+				if ( cause instanceof IOException )
+					throw ( IOException )cause;
+				throw new IOException( cause );
+			}
+		}
+
+		/**
+		 * Called by the optimizer after each iteration.
+		 *
+		 * @param iteration number of completed iterations
+		 * @param fixedTiles
+		 * @param observer
+		 *
+		 * @throws UncheckedIOException if the previous background write
+		 *   failed
+		 */
+		public void iterationDone( final int iteration, final Set< ? extends Tile< ? > > fixedTiles, final ErrorStatistic observer )
+		{
+			try
+			{
+				checkPending( false );
+			}
+			catch ( final IOException e )
+			{
+				throw new UncheckedIOException( e );
+			}
+
+			this.iteration = iteration;
+			if ( iteration % interval != 0 || pending != null )
+				return;
+
+			final TileConfigurationCheckpoint checkpoint = create( tiles, fixedTiles, observer, iteration );
+			pending = executor.submit( () -> {
+				checkpoint.write( file );
+				return null;
+			} );
+		}
+
+		/**
+		 * Wait for the pending checkpoint, write a final checkpoint of the
+		 * last completed iteration and stop the background thread.
+		 *
+		 * @param fixedTiles
+		 * @param observer
+		 */
+		public void close( final Set< ? extends Tile< ? > > fixedTiles, final ErrorStatistic observer ) throws IOException
+		{
+			try
+			{
+				checkPending( true );
+				create( tiles, fixedTiles, observer, iteration ).write( file );
+			}
+			finally
+			{
+				executor.shutdown();
+			}
+		}
+	}
+}
@@ -40,19 +40,21 @@ package mpicbg.models;
 import ij.IJ;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Deque;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.TreeSet;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.ThreadPoolExecutor;
 
 /**
  *
@@ -63,6 +65,24 @@ import java.util.concurrent.ThreadPoolExecutor;
  */
 public class TileUtil
 {
+	private static ExecutorService sharedExecutor = null;
+
+	/**
+	 * Returns a fixed thread pool with one daemon thread per available
+	 * processor that is created on first use and shared by all
+	 * {@link TileConfiguration TileConfigurations} that were not given an
+	 * executor of their own.  It is never shut down.
+	 */
+	static public synchronized ExecutorService getSharedExecutor() {
+		if (sharedExecutor == null) {
+			sharedExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+				final Thread t = new Thread(r, "tile-optimizer");
+				t.setDaemon(true);
+				return t;
+			});
+		}
+		return sharedExecutor;
+	}
 
 	/**
 	 * Returns a lazy collection of arrays of {@link Tile}, where none of the tiles of one specific array
@@ -112,16 +132,18 @@ public class TileUtil
 						int next = 1;
 						while (next < maxArrayElements && it.hasNext()) {
 							final Tile<?> t = it.next();
+							boolean independent = true;
 							for (int i=0; i<next; ++i) {
 								if (array[i].getConnectedTiles().contains(t)) {
-									continue;
-								} else {
-									array[next] = t;
-									next += 1;
-									it.remove();
+									independent = false;
 									break;
 								}
 							}
+							if (independent) {
+								array[next] = t;
+								next += 1;
+								it.remove();
+							}
 						}
 						if (maxArrayElements != next) {
 							final Tile<?>[] a = new Tile[ next ];
@@ -140,6 +162,209 @@ public class TileUtil
 		};
 	}
 
+	/**
+	 * Partitions {@link Tile Tiles} into color classes such that no two
+	 * {@link Tile Tiles} of the same class are connected.  The connectivity
+	 * graph is colored with the DSATUR heuristic \cite{Brelaz79}: the next
+	 * {@link Tile} to color is the one whose neighbours have the most
+	 * distinct colors already, ties broken by degree, and it gets the
+	 * smallest color that none of its neighbours has.  This colors bipartite
+	 * graphs, e.g. regular grids of {@link Tile Tiles}, optimally.
+	 * Connections to {@link Tile Tiles} that are not in tiles are ignored.
+	 *
+	 * All {@link Tile Tiles} of one class can be fit concurrently because
+	 * fitting a {@link Tile} reads only the world coordinates of its
+	 * neighbours and applying it writes only its own.
+	 *
+	 * BibTeX:
+	 * <pre>
+	 * &#64;article{Brelaz79,
+	 *   author    = {Daniel Br{\'e}laz},
+	 *   title     = {New Methods to Color the Vertices of a Graph},
+	 *   journal   = {Communications of the ACM},
+	 *   volume    = {22},
+	 *   number    = {4},
+	 *   year      = {1979},
+	 *   pages     = {251--256},
+	 * }
+	 * </pre>
+	 *
+	 * @param tiles
+	 * @return color classes
+	 */
+	static public final List< List< Tile< ? > > > generateColorClasses( final Collection< ? extends Tile< ? > > tiles )
+	{
+		final ArrayList< Tile< ? > > list = new ArrayList< Tile< ? > >( tiles );
+		final int n = list.size();
+		final HashMap< Tile< ? >, Integer > indices = new HashMap< Tile< ? >, Integer >();
+		for ( int i = 0; i < n; ++i )
+			indices.put( list.get( i ), i );
+
+		final int[][] neighbours = new int[ n ][];
+		for ( int i = 0; i < n; ++i )
+		{
+			final Set< Tile< ? > > connectedTiles = list.get( i ).getConnectedTiles();
+			final int[] ns = new int[ connectedTiles.size() ];
+			int k = 0;
+			for ( final Tile< ? > o : connectedTiles )
+			{
+				final Integer j = indices.get( o );
+				if ( j != null && j != i )
+					ns[ k++ ] = j;
+			}
+			neighbours[ i ] = k == ns.length ? ns : Arrays.copyOf( ns, k );
+		}
+
+		final int[] colors = new int[ n ];
+		Arrays.fill( colors, -1 );
+		final int[] saturation = new int[ n ];
+		final BitSet[] neighbourColors = new BitSet[ n ];
+		final TreeSet< Integer > queue = new TreeSet< Integer >( new Comparator< Integer >()
+		{
+			@Override
+			public int compare( final Integer a, final Integer b )
+			{
+				if ( saturation[ a ] != saturation[ b ] )
+					return Integer.compare( saturation[ b ], saturation[ a ] );
+				if ( neighbours[ a ].length != neighbours[ b ].length )
+					return Integer.compare( neighbours[ b ].length, neighbours[ a ].length );
+				return Integer.compare( a, b );
+			}
+		} );
+		for ( int i = 0; i < n; ++i )
+		{
+			neighbourColors[ i ] = new BitSet();
+			queue.add( i );
+		}
+
+		final ArrayList< List< Tile< ? > > > classes = new ArrayList< List< Tile< ? > > >();
+		while ( !queue.isEmpty() )
+		{
+			final int i = queue.pollFirst();
+			final int c = neighbourColors[ i ].nextClearBit( 0 );
+			colors[ i ] = c;
+			if ( c == classes.size() )
+				classes.add( new ArrayList< Tile< ? > >() );
+			classes.get( c ).add( list.get( i ) );
+
+			for ( final int j : neighbours[ i ] )
+			{
+				if ( colors[ j ] < 0 && !neighbourColors[ j ].get( c ) )
+				{
+					/* re-sort j with its increased saturation */
+					queue.remove( j );
+					neighbourColors[ j ].set( c );
+					++saturation[ j ];
+					queue.add( j );
+				}
+			}
+		}
+		return classes;
+	}
+
+	/**
+	 * Partitions connected {@link Tile Tiles} into aggregates for a coarser
+	 * version of the tile graph.  Each {@link Tile} whose neighbours are all
+	 * not yet aggregated seeds an aggregate with these neighbours, the
+	 * remaining {@link Tile Tiles} join the aggregate of one of their
+	 * neighbours.  This is the aggregation of smoothed aggregation algebraic
+	 * multigrid \cite{VanekMB96} and shrinks the diameter of the graph by
+	 * about a factor of three.
+	 *
+	 * BibTeX:
+	 * <pre>
+	 * &#64;article{VanekMB96,
+	 *   author    = {Petr Van{\v{e}}k and Jan Mandel and Marian Brezina},
+	 *   title     = {Algebraic multigrid by smoothed aggregation for second and fourth order elliptic problems},
+	 *   journal   = {Computing},
+	 *   volume    = {56},
+	 *   number    = {3},
+	 *   year      = {1996},
+	 *   pages     = {179--196},
+	 * }
+	 * </pre>
+	 *
+	 * @param tiles
+	 * @param singletons {@link Tile Tiles} that form an aggregate on their
+	 *   own, e.g. fixed {@link Tile Tiles}
+	 * @return aggregates
+	 */
+	static public final List< List< Tile< ? > > > generateAggregates(
+			final Collection< ? extends Tile< ? > > tiles,
+			final Set< ? extends Tile< ? > > singletons )
+	{
+		final HashMap< Tile< ? >, List< Tile< ? > > > aggregateOf = new HashMap< Tile< ? >, List< Tile< ? > > >();
+		final ArrayList< List< Tile< ? > > > aggregates = new ArrayList< List< Tile< ? > > >();
+		final HashSet< Tile< ? > > candidates = new HashSet< Tile< ? > >( tiles );
+		candidates.removeAll( singletons );
+
+		/* seeds with all their neighbours */
+		for ( final Tile< ? > t : tiles )
+		{
+			if ( !candidates.contains( t ) || aggregateOf.containsKey( t ) )
+				continue;
+
+			boolean free = true;
+			for ( final Tile< ? > o : t.getConnectedTiles() )
+			{
+				if ( aggregateOf.containsKey( o ) )
+				{
+					free = false;
+					break;
+				}
+			}
+			if ( !free )
+				continue;
+
+			final ArrayList< Tile< ? > > aggregate = new ArrayList< Tile< ? > >();
+			aggregate.add( t );
+			aggregateOf.put( t, aggregate );
+			for ( final Tile< ? > o : t.getConnectedTiles() )
+			{
+				if ( candidates.contains( o ) && o != t )
+				{
+					aggregate.add( o );
+					aggregateOf.put( o, aggregate );
+				}
+			}
+			aggregates.add( aggregate );
+		}
+
+		/* join a neighbouring aggregate */
+		for ( final Tile< ? > t : tiles )
+		{
+			if ( !candidates.contains( t ) || aggregateOf.containsKey( t ) )
+				continue;
+
+			List< Tile< ? > > aggregate = null;
+			for ( final Tile< ? > o : t.getConnectedTiles() )
+			{
+				aggregate = aggregateOf.get( o );
+				if ( aggregate != null )
+					break;
+			}
+			if ( aggregate == null )
+			{
+				aggregate = new ArrayList< Tile< ? > >();
+				aggregates.add( aggregate );
+			}
+			aggregate.add( t );
+			aggregateOf.put( t, aggregate );
+		}
+
+		for ( final Tile< ? > t : tiles )
+		{
+			if ( !candidates.contains( t ) )
+			{
+				final ArrayList< Tile< ? > > aggregate = new ArrayList< Tile< ? > >();
+				aggregate.add( t );
+				aggregates.add( aggregate );
+			}
+		}
+
+		return aggregates;
+	}
+
 	static public void optimizeConcurrently(
 			final ErrorStatistic observer,
 			final double maxAllowedError,
@@ -175,113 +400,238 @@ public class TileUtil
 			final int nThreads,
 			final boolean verbose) {
 
-		// only ThreadPoolExecutors know how many threads are currently running
-		final ThreadPoolExecutor executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(nThreads);
+		optimizeConcurrently(observer,
+							 maxAllowedError,
+							 maxIterations,
+							 maxPlateauwidth,
+							 damp,
+							 tc,
+							 tiles,
+							 fixedTiles,
+							 getSharedExecutor(),
+							 nThreads,
+							 verbose);
+	}
 
-		try {
-			final long t0 = System.currentTimeMillis();
+	/**
+	 * Minimizes the displacement of all {@link PointMatch PointMatches} by
+	 * fitting the tiles of each color class concurrently, see
+	 * {@link #generateColorClasses(Collection)}.  The executor is not shut
+	 * down and can be reused for further calls.
+	 *
+	 * @param executor any {@link ExecutorService}, e.g. a {@link java.util.concurrent.ForkJoinPool}
+	 * @param nThreads number of tasks that each step is split into, should
+	 *   not exceed the parallelism of the executor
+	 */
+	static public void optimizeConcurrently(
+			final ErrorStatistic observer,
+			final double maxAllowedError,
+			final int maxIterations,
+			final int maxPlateauwidth,
+			final double damp,
+			final TileConfiguration tc,
+			final Set<Tile<?>> tiles,
+			final Set<Tile<?>> fixedTiles,
+			final ExecutorService executor,
+			final int nThreads,
+			final boolean verbose) {
 
-			final List<Tile<?>> freeTiles = new ArrayList<>(tiles.size() - fixedTiles.size());
-			for (final Tile<?> t : tiles) {
-				if (fixedTiles.contains(t)) continue;
-				freeTiles.add(t);
-			}
-			Collections.shuffle(freeTiles);
+		final long t0 = System.currentTimeMillis();
 
-			final long t1 = System.currentTimeMillis();
-			System.out.println("Shuffling took " + (t1 - t0) + " ms");
+		final List<Tile<?>> freeTiles = new ArrayList<>(tiles.size() - fixedTiles.size());
+		for (final Tile<?> t : tiles) {
+			if (fixedTiles.contains(t)) continue;
+			freeTiles.add(t);
+		}
 
-			/* initialize the configuration with the current model of each tile */
-			tc.apply(executor);
+		/* tiles of one color class are independent and can be fit concurrently */
+		final List<List<Tile<?>>> colorClasses = generateColorClasses(freeTiles);
 
-			final long t2 = System.currentTimeMillis();
-			System.out.println("First apply took " + (t2 - t1) + " ms");
+		final long t1 = System.currentTimeMillis();
+		System.out.println("Coloring " + freeTiles.size() + " tiles with " + colorClasses.size() + " colors took " + (t1 - t0) + " ms");
 
-			int i = 0;
-			boolean proceed = i < maxIterations;
-			final Set<Tile<?>> executingTiles = ConcurrentHashMap.newKeySet();
+		/* initialize the configuration with the current model of each tile */
+		tc.apply(executor, nThreads);
 
-			while (proceed) {
-				Collections.shuffle(freeTiles);
-				final Deque<Tile<?>> pending = new ConcurrentLinkedDeque<>(freeTiles);
-				final List<Future<Void>> tasks = new ArrayList<>(nThreads);
+		final long t2 = System.currentTimeMillis();
+		System.out.println("First apply took " + (t2 - t1) + " ms");
 
-				for (int j = 0; j < nThreads; j++) {
-					final boolean cleanUp = (j == 0);
-					tasks.add(executor.submit(() -> fitAndApplyWorker(pending, executingTiles, damp, cleanUp)));
-				}
+		int i = 0;
+		boolean proceed = i < maxIterations;
 
-				for (final Future<Void> task : tasks) {
-					try {
-						task.get();
-					} catch (final InterruptedException | ExecutionException e) {
-						throw new RuntimeException(e);
-					}
-				}
+		while (proceed) {
+			/* each color class runs fully in parallel, waiting for its tasks is the barrier to the next */
+			for (final List<Tile<?>> colorClass : colorClasses)
+				fitAndApply(colorClass, damp, executor, nThreads);
 
-				tc.updateErrors(executor);
-				observer.add(tc.getError());
+			tc.updateErrors(executor, nThreads);
+			observer.add(tc.getError());
 
-				if (verbose) {
-					IJ.log(i + ": " + tc.getError() + " " + observer.max);
-				}
+			if (verbose) {
+				IJ.log(i + ": " + tc.getError() + " " + observer.max);
+			}
 
-				if (i > maxPlateauwidth) {
-					proceed = tc.getError() > maxAllowedError;
+			if (i > maxPlateauwidth) {
+				proceed = tc.getError() > maxAllowedError;
 
-					int d = maxPlateauwidth;
-					while (!proceed && d >= 1) {
-						try {
-							proceed = Math.abs(observer.getWideSlope(d)) > 0.0001;
-						} catch (final Exception e) {
-							e.printStackTrace();
-						}
-						d /= 2;
+				int d = maxPlateauwidth;
+				while (!proceed && d >= 1) {
+					try {
+						proceed = Math.abs(observer.getWideSlope(d)) > 0.0001;
+					} catch (final Exception e) {
+						e.printStackTrace();
 					}
+					d /= 2;
 				}
-
-				proceed &= ++i < maxIterations;
 			}
 
-			final long t3 = System.currentTimeMillis();
+			proceed &= ++i < maxIterations;
+		}
 
-			System.out.println("Concurrent tile optimization loop took " + (t3 - t2) + " ms, total took " + (t3 - t0) + " ms");
+		final long t3 = System.currentTimeMillis();
 
-		} finally {
-			executor.shutdownNow();
-		}
+		System.out.println("Concurrent tile optimization loop took " + (t3 - t2) + " ms, total took " + (t3 - t0) + " ms");
 	}
 
-	private static Void fitAndApplyWorker(
-			final Deque<Tile<?>> pendingTiles,
-			final Set<Tile<?>> executingTiles,
+	/**
+	 * Minimizes the displacement of all {@link PointMatch PointMatches} with
+	 * Jacobi iterations.  In each iteration, all free tiles are fit
+	 * concurrently to the world coordinates of their neighbours from the
+	 * previous iteration.  Only then are all models applied at once.
+	 * Contrary to {@link #optimizeConcurrently}, neighbouring tiles are fit
+	 * at the same time, there is no scheduling and the result does not
+	 * depend on the number of threads.
+	 *
+	 * Plain Jacobi iterations oscillate on configurations whose
+	 * connectivity graph is bipartite, e.g. regular grids, use a damp of
+	 * about 0.5.
+	 */
+	static public void optimizeJacobi(
+			final ErrorStatistic observer,
+			final double maxAllowedError,
+			final int maxIterations,
+			final int maxPlateauwidth,
 			final double damp,
-			final boolean cleanUp
-	) throws NotEnoughDataPointsException, IllDefinedDataPointsException {
-
-		final int n = pendingTiles.size();
-		for (int i = 0; (i < n) || cleanUp; i++){
-			// the polled tile can only be null if the deque is empty, i.e., there is no more work
-			final Tile<?> tile = pendingTiles.pollFirst();
-			if (tile == null)
-				return null;
+			final TileConfiguration tc,
+			final Set<Tile<?>> tiles,
+			final Set<Tile<?>> fixedTiles,
+			final int nThreads) {
 
-			executingTiles.add(tile);
-			final boolean canBeProcessed = Collections.disjoint(tile.getConnectedTiles(), executingTiles);
+		optimizeJacobi(observer, maxAllowedError, maxIterations, maxPlateauwidth, damp, tc, tiles, fixedTiles, getSharedExecutor(), nThreads);
+	}
 
-			if (canBeProcessed) {
-				try {
-					tile.fitModel();
-					tile.apply(damp);
-				} finally {
-					// clean up if there was an exception, otherwise this can cause a deadlock
-					executingTiles.remove(tile);
+	/**
+	 * Minimizes the displacement of all {@link PointMatch PointMatches} with
+	 * Jacobi iterations on a given executor, which is not shut down.
+	 */
+	static public void optimizeJacobi(
+			final ErrorStatistic observer,
+			final double maxAllowedError,
+			final int maxIterations,
+			final int maxPlateauwidth,
+			final double damp,
+			final TileConfiguration tc,
+			final Set<Tile<?>> tiles,
+			final Set<Tile<?>> fixedTiles,
+			final ExecutorService executor,
+			final int nThreads) {
+
+		final List<Tile<?>> freeTiles = new ArrayList<>(tiles.size() - fixedTiles.size());
+		for (final Tile<?> t : tiles) {
+			if (fixedTiles.contains(t)) continue;
+			freeTiles.add(t);
+		}
+
+		/* initialize the configuration with the current model of each tile */
+		tc.apply(executor, nThreads);
+
+		int i = 0;
+		boolean proceed = i < maxIterations;
+
+		while (proceed) {
+			/* fitting reads only world coordinates, which remain frozen until all tiles are fit */
+			forEachTile(freeTiles, executor, nThreads, Tile::fitModel);
+			forEachTile(freeTiles, executor, nThreads, t -> t.apply(damp));
+
+			tc.updateErrors(executor, nThreads);
+			observer.add(tc.getError());
+
+			if (i > maxPlateauwidth) {
+				proceed = tc.getError() > maxAllowedError;
+
+				int d = maxPlateauwidth;
+				while (!proceed && d >= 1) {
+					try {
+						proceed = Math.abs(observer.getWideSlope(d)) > 0.0001;
+					} catch (final Exception e) {
+						e.printStackTrace();
+					}
+					d /= 2;
 				}
-			} else {
-				executingTiles.remove(tile);
-				pendingTiles.addLast(tile);
 			}
+
+			proceed &= ++i < maxIterations;
 		}
-		return null;
+	}
+
+	/**
+	 * An operation on a single {@link Tile}.
+	 */
+	private interface TileOperation {
+		void run(Tile<?> tile) throws NotEnoughDataPointsException, IllDefinedDataPointsException;
+	}
+
+	/**
+	 * Runs an operation on all tiles concurrently, split into at most
+	 * nThreads consecutive ranges, and returns when all are done.
+	 */
+	private static void forEachTile(
+			final List<Tile<?>> tiles,
+			final ExecutorService executor,
+			final int nThreads,
+			final TileOperation operation) {
+
+		final int nTiles = tiles.size();
+		final int nTasks = Math.min(nThreads, nTiles);
+		if (nTasks == 0)
+			return;
+
+		final int tilesPerTask = nTiles / nTasks + (nTiles % nTasks == 0 ? 0 : 1);
+		final List<Future<Void>> tasks = new ArrayList<>(nTasks);
+		for (int j = 0; j < nTasks; j++) {
+			final int start = j * tilesPerTask;
+			final int end = Math.min((j + 1) * tilesPerTask, nTiles);
+			tasks.add(executor.submit(() -> {
+				for (int i = start; i < end; i++)
+					operation.run(tiles.get(i));
+				return null;
+			}));
+		}
+
+		for (final Future<Void> task : tasks) {
+			try {
+				task.get();
+			} catch (final InterruptedException | ExecutionException e) {
+				for (final Future<Void> t : tasks)
+					t.cancel(true);
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	/**
+	 * Fits and applies the models of independent tiles, i.e. tiles of one
+	 * color class, concurrently and returns when all are done.
+	 */
+	private static void fitAndApply(
+			final List<Tile<?>> independentTiles,
+			final double damp,
+			final ExecutorService executor,
+			final int nThreads) {
+
+		forEachTile(independentTiles, executor, nThreads, tile -> {
+			tile.fitModel();
+			tile.apply(damp);
+		});
 	}
 }
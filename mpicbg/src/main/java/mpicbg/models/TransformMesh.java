@@ -97,6 +97,208 @@ public class TransformMesh implements InvertibleCoordinateTransform
 	final protected HashMap< PointMatch, ArrayList< AffineModel2D > > va = new HashMap< PointMatch, ArrayList< AffineModel2D > >();
 	public HashMap< PointMatch, ArrayList< AffineModel2D > > getVA(){ return va; };
 
+	/**
+	 * Uniform grid of triangles over the bounding box of all triangles at
+	 * either the source or the target side.  Each cell lists the triangles
+	 * whose bounding box overlaps it, in the iteration order of
+	 * {@link TransformMesh#av}.  A lookup thus finds the same triangle as a
+	 * linear search through {@link TransformMesh#av} but tests only the
+	 * few triangles of one cell.
+	 */
+	static protected class TriangleIndex
+	{
+		final protected boolean target;
+
+		final protected AffineModel2D[] models;
+		final protected ArrayList< ArrayList< PointMatch > > triangles;
+
+		final protected double minX, minY, maxX, maxY;
+		final protected double scaleX, scaleY;
+		final protected int numX, numY;
+
+		/* triangles of cell c are cellTriangles[ cellStarts[ c ], cellStarts[ c + 1 ] ) */
+		final protected int[] cellStarts;
+		final protected int[] cellTriangles;
+
+		/**
+		 * @param av triangles
+		 * @param target index the target side ({@link PointMatch#getP2() p2}
+		 *   world coordinates) instead of the source side
+		 *   ({@link PointMatch#getP1() p1} local coordinates)
+		 */
+		public TriangleIndex(
+				final HashMap< AffineModel2D, ArrayList< PointMatch > > av,
+				final boolean target )
+		{
+			this.target = target;
+
+			final int n = av.size();
+			models = new AffineModel2D[ n ];
+			triangles = new ArrayList< ArrayList< PointMatch > >( n );
+			final double[] bounds = new double[ 4 * n ];
+
+			double x0 = Double.MAX_VALUE, y0 = Double.MAX_VALUE;
+			double x1 = -Double.MAX_VALUE, y1 = -Double.MAX_VALUE;
+			int t = 0;
+			for ( final Entry< AffineModel2D, ArrayList< PointMatch > > entry : av.entrySet() )
+			{
+				models[ t ] = entry.getKey();
+				triangles.add( entry.getValue() );
+				double bx0 = Double.MAX_VALUE, by0 = Double.MAX_VALUE;
+				double bx1 = -Double.MAX_VALUE, by1 = -Double.MAX_VALUE;
+				for ( final PointMatch pm : entry.getValue() )
+				{
+					final double[] p = target ? pm.getP2().getW() : pm.getP1().getL();
+					bx0 = Math.min( bx0, p[ 0 ] );
+					by0 = Math.min( by0, p[ 1 ] );
+					bx1 = Math.max( bx1, p[ 0 ] );
+					by1 = Math.max( by1, p[ 1 ] );
+				}
+				bounds[ 4 * t ] = bx0;
+				bounds[ 4 * t + 1 ] = by0;
+				bounds[ 4 * t + 2 ] = bx1;
+				bounds[ 4 * t + 3 ] = by1;
+				x0 = Math.min( x0, bx0 );
+				y0 = Math.min( y0, by0 );
+				x1 = Math.max( x1, bx1 );
+				y1 = Math.max( y1, by1 );
+				++t;
+			}
+			minX = x0;
+			minY = y0;
+			maxX = x1;
+			maxY = y1;
+
+			/* about one cell per triangle with the aspect ratio of the bounding box */
+			final double width = maxX - minX;
+			final double height = maxY - minY;
+			if ( width > 0 && height > 0 )
+			{
+				numX = Math.max( 1, Math.min( n, ( int )Math.ceil( Math.sqrt( n * width / height ) ) ) );
+				numY = Math.max( 1, Math.min( n, ( int )Math.ceil( ( double )n / numX ) ) );
+			}
+			else
+			{
+				numX = 1;
+				numY = 1;
+			}
+			scaleX = width > 0 ? numX / width : 0;
+			scaleY = height > 0 ? numY / height : 0;
+
+			cellStarts = new int[ numX * numY + 1 ];
+			for ( t = 0; t < n; ++t )
+			{
+				final int cx0 = cellX( bounds[ 4 * t ] ), cx1 = cellX( bounds[ 4 * t + 2 ] );
+				final int cy0 = cellY( bounds[ 4 * t + 1 ] ), cy1 = cellY( bounds[ 4 * t + 3 ] );
+				for ( int cy = cy0; cy <= cy1; ++cy )
+					for ( int cx = cx0; cx <= cx1; ++cx )
+						++cellStarts[ cy * numX + cx + 1 ];
+			}
+			for ( int c = 0; c < numX * numY; ++c )
+				cellStarts[ c + 1 ] += cellStarts[ c ];
+
+			cellTriangles = new int[ cellStarts[ numX * numY ] ];
+			final int[] fill = new int[ numX * numY ];
+			for ( t = 0; t < n; ++t )
+			{
+				final int cx0 = cellX( bounds[ 4 * t ] ), cx1 = cellX( bounds[ 4 * t + 2 ] );
+				final int cy0 = cellY( bounds[ 4 * t + 1 ] ), cy1 = cellY( bounds[ 4 * t + 3 ] );
+				for ( int cy = cy0; cy <= cy1; ++cy )
+				{
+					for ( int cx = cx0; cx <= cx1; ++cx )
+					{
+						final int c = cy * numX + cx;
+						cellTriangles[ cellStarts[ c ] + fill[ c ]++ ] = t;
+					}
+				}
+			}
+		}
+
+		final protected int cellX( final double x )
+		{
+			return Math.min( numX - 1, ( int )( ( x - minX ) * scaleX ) );
+		}
+
+		final protected int cellY( final double y )
+		{
+			return Math.min( numY - 1, ( int )( ( y - minY ) * scaleY ) );
+		}
+
+		/**
+		 * Find the triangle that contains a location, see
+		 * {@link TransformMesh#isInSourcePolygon(ArrayList, double[])} and
+		 * {@link TransformMesh#isInConvexTargetPolygon(ArrayList, double[])}.
+		 *
+		 * @param location
+		 * @return the {@link AffineModel2D} of the triangle or null if there
+		 *   is no such triangle
+		 */
+		public AffineModel2D find( final double[] location )
+		{
+			final double x = location[ 0 ];
+			final double y = location[ 1 ];
+			if ( !( x >= minX && x <= maxX && y >= minY && y <= maxY ) )
+				return null;
+
+			final int c = cellY( y ) * numX + cellX( x );
+			for ( int k = cellStarts[ c ]; k < cellStarts[ c + 1 ]; ++k )
+			{
+				final int t = cellTriangles[ k ];
+				final ArrayList< PointMatch > pm = triangles.get( t );
+				if ( target ? isInConvexTargetPolygon( pm, location ) : isInSourcePolygon( pm, location ) )
+					return models[ t ];
+			}
+			return null;
+		}
+	}
+
+	/* lazily built triangle indices, invalidated by updateAffines() */
+	transient protected volatile TriangleIndex sourceIndex = null;
+	transient protected volatile TriangleIndex targetIndex = null;
+
+	/**
+	 * Get the {@link TriangleIndex} of the source side, build it if
+	 * necessary.
+	 */
+	protected TriangleIndex getSourceIndex()
+	{
+		TriangleIndex index = sourceIndex;
+		if ( index == null )
+		{
+			index = new TriangleIndex( av, false );
+			sourceIndex = index;
+		}
+		return index;
+	}
+
+	/**
+	 * Get the {@link TriangleIndex} of the target side, build it if
+	 * necessary.
+	 */
+	protected TriangleIndex getTargetIndex()
+	{
+		TriangleIndex index = targetIndex;
+		if ( index == null )
+		{
+			index = new TriangleIndex( av, true );
+			targetIndex = index;
+		}
+		return index;
+	}
+
+	/**
+	 * Discard the triangle indices used by {@link #applyInPlace(double[])}
+	 * and {@link #applyInverseInPlace(double[])}.  They are rebuilt at the
+	 * next call.  {@link #updateAffines()} does that, call it explicitly
+	 * only if you modify the triangles or vertices without updating the
+	 * affine transformations.
+	 */
+	public void invalidateTriangleIndices()
+	{
+		sourceIndex = null;
+		targetIndex = null;
+	}
+
 	final static protected PointFactory< Point > defaultPointFactory = new PointFactory< Point >()
 	{
 		private static final long serialVersionUID = -8338916724246569904L;
@@ -329,6 +531,7 @@ public class TransformMesh implements InvertibleCoordinateTransform
 		catch ( final NotEnoughDataPointsException e ) { e.printStackTrace(); }
 		catch ( final IllDefinedDataPointsException e ) { e.printStackTrace(); }
 		av.put( m, t );
+		invalidateTriangleIndices();
 
 		for ( final PointMatch pm : t )
 		{
@@ -461,6 +664,7 @@ public class TransformMesh implements InvertibleCoordinateTransform
 	 */
 	public void updateAffine( final PointMatch p )
 	{
+		targetIndex = null;
 		for ( final AffineModel2D ai : va.get( p ) )
 		{
 			try
@@ -478,6 +682,7 @@ public class TransformMesh implements InvertibleCoordinateTransform
 	 */
 	public void updateAffines()
 	{
+		invalidateTriangleIndices();
 		final Set< AffineModel2D > s = av.keySet();
 		for ( final AffineModel2D ai : s )
 		{
@@ -628,16 +833,9 @@ public class TransformMesh implements InvertibleCoordinateTransform
 	{
 		assert location.length == 2 : "2d transform meshs can be applied to 2d points only.";
 
-		final Set< AffineModel2D > s = av.keySet();
-		for ( final AffineModel2D ai : s )
-		{
-			final ArrayList< PointMatch > pm = av.get( ai );
-			if ( isInSourcePolygon( pm, location ) )
-			{
-				ai.applyInPlace( location );
-				return;
-			}
-		}
+		final AffineModel2D ai = getSourceIndex().find( location );
+		if ( ai != null )
+			ai.applyInPlace( location );
 	}
 
 	//@Override
@@ -657,15 +855,11 @@ public class TransformMesh implements InvertibleCoordinateTransform
 	{
 		assert location.length == 2 : "2d transform meshs can be applied to 2d points only.";
 
-		final Set< AffineModel2D > s = av.keySet();
-		for ( final AffineModel2D ai : s )
+		final AffineModel2D ai = getTargetIndex().find( location );
+		if ( ai != null )
 		{
-			final ArrayList< PointMatch > pm = av.get( ai );
-			if ( isInConvexTargetPolygon( pm, location ) )
-			{
-				ai.applyInverseInPlace( location );
-				return;
-			}
+			ai.applyInverseInPlace( location );
+			return;
 		}
 		throw new NoninvertibleModelException( "Noninvertible location ( " + location[ 0 ] + ", " + location[ 1 ] + " )" );
 	}
@@ -44,7 +44,7 @@ import java.util.Collection;
  *
  * @author Stephan Saalfeld &lt;saalfelds@janelia.hhmi.org&gt;
  */
-public class TranslationModel1D extends AbstractAffineModel1D< TranslationModel1D >
+public class TranslationModel1D extends AbstractAffineModel1D< TranslationModel1D > implements MomentsFittable
 {
 	private static final long serialVersionUID = 846402044582557842L;
 
@@ -178,6 +178,21 @@ public class TranslationModel1D extends AbstractAffineModel1D< TranslationModel1
 		t = qcx - pcx;
 	}
 
+	@Override
+	final public void fit( final PointMatchMoments moments )
+		throws NotEnoughDataPointsException
+	{
+		if ( moments.size() < MIN_NUM_MATCHES )
+			throw new NotEnoughDataPointsException( moments.size() + " data points are not enough to estimate a 1d translation model, at least " + MIN_NUM_MATCHES + " data points required." );
+
+		final int n = moments.numDimensions();
+		final double[] pc = new double[ n ];
+		final double[] qc = new double[ n ];
+		moments.getCenters( pc, qc );
+
+		t = qc[ 0 ] - pc[ 0 ];
+	}
+
 	@Override
 	final public < P extends PointMatch >void fit( final Collection< P > matches ) throws NotEnoughDataPointsException
 	{
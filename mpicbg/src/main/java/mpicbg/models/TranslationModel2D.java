@@ -45,7 +45,7 @@ import java.util.Collection;
  *
  * @author Stephan Saalfeld &lt;saalfelds@janelia.hhmi.org&gt;
  */
-public class TranslationModel2D extends AbstractAffineModel2D< TranslationModel2D >
+public class TranslationModel2D extends AbstractAffineModel2D< TranslationModel2D > implements MomentsFittable
 {
 	private static final long serialVersionUID = -6412303652902075611L;
 
@@ -202,6 +202,22 @@ public class TranslationModel2D extends AbstractAffineModel2D< TranslationModel2
 		ty = qcy - pcy;
 	}
 
+	@Override
+	final public void fit( final PointMatchMoments moments )
+		throws NotEnoughDataPointsException
+	{
+		if ( moments.size() < MIN_NUM_MATCHES )
+			throw new NotEnoughDataPointsException( moments.size() + " data points are not enough to estimate a 2d translation model, at least " + MIN_NUM_MATCHES + " data points required." );
+
+		final int n = moments.numDimensions();
+		final double[] pc = new double[ n ];
+		final double[] qc = new double[ n ];
+		moments.getCenters( pc, qc );
+
+		tx = qc[ 0 ] - pc[ 0 ];
+		ty = qc[ 1 ] - pc[ 1 ];
+	}
+
 	@Override
 	final public < P extends PointMatch >void fit( final Collection< P > matches ) throws NotEnoughDataPointsException
 	{
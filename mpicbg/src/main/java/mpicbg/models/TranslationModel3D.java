@@ -43,7 +43,7 @@ import java.util.Collection;
  *
  * @author Stephan Saalfeld &lt;saalfelds@janelia.hhmi.org&gt;
  */
-public class TranslationModel3D extends AbstractAffineModel3D< TranslationModel3D > implements InvertibleBoundable
+public class TranslationModel3D extends AbstractAffineModel3D< TranslationModel3D > implements InvertibleBoundable, MomentsFittable
 {
 	private static final long serialVersionUID = 2917354712492515946L;
 
@@ -104,6 +104,145 @@ public class TranslationModel3D extends AbstractAffineModel3D< TranslationModel3
 		return ( "[1,3](" + translation[ 0 ] + "," + translation[ 1 ] + "," + translation[ 2 ] + ") " + cost );
 	}
 
+	@Override
+	final public void fit(
+			final double[][] p,
+			final double[][] q,
+			final double[] w )
+		throws NotEnoughDataPointsException
+	{
+		assert
+			p.length >= 3 &&
+			q.length >= 3 : "3d translations can be applied to 3d points only.";
+
+		assert
+			p[ 0 ].length == p[ 1 ].length &&
+			p[ 0 ].length == p[ 2 ].length &&
+			p[ 0 ].length == q[ 0 ].length &&
+			p[ 0 ].length == q[ 1 ].length &&
+			p[ 0 ].length == q[ 2 ].length &&
+			p[ 0 ].length == w.length : "Array lengths do not match.";
+
+		final int l = p[ 0 ].length;
+
+		if ( l < MIN_NUM_MATCHES )
+			throw new NotEnoughDataPointsException( l + " data points are not enough to estimate a 3d translation model, at least " + MIN_NUM_MATCHES + " data points required." );
+
+		final double[] pX = p[ 0 ];
+		final double[] pY = p[ 1 ];
+		final double[] pZ = p[ 2 ];
+		final double[] qX = q[ 0 ];
+		final double[] qY = q[ 1 ];
+		final double[] qZ = q[ 2 ];
+
+		// center of mass:
+		double pcx = 0, pcy = 0, pcz = 0;
+		double qcx = 0, qcy = 0, qcz = 0;
+
+		double ws = 0.0;
+
+		for ( int i = 0; i < l; ++i )
+		{
+			final double ww = w[ i ];
+			ws += ww;
+
+			pcx += ww * pX[ i ];
+			pcy += ww * pY[ i ];
+			pcz += ww * pZ[ i ];
+			qcx += ww * qX[ i ];
+			qcy += ww * qY[ i ];
+			qcz += ww * qZ[ i ];
+		}
+		pcx /= ws;
+		pcy /= ws;
+		pcz /= ws;
+		qcx /= ws;
+		qcy /= ws;
+		qcz /= ws;
+
+		translation[ 0 ] = qcx - pcx;
+		translation[ 1 ] = qcy - pcy;
+		translation[ 2 ] = qcz - pcz;
+	}
+
+	@Override
+	final public void fit(
+			final float[][] p,
+			final float[][] q,
+			final float[] w )
+		throws NotEnoughDataPointsException
+	{
+		assert
+			p.length >= 3 &&
+			q.length >= 3 : "3d translations can be applied to 3d points only.";
+
+		assert
+			p[ 0 ].length == p[ 1 ].length &&
+			p[ 0 ].length == p[ 2 ].length &&
+			p[ 0 ].length == q[ 0 ].length &&
+			p[ 0 ].length == q[ 1 ].length &&
+			p[ 0 ].length == q[ 2 ].length &&
+			p[ 0 ].length == w.length : "Array lengths do not match.";
+
+		final int l = p[ 0 ].length;
+
+		if ( l < MIN_NUM_MATCHES )
+			throw new NotEnoughDataPointsException( l + " data points are not enough to estimate a 3d translation model, at least " + MIN_NUM_MATCHES + " data points required." );
+
+		final float[] pX = p[ 0 ];
+		final float[] pY = p[ 1 ];
+		final float[] pZ = p[ 2 ];
+		final float[] qX = q[ 0 ];
+		final float[] qY = q[ 1 ];
+		final float[] qZ = q[ 2 ];
+
+		// center of mass:
+		double pcx = 0, pcy = 0, pcz = 0;
+		double qcx = 0, qcy = 0, qcz = 0;
+
+		double ws = 0.0;
+
+		for ( int i = 0; i < l; ++i )
+		{
+			final double ww = w[ i ];
+			ws += ww;
+
+			pcx += ww * pX[ i ];
+			pcy += ww * pY[ i ];
+			pcz += ww * pZ[ i ];
+			qcx += ww * qX[ i ];
+			qcy += ww * qY[ i ];
+			qcz += ww * qZ[ i ];
+		}
+		pcx /= ws;
+		pcy /= ws;
+		pcz /= ws;
+		qcx /= ws;
+		qcy /= ws;
+		qcz /= ws;
+
+		translation[ 0 ] = qcx - pcx;
+		translation[ 1 ] = qcy - pcy;
+		translation[ 2 ] = qcz - pcz;
+	}
+
+	@Override
+	final public void fit( final PointMatchMoments moments )
+		throws NotEnoughDataPointsException
+	{
+		if ( moments.size() < MIN_NUM_MATCHES )
+			throw new NotEnoughDataPointsException( moments.size() + " data points are not enough to estimate a 3d translation model, at least " + MIN_NUM_MATCHES + " data points required." );
+
+		final int n = moments.numDimensions();
+		final double[] pc = new double[ n ];
+		final double[] qc = new double[ n ];
+		moments.getCenters( pc, qc );
+
+		translation[ 0 ] = qc[ 0 ] - pc[ 0 ];
+		translation[ 1 ] = qc[ 1 ] - pc[ 1 ];
+		translation[ 2 ] = qc[ 2 ] - pc[ 2 ];
+	}
+
 	@Override
 	final public < P extends PointMatch >void fit( final Collection< P > matches ) throws NotEnoughDataPointsException
 	{
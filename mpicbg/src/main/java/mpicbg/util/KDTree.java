@@ -0,0 +1,254 @@
+/*-
+ * #%L
+ * MPICBG Core Library.
+ * %%
+ * Copyright (C) 2008 - 2025 Stephan Saalfeld et. al.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package mpicbg.util;
+
+/**
+ * A balanced k-d tree over a fixed set of points in n-dimensional space for
+ * radius and nearest neighbor queries.  The tree is implicit in a permutation
+ * of the point indices: the node of a range of the permutation is its median
+ * element along the dimension of largest extent.  Points are passed in the
+ * [dimension][point] layout of
+ * {@link mpicbg.models.Model#fit(double[][], double[][], double[])} and are
+ * not copied, queries report indices into this array.
+ *
+ * Queries do not modify the tree and can be run concurrently.
+ */
+public class KDTree
+{
+	final protected double[][] points;
+	final protected int[] index;
+	final protected byte[] splitDimensions;
+
+	/* coordinates of the nodes in tree order, interleaved */
+	final protected double[] nodes;
+
+	/**
+	 * Create a {@link KDTree} for points.
+	 *
+	 * @param points [dimension][point]
+	 */
+	public KDTree( final double[][] points )
+	{
+		this.points = points;
+		final int n = points.length == 0 ? 0 : points[ 0 ].length;
+		index = new int[ n ];
+		splitDimensions = new byte[ n ];
+		for ( int i = 0; i < n; ++i )
+			index[ i ] = i;
+		build( 0, n );
+
+		final int numDimensions = points.length;
+		nodes = new double[ n * numDimensions ];
+		for ( int k = 0; k < n; ++k )
+			for ( int d = 0; d < numDimensions; ++d )
+				nodes[ k * numDimensions + d ] = points[ d ][ index[ k ] ];
+	}
+
+	public int size(){ return index.length; }
+
+	public int numDimensions(){ return points.length; }
+
+	final private void build( final int min, final int max )
+	{
+		if ( max - min < 2 )
+			return;
+
+		int splitDimension = 0;
+		double maxExtent = -1;
+		for ( int d = 0; d < points.length; ++d )
+		{
+			final double[] coordinate = points[ d ];
+			double lo = Double.MAX_VALUE, hi = -Double.MAX_VALUE;
+			for ( int i = min; i < max; ++i )
+			{
+				final double c = coordinate[ index[ i ] ];
+				if ( c < lo ) lo = c;
+				if ( c > hi ) hi = c;
+			}
+			if ( hi - lo > maxExtent )
+			{
+				maxExtent = hi - lo;
+				splitDimension = d;
+			}
+		}
+
+		final int mid = ( min + max ) >>> 1;
+		splitDimensions[ mid ] = ( byte )splitDimension;
+		select( points[ splitDimension ], min, max - 1, mid );
+		build( min, mid );
+		build( mid + 1, max );
+	}
+
+	/**
+	 * Partially sort index[left..right] by coordinate such that the k-th
+	 * element is in its final position (Hoare's selection).
+	 */
+	final private void select( final double[] coordinate, int left, int right, final int k )
+	{
+		while ( right > left )
+		{
+			final double pivot = coordinate[ index[ ( left + right ) >>> 1 ] ];
+			int i = left;
+			int j = right;
+			while ( i <= j )
+			{
+				while ( coordinate[ index[ i ] ] < pivot ) ++i;
+				while ( coordinate[ index[ j ] ] > pivot ) --j;
+				if ( i <= j )
+				{
+					final int t = index[ i ];
+					index[ i ] = index[ j ];
+					index[ j ] = t;
+					++i;
+					--j;
+				}
+			}
+			if ( k <= j )
+				right = j;
+			else if ( k >= i )
+				left = i;
+			else
+				return;
+		}
+	}
+
+	/**
+	 * Square distance of location and the node at position k.
+	 */
+	final private double squareDistance( final double[] location, final int k )
+	{
+		final int offset = k * location.length;
+		double sum = 0;
+		for ( int d = 0; d < location.length; ++d )
+		{
+			final double dd = nodes[ offset + d ] - location[ d ];
+			sum += dd * dd;
+		}
+		return sum;
+	}
+
+	/**
+	 * Find all points within radius of location.
+	 *
+	 * @param location
+	 * @param radius
+	 * @param result indices of the points found, at least {@link #size()}
+	 *   long to be safe
+	 *
+	 * @return number of points found
+	 */
+	public int radiusSearch( final double[] location, final double radius, final int[] result )
+	{
+		return radiusSearch( location, radius * radius, 0, index.length, result, 0 );
+	}
+
+	final private int radiusSearch(
+			final double[] location,
+			final double squareRadius,
+			final int min,
+			final int max,
+			final int[] result,
+			int n )
+	{
+		if ( max <= min )
+			return n;
+
+		final int mid = ( min + max ) >>> 1;
+		if ( squareDistance( location, mid ) <= squareRadius )
+			result[ n++ ] = index[ mid ];
+
+		final int d = splitDimensions[ mid ];
+		final double dd = location[ d ] - nodes[ mid * location.length + d ];
+		if ( dd <= 0 || dd * dd <= squareRadius )
+			n = radiusSearch( location, squareRadius, min, mid, result, n );
+		if ( dd >= 0 || dd * dd <= squareRadius )
+			n = radiusSearch( location, squareRadius, mid + 1, max, result, n );
+
+		return n;
+	}
+
+	/**
+	 * Find the point closest to location.
+	 *
+	 * @param location
+	 *
+	 * @return index of the nearest neighbor, -1 if the tree is empty
+	 */
+	public int nearestNeighbor( final double[] location )
+	{
+		/* pending far sides, at most one per level */
+		final int[] stackMin = new int[ 64 ];
+		final int[] stackMax = new int[ 64 ];
+		final double[] stackSquareDistance = new double[ 64 ];
+		int stackSize = 1;
+		stackMin[ 0 ] = 0;
+		stackMax[ 0 ] = index.length;
+		stackSquareDistance[ 0 ] = 0;
+
+		int best = -1;
+		double bestSquareDistance = Double.MAX_VALUE;
+		while ( stackSize > 0 )
+		{
+			--stackSize;
+			if ( stackSquareDistance[ stackSize ] >= bestSquareDistance )
+				continue;
+
+			int min = stackMin[ stackSize ];
+			int max = stackMax[ stackSize ];
+			while ( max > min )
+			{
+				final int mid = ( min + max ) >>> 1;
+				final double sd = squareDistance( location, mid );
+				if ( sd < bestSquareDistance )
+				{
+					best = mid;
+					bestSquareDistance = sd;
+				}
+
+				final int d = splitDimensions[ mid ];
+				final double dd = location[ d ] - nodes[ mid * location.length + d ];
+				final double dd2 = dd * dd;
+				if ( dd < 0 )
+				{
+					if ( dd2 < bestSquareDistance && mid + 1 < max )
+					{
+						stackMin[ stackSize ] = mid + 1;
+						stackMax[ stackSize ] = max;
+						stackSquareDistance[ stackSize++ ] = dd2;
+					}
+					max = mid;
+				}
+				else
+				{
+					if ( dd2 < bestSquareDistance && min < mid )
+					{
+						stackMin[ stackSize ] = min;
+						stackMax[ stackSize ] = mid;
+						stackSquareDistance[ stackSize++ ] = dd2;
+					}
+					min = mid + 1;
+				}
+			}
+		}
+		return best < 0 ? -1 : index[ best ];
+	}
+}
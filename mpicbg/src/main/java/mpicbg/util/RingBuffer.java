@@ -235,6 +235,19 @@ public class RingBuffer< T > extends AbstractList< T >
 		nextBufferIndex = 0;
 		size = 0;
 	}
+
+	/**
+	 * Remove all elements and continue with a given real index, e.g. to
+	 * restore the last elements of a long sequence.
+	 *
+	 * @param nextIndex real index of the next element to be added
+	 */
+	public void clear( final int nextIndex )
+	{
+		clear();
+		nextRealIndex = nextIndex;
+		nextBufferIndex = nextIndex % buffer.length;
+	}
 	
 	@Override
 	public Iterator< T > iterator() { return new RingBufferIterator(); }